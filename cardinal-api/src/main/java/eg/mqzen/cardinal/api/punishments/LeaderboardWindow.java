@@ -0,0 +1,44 @@
+package eg.mqzen.cardinal.api.punishments;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * The periods most-punished-players leaderboards are kept for, made of whole (UTC) days.
+ *
+ * @see PunishmentHistoryService#getLeaderboard(PunishmentType, LeaderboardWindow, int)
+ */
+public enum LeaderboardWindow {
+
+    /**
+     * Since midnight (UTC).
+     */
+    DAY(1),
+
+    /**
+     * Today and the 6 days before it.
+     */
+    WEEK(7),
+
+    ALL_TIME(0);
+
+    private final int days;
+
+    LeaderboardWindow(int days) {
+        this.days = days;
+    }
+
+    /**
+     * @param now the current time.
+     * @return the start of the window, null for all time.
+     */
+    public @Nullable Instant since(@NotNull Instant now) {
+        if (days == 0) {
+            return null;
+        }
+        return now.truncatedTo(ChronoUnit.DAYS).minus(days - 1, ChronoUnit.DAYS);
+    }
+}
@@ -1,6 +1,6 @@
 package eg.mqzen.cardinal.api.punishments;
 
-import eg.mqzen.cardinal.api.storage.DBEntity;
+import eg.mqzen.cardinal.api.storage.VersionedEntity;
 import net.kyori.adventure.text.minimessage.tag.resolver.TagResolver;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -16,7 +16,7 @@ import java.util.Optional;
  *
  * @param <T> the type of the target entity (e.g., Player, IPAddress)
  */
-public interface Punishment<T> extends DBEntity<String> {
+public interface Punishment<T> extends VersionedEntity<String> {
 
     @NotNull @Override
     default String getEntityID() {
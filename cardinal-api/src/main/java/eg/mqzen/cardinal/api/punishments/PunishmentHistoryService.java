@@ -1,6 +1,8 @@
 package eg.mqzen.cardinal.api.punishments;
 
+import eg.mqzen.cardinal.api.storage.Page;
 import eg.mqzen.cardinal.api.util.FutureOperation;
+import org.jetbrains.annotations.Nullable;
 
 import java.time.Duration;
 import java.time.Instant;
@@ -62,6 +64,34 @@ public interface PunishmentHistoryService {
     }
 
 
+    /**
+     * Retrieves one page of the punishment history of every player, most recent punishments first.
+     *
+     * <p>Pages are read with keyset pagination: instead of skipping the punishments of the previous
+     * pages, the query resumes right after the last one, so any page costs the same as the first.
+     * Pass the {@link Page#nextCursor()} of a page to get the next one.</p>
+     *
+     * @param cursor   the cursor of the previous page, or null for the first page
+     * @param pageSize the maximum number of punishments of the page
+     * @return a {@link FutureOperation} containing the page
+     * @throws IllegalArgumentException if pageSize isn't positive or the cursor is malformed
+     */
+    FutureOperation<Page<Punishment<?>>> getHistoryPage(@Nullable String cursor, int pageSize);
+
+    /**
+     * Retrieves one page of the punishment history of a player, most recent punishments first.
+     *
+     * <p>Reads only the punishments of that player, through the index on their target,
+     * a page costing the same whatever its depth. Pass the {@link Page#nextCursor()} of a page to get the next one.</p>
+     *
+     * @param playerId the UUID of the player to query punishment history for
+     * @param cursor   the cursor of the previous page, or null for the first page
+     * @param pageSize the maximum number of punishments of the page
+     * @return a {@link FutureOperation} containing the page
+     * @throws IllegalArgumentException if pageSize isn't positive or the cursor is malformed
+     */
+    FutureOperation<Page<Punishment<?>>> getHistoryPage(UUID playerId, @Nullable String cursor, int pageSize);
+
     // === Search & Query ===
 
     /**
@@ -74,6 +104,18 @@ public interface PunishmentHistoryService {
      */
     FutureOperation<Deque<Punishment<?>>> getPunishmentsByPunisher(PunishmentIssuer issuer, int limit);
 
+    /**
+     * Retrieves one page of the punishments applied by a staff member, most recent first.
+     *
+     * @param issuer   the issuer of the punishments
+     * @param cursor   the {@link Page#nextCursor()} of the previous page, or null for the first page
+     * @param pageSize the maximum number of punishments of the page
+     * @return a {@link FutureOperation} containing the page
+     * @throws IllegalArgumentException if pageSize isn't positive or the cursor is malformed
+     * @see #getHistoryPage(String, int)
+     */
+    FutureOperation<Page<Punishment<?>>> getPunishmentsByPunisher(PunishmentIssuer issuer, @Nullable String cursor, int pageSize);
+
 
     /**
      * Searches for punishments containing specific text in their reason.
@@ -241,6 +283,7 @@ public interface PunishmentHistoryService {
 
     /**
      * Gets the most frequently punished players.
+     * Punishments revoked by staff are not counted, expired ones are.
      *
      * @param type the punishment type to analyze, or null for all types
      * @param limit the maximum number of players to return
@@ -249,6 +292,17 @@ public interface PunishmentHistoryService {
      */
     FutureOperation<LinkedHashMap<UUID, Integer>> getMostPunishedPlayers(PunishmentType type, int limit, Instant since);
 
+    /**
+     * Gets the most frequently punished players of a leaderboard window.
+     * Punishments revoked by staff are not counted.
+     *
+     * @param type the punishment type to rank by, or null for all types
+     * @param window the period to rank over
+     * @param limit the maximum number of players to return
+     * @return a {@link FutureOperation} containing a map of player UUIDs to punishment counts, most punished first
+     */
+    FutureOperation<LinkedHashMap<UUID, Integer>> getLeaderboard(@Nullable PunishmentType type, LeaderboardWindow window, int limit);
+
     /**
      * Retrieves punishments by target type (useful for IP bans vs player bans).
      *
@@ -9,6 +9,7 @@ import org.jetbrains.annotations.Nullable;
 import java.time.Duration;
 import java.util.Collection;
 import java.util.Deque;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -349,6 +350,26 @@ public interface PunishmentManager {
     @NotNull
     FutureOperation<PunishmentScanResult> scan(@NotNull UUID uuid, @Nullable String ipAddress, PunishmentType punishmentType);
 
+    /**
+     * Scans the player's account and IP address for active punishments of several types at once.
+     * Unlike {@link #scan(UUID, String, PunishmentType)}, both targets are settled together:
+     * each type not answered from memory costs one query matching the account and the IP at once,
+     * the queries of the different types running concurrently instead of sequential lookups.
+     *
+     * @param uuid            the player's unique identifier
+     * @param ipAddress       the player's IP address, may be null if unavailable
+     * @param punishmentTypes the punishment types to look for
+     * @return a {@link FutureOperation} containing a {@link PunishmentScanResult} per requested type,
+     * in the order the types were given.
+     * @since 1.0
+     */
+    @NotNull
+    FutureOperation<Map<PunishmentType, PunishmentScanResult>> scan(
+            @NotNull UUID uuid,
+            @Nullable String ipAddress,
+            @NotNull Collection<? extends PunishmentType> punishmentTypes
+    );
+
     /**
      * Retrieves the punishment history service used to manage punishment records and history.
      *
@@ -5,11 +5,11 @@ import org.jetbrains.annotations.Nullable;
 
 import java.time.Duration;
 import java.time.Instant;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Immutable statistical information about a player's punishment history.
@@ -113,7 +113,7 @@ public final class PunishmentStatistics {
     }
 
     /**
-     * Builder for PunishmentStatistics.
+     * Builder for PunishmentStatistics, meant to be filled by a single thread.
      */
     public static final class Builder {
         private final UUID playerId;
@@ -122,8 +122,8 @@ public final class PunishmentStatistics {
         private int expiredCount = 0;
         private int revokedCount = 0;
         private int permanentCount = 0;
-        private final Map<PunishmentType, Integer> countByType = new ConcurrentHashMap<>();
-        public final Map<PunishmentIssuer, Integer> countByIssuer = new ConcurrentHashMap<>();
+        private final Map<PunishmentType, Integer> countByType = new HashMap<>();
+        private final Map<PunishmentIssuer, Integer> countByIssuer = new HashMap<>();
         private Instant firstPunishment;
         private Instant lastPunishment;
         private Instant mostRecentActive;
@@ -139,7 +139,7 @@ public final class PunishmentStatistics {
         /**
          * Adds a punishment to the statistics.
          */
-        public synchronized void addPunishment(PunishmentType type, Duration duration) {
+        public void addPunishment(PunishmentType type, Duration duration) {
             totalCount++;
             
             // Update type count
@@ -155,10 +155,60 @@ public final class PunishmentStatistics {
             }
         }
 
+        /**
+         * Counts a punishment issued by the given issuer.
+         */
+        public Builder addIssuer(PunishmentIssuer issuer) {
+            countByIssuer.merge(issuer, 1, Integer::sum);
+            return this;
+        }
+
+        /**
+         * Sets total punishments count, for precomputed statistics.
+         */
+        public Builder totalCount(int count) {
+            this.totalCount = count;
+            return this;
+        }
+
+        /**
+         * Sets permanent punishments count, for precomputed statistics.
+         */
+        public Builder permanentCount(int count) {
+            this.permanentCount = count;
+            return this;
+        }
+
+        /**
+         * Sets the total duration of the temporary punishments, for precomputed statistics.
+         */
+        public Builder totalDuration(Duration duration) {
+            this.totalDuration = Objects.requireNonNull(duration);
+            return this;
+        }
+
+        /**
+         * Sets the punishment counts per type, for precomputed statistics.
+         */
+        public Builder countByType(Map<PunishmentType, Integer> counts) {
+            countByType.clear();
+            countByType.putAll(counts);
+            return this;
+        }
+
+        /**
+         * Sets the punishment counts per issuer, for precomputed statistics.
+         */
+        public Builder countByIssuer(Map<PunishmentIssuer, Integer> counts) {
+            countByIssuer.clear();
+            countByIssuer.putAll(counts);
+            return this;
+        }
+
         /**
          * Sets active punishments count.
          */
-        public synchronized Builder activeCount(int count) {
+        public Builder activeCount(int count) {
             this.activeCount = count;
             return this;
         }
@@ -166,7 +216,7 @@ public final class PunishmentStatistics {
         /**
          * Sets expired punishments count.
          */
-        public synchronized Builder expiredCount(int count) {
+        public Builder expiredCount(int count) {
             this.expiredCount = count;
             return this;
         }
@@ -174,7 +224,7 @@ public final class PunishmentStatistics {
         /**
          * Sets revoked punishments count.
          */
-        public synchronized Builder revokedCount(int count) {
+        public Builder revokedCount(int count) {
             this.revokedCount = count;
             return this;
         }
@@ -182,7 +232,7 @@ public final class PunishmentStatistics {
         /**
          * Sets first punishment timestamp.
          */
-        public synchronized Builder firstPunishment(Instant instant) {
+        public Builder firstPunishment(Instant instant) {
             this.firstPunishment = instant;
             return this;
         }
@@ -190,7 +240,7 @@ public final class PunishmentStatistics {
         /**
          * Sets last punishment timestamp.
          */
-        public synchronized Builder lastPunishment(Instant instant) {
+        public Builder lastPunishment(Instant instant) {
             this.lastPunishment = instant;
             return this;
         }
@@ -198,7 +248,7 @@ public final class PunishmentStatistics {
         /**
          * Sets most recent active punishment timestamp.
          */
-        public synchronized Builder mostRecentActive(Instant instant) {
+        public Builder mostRecentActive(Instant instant) {
             this.mostRecentActive = instant;
             return this;
         }
@@ -206,11 +256,13 @@ public final class PunishmentStatistics {
         /**
          * Finalizes and builds the statistics.
          */
-        public synchronized PunishmentStatistics build() {
+        public PunishmentStatistics build() {
             // Calculate averages
-            if (totalCount > 0) {
-                this.averageDuration = totalDuration.dividedBy(totalCount - permanentCount);
-                
+            int temporaryCount = totalCount - permanentCount;
+            if (temporaryCount > 0) {
+                this.averageDuration = totalDuration.dividedBy(temporaryCount);
+            }
+            if (totalCount > 0 && firstPunishment != null) {
                 long days = Duration.between(firstPunishment, generatedAt).toDays();
                 this.punishmentsPerDay = days > 0 ? (double) totalCount / days : totalCount;
             }
@@ -7,7 +7,20 @@ package eg.mqzen.cardinal.api.storage;
  */
 public interface BatchOperation<T> {
     BatchOperation<T> insert(T entity);
+
+    /**
+     * Replaces the stored entity of the same id.
+     * {@link VersionedEntity Versioned} entities are only written if the stored version still matches theirs,
+     * as with {@link Repository#compareAndSave}, and are otherwise reported in {@link BatchOperationResult#conflicts()}.
+     */
     BatchOperation<T> update(T entity);
+
+    /**
+     * Inserts the entity, or replaces the stored one of the same id.
+     * {@link VersionedEntity Versioned} entities are written with their version incremented,
+     * unconditionally (without the check of {@link Repository#compareAndSave}).
+     */
+    BatchOperation<T> upsert(T entity);
     BatchOperation<T> delete(T entity);
-    BatchOperationResult execute() throws StorageException;
+    BatchOperationResult<T> execute() throws StorageException;
 }
\ No newline at end of file
@@ -4,12 +4,22 @@ import java.util.List;
 
 /**
  * Batch operation result
- * 
+ *
+ * @param conflicts the {@link VersionedEntity versioned} entities left unwritten by {@link BatchOperation#update},
+ *                  their stored document having changed since they were read.
+ * @param failed    the entities left unwritten because of an error (e.g. failing to serialize), listed in {@code errors}.
  * @since 1.0
  */
-public record BatchOperationResult(
+public record BatchOperationResult<T>(
     int insertedCount,
     int updatedCount,
     int deletedCount,
-    List<String> errors
-) {}
\ No newline at end of file
+    List<String> errors,
+    List<T> conflicts,
+    List<T> failed
+) {
+
+    public BatchOperationResult(int insertedCount, int updatedCount, int deletedCount, List<String> errors) {
+        this(insertedCount, updatedCount, deletedCount, errors, List.of(), List.of());
+    }
+}
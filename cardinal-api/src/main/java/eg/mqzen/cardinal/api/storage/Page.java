@@ -0,0 +1,25 @@
+package eg.mqzen.cardinal.api.storage;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+
+/**
+ * One page of a keyset-paginated query, see {@link QueryBuilder#page(int)}.
+ *
+ * @param items      the entities of this page, in the query's order.
+ * @param nextCursor an opaque token resuming right after the last item through {@link QueryBuilder#after(String)},
+ *                   or null if this is the last page.
+ * @since 1.0
+ */
+public record Page<T>(@NotNull List<T> items, @Nullable String nextCursor) {
+
+    public static <T> Page<T> empty() {
+        return new Page<>(List.of(), null);
+    }
+
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+}
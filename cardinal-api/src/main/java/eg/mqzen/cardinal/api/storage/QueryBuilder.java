@@ -1,8 +1,12 @@
 package eg.mqzen.cardinal.api.storage;
 
+import org.jetbrains.annotations.Nullable;
+
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 /**
  * Fluent query builder interface
@@ -25,9 +29,52 @@ public interface QueryBuilder<T> {
     QueryBuilder<T> sortBy(Class<?> sortEntityTypeClass, String field, SortOrder order);
     QueryBuilder<T> limit(int limit);
     QueryBuilder<T> skip(int skip);
-    
+
+    /**
+     * Resumes a keyset-paginated query right after the last item of a previous {@link #page(int)}.
+     *
+     * @param cursor the {@link Page#nextCursor()} of the previous page, or null to start from the first page.
+     * @throws IllegalArgumentException if the cursor is malformed.
+     */
+    QueryBuilder<T> after(@Nullable String cursor);
+
+    /**
+     * Fetches one page, ordered by the field of {@link #sortBy} with the entity id as a tie-breaker.
+     * Instead of skipping rows, the query seeks past the cursor given to {@link #after(String)},
+     * so a deep page costs the same as the first one. The sort field has to hold a long (e.g. epoch millis).
+     *
+     * @param size the maximum number of items of the page.
+     * @throws IllegalStateException if no sort field was set.
+     */
+    Page<T> page(int size) throws StorageException;
+    CompletableFuture<Page<T>> pageAsync(int size);
+
     List<T> execute() throws StorageException;
     CompletableFuture<List<T>> executeAsync();
+
+    /**
+     * Lazily streams the results, fetching them from the database {@code batchSize} at a time,
+     * so heap use stays flat however many entities match.
+     * The stream holds a database cursor until closed, use it in a try-with-resources block.
+     * A failure while reading is thrown as an {@link UncheckedStorageException}.
+     *
+     * @param batchSize the number of entities fetched per round trip.
+     */
+    Stream<T> stream(int batchSize) throws StorageException;
+
+    /**
+     * Passes every result to the consumer, {@code batchSize} entities being fetched at a time.
+     *
+     * @see #stream(int)
+     */
+    default void forEach(int batchSize, Consumer<? super T> consumer) throws StorageException {
+        try (Stream<T> results = stream(batchSize)) {
+            results.forEach(consumer);
+        } catch (UncheckedStorageException e) {
+            throw e.getCause();
+        }
+    }
+
     Optional<T> findFirst() throws StorageException;
     long count() throws StorageException;
     
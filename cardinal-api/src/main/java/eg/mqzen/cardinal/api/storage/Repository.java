@@ -6,6 +6,8 @@ import studio.mevera.imperat.util.TypeWrap;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 /**
  * Generic repository interface providing CRUD operations and query capabilities
@@ -20,6 +22,18 @@ public interface Repository<ID, T extends DBEntity<ID>> {
 
     // Basic CRUD operations
     T save(T entity) throws StorageException;
+
+    /**
+     * Saves the entity only if the stored document still has the entity's version
+     * (or does not exist yet, for an entity of version 0), incrementing that version.
+     * Entities that are not {@link VersionedEntity versioned} are saved unconditionally.
+     *
+     * @return {@link SaveResult.Saved} if written, otherwise {@link SaveResult.Conflict} with the current stored entity.
+     */
+    default SaveResult<T> compareAndSave(T entity) throws StorageException {
+        return SaveResult.saved(save(entity));
+    }
+
     List<T> saveAll(List<T> entities) throws StorageException;
     Optional<T> findById(ID id) throws StorageException;
     List<T> findAll() throws StorageException;
@@ -36,6 +50,20 @@ public interface Repository<ID, T extends DBEntity<ID>> {
     
     // Query builder
     QueryBuilder<T> query();
+
+    /**
+     * Streams every entity of the repository with bounded memory, see {@link QueryBuilder#stream(int)}.
+     */
+    default Stream<T> stream(int batchSize) throws StorageException {
+        return query().stream(batchSize);
+    }
+
+    /**
+     * Passes every entity of the repository to the consumer with bounded memory, see {@link QueryBuilder#forEach(int, Consumer)}.
+     */
+    default void forEach(int batchSize, Consumer<? super T> consumer) throws StorageException {
+        query().forEach(batchSize, consumer);
+    }
     
     // Batch operations
     BatchOperation<T> batch();
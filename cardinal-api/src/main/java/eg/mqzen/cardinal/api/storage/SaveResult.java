@@ -0,0 +1,36 @@
+package eg.mqzen.cardinal.api.storage;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Outcome of a conditional save, see {@link Repository#compareAndSave(DBEntity)}.
+ *
+ * @since 1.0
+ */
+public sealed interface SaveResult<T> {
+
+    /**
+     * The entity was written, its version now matches the stored one.
+     */
+    record Saved<T>(@NotNull T entity) implements SaveResult<T> {}
+
+    /**
+     * The stored document changed since the entity was read, nothing was written.
+     *
+     * @param current the currently stored entity, or null if it was deleted meanwhile.
+     */
+    record Conflict<T>(@Nullable T current) implements SaveResult<T> {}
+
+    static <T> SaveResult<T> saved(@NotNull T entity) {
+        return new Saved<>(entity);
+    }
+
+    static <T> SaveResult<T> conflict(@Nullable T current) {
+        return new Conflict<>(current);
+    }
+
+    default boolean isConflict() {
+        return this instanceof Conflict<T>;
+    }
+}
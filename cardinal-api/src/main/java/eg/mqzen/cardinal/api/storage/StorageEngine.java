@@ -4,6 +4,7 @@ import studio.mevera.imperat.util.TypeWrap;
 
 import java.util.Collection;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  * Main facade interface for the storage engine providing unified access to different database backends.
@@ -17,6 +18,16 @@ public interface StorageEngine extends AutoCloseable {
      */
     <ID, T extends DBEntity<ID>> Repository<ID, T> getRepositoryOrCreate(String name, TypeWrap<T> entityType);
 
+    /**
+     * Checks whether the storage holds the table/collection of a repository, without creating it.
+     */
+    boolean hasRepository(String name) throws StorageException;
+
+    /**
+     * Drops the table/collection of a repository, along with everything in it.
+     */
+    void dropRepository(String name) throws StorageException;
+
     /**
      * Register an observer for storage events
      */
@@ -37,6 +48,12 @@ public interface StorageEngine extends AutoCloseable {
      */
     <T> CompletableFuture<T> executeTransactionAsync(StorageCommand<T> command);
     
+    /**
+     * Get the bounded executor the engine runs concurrent queries on, such as the per-repository queries
+     * of a cross-repository query, sized to what the storage serves at once.
+     */
+    Executor getQueryExecutor();
+
     /**
      * Get storage metrics
      */
@@ -0,0 +1,17 @@
+package eg.mqzen.cardinal.api.storage;
+
+/**
+ * Wraps a {@link StorageException} thrown where checked exceptions can't be, e.g. while consuming a
+ * {@link QueryBuilder#stream(int) result stream}.
+ */
+public class UncheckedStorageException extends RuntimeException {
+
+    public UncheckedStorageException(StorageException cause) {
+        super(cause.getMessage(), cause);
+    }
+
+    @Override
+    public synchronized StorageException getCause() {
+        return (StorageException) super.getCause();
+    }
+}
@@ -0,0 +1,18 @@
+package eg.mqzen.cardinal.api.storage;
+
+/**
+ * An entity carrying a version number, incremented by every successful save.
+ * Used by {@link Repository#compareAndSave(DBEntity)} to detect concurrent modifications.
+ *
+ * @since 1.0
+ */
+public interface VersionedEntity<ID> extends DBEntity<ID> {
+
+    /**
+     * @return the version of the stored document this entity was read from (or last saved as),
+     * 0 if it was never saved.
+     */
+    long getVersion();
+
+    void setVersion(long version);
+}
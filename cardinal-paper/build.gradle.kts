@@ -4,6 +4,7 @@ plugins {
     id("java")
     id("com.gradleup.shadow") version "9.0.0-beta12"
     id("io.papermc.paperweight.userdev") version "2.0.0-beta.19"
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 group = "eg.mqzen"
@@ -71,6 +72,17 @@ dependencies {
     //TODO add dependency runtime using libby for other dependencies
     implementation("com.alessiodp.libby:libby-paper:2.0.0-SNAPSHOT")
     implementation("com.github.ben-manes.caffeine:caffeine:3.2.2")
+
+    //the benchmarks run outside of a server, with the API classes the plugin is compiled against
+    jmhImplementation("io.papermc.paper:paper-api:1.21.11-R0.1-SNAPSHOT")
+    jmhImplementation("org.jetbrains:annotations:26.0.2")
+}
+
+jmh {
+    jmhVersion.set("1.37")
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
 }
 
 
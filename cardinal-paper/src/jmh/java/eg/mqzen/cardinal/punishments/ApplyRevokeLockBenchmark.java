@@ -0,0 +1,110 @@
+package eg.mqzen.cardinal.punishments;
+
+import eg.mqzen.cardinal.api.punishments.Punishment;
+import eg.mqzen.cardinal.api.punishments.StandardPunishmentType;
+import eg.mqzen.cardinal.punishments.core.StandardPunishment;
+import eg.mqzen.cardinal.punishments.core.StandardPunishmentID;
+import eg.mqzen.cardinal.punishments.issuer.PunishmentIssuerFactory;
+import eg.mqzen.cardinal.punishments.target.PunishmentTargetFactory;
+import eg.mqzen.cardinal.util.StripedLocks;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Throughput of the critical section of apply and revoke (replacing then removing a punishment in the
+ * target's cached deque) across threads, under the per-target {@link StripedLocks} and under the single
+ * manager-wide lock they replaced. Storage writes are left out, only the lock and the cache update are measured.
+ * <p>
+ * {@link #main} runs it with 1, 2, 4, 8, 16 and 32 threads:
+ * {@code java -cp cardinal-paper/build/libs/cardinal-paper-1.0-jmh.jar eg.mqzen.cardinal.punishments.ApplyRevokeLockBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ApplyRevokeLockBenchmark {
+
+    private static final int TARGETS = 4096;
+
+    private static final int[] THREADS = {1, 2, 4, 8, 16, 32};
+
+    @Param({"striped", "global"})
+    public String locking;
+
+    private final StripedLocks targetLocks = StripedLocks.forAvailableProcessors();
+    private final ReentrantLock globalLock = new ReentrantLock();
+    private final PunishmentsCache cache = new PunishmentsCache(StandardPunishmentType.BAN, 0);
+
+    private UUID[] targets;
+    private Punishment<?>[] punishments;
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+
+        private final SplittableRandom random = new SplittableRandom();
+
+        int next() {
+            return random.nextInt(TARGETS);
+        }
+    }
+
+    @Setup
+    public void setup() {
+        targets = new UUID[TARGETS];
+        punishments = new Punishment<?>[TARGETS];
+        for(int i = 0; i < TARGETS; i++) {
+            targets[i] = UUID.randomUUID();
+            punishments[i] = new StandardPunishment<>(new StandardPunishmentID("B" + i), StandardPunishmentType.BAN,
+                    PunishmentTargetFactory.playerTarget(targets[i], "player" + i),
+                    PunishmentIssuerFactory.fromPlayerInfo(UUID.randomUUID(), "staff"),
+                    "benchmark", Instant.now(), Duration.ofDays(1));
+        }
+    }
+
+    @Benchmark
+    public void applyAndRevoke(ThreadState thread) {
+        int i = thread.next();
+        UUID target = targets[i];
+        Punishment<?> punishment = punishments[i];
+        runLocked(target, ()-> cache.replacePunishment(target, punishment));
+        runLocked(target, ()-> cache.removePunishment(target, punishment));
+    }
+
+    private void runLocked(UUID target, Runnable action) {
+        if(locking.equals("striped")) {
+            targetLocks.runWithLock(target, action);
+            return;
+        }
+        globalLock.lock();
+        try {
+            action.run();
+        } finally {
+            globalLock.unlock();
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for(int threads : THREADS) {
+            new Runner(new OptionsBuilder()
+                    .include(ApplyRevokeLockBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build())
+                    .run();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package eg.mqzen.cardinal.punishments;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import eg.mqzen.cardinal.api.punishments.Punishment;
+import eg.mqzen.cardinal.api.punishments.PunishmentScanResult;
+import eg.mqzen.cardinal.api.punishments.PunishmentType;
+import eg.mqzen.cardinal.api.punishments.StandardPunishmentType;
+import eg.mqzen.cardinal.api.util.FutureOperation;
+import eg.mqzen.cardinal.punishments.core.StandardPunishment;
+import eg.mqzen.cardinal.punishments.core.StandardPunishmentID;
+import eg.mqzen.cardinal.punishments.issuer.PunishmentIssuerFactory;
+import eg.mqzen.cardinal.punishments.target.PunishmentTargetFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Deque;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of checking one chat message of a muted player: reading their {@link OnlinePunishmentStates} snapshot,
+ * against the {@code scan(uuid, ip, MUTE).join()} it replaced.
+ * <p>
+ * The scan is measured at its best, its account lookup hitting the materialized cache, through the same
+ * future chain as the manager's. A lookup missing the cache adds a storage round trip on top of it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MuteCheckBenchmark {
+
+    private final UUID player = UUID.randomUUID();
+
+    private final OnlinePunishmentStates onlineStates = new OnlinePunishmentStates(null);
+    private final Cache<PunishmentType, PunishmentsCache> activePunishments = Caffeine.newBuilder().build();
+
+    @Setup
+    public void setup() {
+        Punishment<?> mute = new StandardPunishment<>(new StandardPunishmentID("M1"), StandardPunishmentType.MUTE,
+                PunishmentTargetFactory.playerTarget(player, "player"),
+                PunishmentIssuerFactory.fromPlayerInfo(UUID.randomUUID(), "staff"),
+                "benchmark", Instant.now(), Duration.ofDays(1));
+
+        onlineStates.seed(player, "127.0.0.1", PunishmentScanResult.success(mute), onlineStates.generation());
+        activePunishments.get(StandardPunishmentType.MUTE, PunishmentsCache::new).addPunishment(player, mute);
+    }
+
+    @Benchmark
+    public Punishment<?> snapshotRead() {
+        OnlinePunishmentStates.Snapshot snapshot = onlineStates.getSnapshot(player);
+        return snapshot == null ? null : snapshot.activeMute(System.currentTimeMillis());
+    }
+
+    @Benchmark
+    public Punishment<?> cachedScanJoin() {
+        PunishmentScanResult result = cachedActivePunishment(player, StandardPunishmentType.MUTE)
+                .thenCompose((found)-> CompletableFuture.completedFuture(found))
+                .thenApply((found)-> found.map(PunishmentScanResult::success).orElseGet(PunishmentScanResult::failure))
+                .onErrorAndReturn(PunishmentScanResult::failure)
+                .join();
+        return result.getFoundPunishment().orElse(null);
+    }
+
+    /**
+     * The cache hit of the manager's active punishment lookup.
+     */
+    private FutureOperation<Optional<Punishment<?>>> cachedActivePunishment(UUID playerId, PunishmentType type) {
+        PunishmentsCache punishmentsOfType = activePunishments.get(type, PunishmentsCache::new);
+        Deque<Punishment<?>> userPunishments = punishmentsOfType == null ? null : punishmentsOfType.getPunishmentsIfPresent(playerId);
+        Punishment<?> punishment = userPunishments == null ? null : userPunishments.peekLast();
+        if(punishment == null || punishment.isRevoked() || punishment.hasExpired()) {
+            return FutureOperation.completed(Optional.empty());
+        }
+        return FutureOperation.completed(Optional.of(punishment));
+    }
+}
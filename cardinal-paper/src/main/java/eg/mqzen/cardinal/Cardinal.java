@@ -22,13 +22,19 @@ import eg.mqzen.cardinal.commands.punishments.WarnCommand;
 import eg.mqzen.cardinal.config.YamlMessageConfig;
 import eg.mqzen.cardinal.listener.BanListener;
 import eg.mqzen.cardinal.listener.MuteListener;
+import eg.mqzen.cardinal.listener.PunishmentStateListener;
+import eg.mqzen.cardinal.punishments.OnlinePunishmentStates;
 import eg.mqzen.cardinal.punishments.StandardPunishmentManager;
 import eg.mqzen.cardinal.punishments.issuer.PunishmentIssuerFactory;
+import eg.mqzen.cardinal.util.CommandTrie;
 import eg.mqzen.cardinal.util.ConfigLoader;
 import eg.mqzen.cardinal.util.Events;
+import eg.mqzen.cardinal.util.Tasks;
 import io.github.mqzen.menus.Lotus;
 import lombok.Getter;
 import org.bukkit.Bukkit;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandMap;
 import org.jetbrains.annotations.NotNull;
 import studio.mevera.imperat.BukkitImperat;
 import studio.mevera.imperat.BukkitSource;
@@ -36,6 +42,9 @@ import studio.mevera.imperat.context.ExecutionContext;
 import studio.mevera.imperat.util.TypeWrap;
 
 import java.time.Duration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 public final class Cardinal extends MPlugin implements CardinalAPI {
 
@@ -44,6 +53,11 @@ public final class Cardinal extends MPlugin implements CardinalAPI {
     private MessageConfig config;
     private PunishmentManager punishmentManager;
 
+    /**
+     * The compiled {@code mute-blocked-commands}, swapped as a whole whenever the config is (re)loaded.
+     */
+    @Getter private volatile CommandTrie muteBlockedCommands = CommandTrie.empty();
+
     @Getter private Lotus lotus;
 
     public Cardinal(
@@ -87,10 +101,16 @@ public final class Cardinal extends MPlugin implements CardinalAPI {
 
     @Override
     protected void registerPluginListeners() {
+        StandardPunishmentManager standardManager = punishmentManager instanceof StandardPunishmentManager manager ? manager : null;
+        OnlinePunishmentStates onlineStates = standardManager == null ? null : standardManager.getOnlineStates();
+
         Events.listen(this,
-                new BanListener(),
-                new MuteListener()
+                new BanListener(onlineStates),
+                new MuteListener(onlineStates)
         );
+        if(standardManager != null) {
+            Events.listen(this, new PunishmentStateListener(standardManager));
+        }
     }
 
     @Override
@@ -128,9 +148,62 @@ public final class Cardinal extends MPlugin implements CardinalAPI {
 
     }
 
+    @Override
+    protected void onPostStart() {
+        compileMuteBlockedCommands();
+        //once every plugin is enabled, so that the aliases of their commands are known too.
+        Tasks.runLater(this::compileMuteBlockedCommands, 1L);
+    }
+
+    @Override
+    public boolean reloadConfiguration() {
+        boolean reloaded = super.reloadConfiguration();
+        if(reloaded) {
+            compileMuteBlockedCommands();
+        }
+        return reloaded;
+    }
+
+    /**
+     * Compiles the {@code mute-blocked-commands} of the config, along with every alias of these commands,
+     * into a new {@link CommandTrie} that replaces the current one.
+     */
+    public void compileMuteBlockedCommands() {
+        List<String> configured = configYaml == null ? List.of() : configYaml.getStringList("mute-blocked-commands");
+        CommandMap commandMap = Bukkit.getCommandMap();
+
+        Set<String> commands = new LinkedHashSet<>();
+        for(String entry : configured) {
+            String command = entry.trim();
+            commands.add(command);
+
+            if(command.startsWith("/")) {
+                command = command.substring(1);
+            }
+            int space = command.indexOf(' ');
+            String label = space < 0 ? command : command.substring(0, space);
+            String arguments = space < 0 ? "" : command.substring(space);
+
+            Command registered = commandMap.getCommand(label.toLowerCase());
+            if(registered == null) {
+                continue;
+            }
+            commands.add(registered.getName() + arguments);
+            for(String alias : registered.getAliases()) {
+                commands.add(alias + arguments);
+            }
+        }
+
+        CommandTrie compiled = CommandTrie.compile(commands);
+        this.muteBlockedCommands = compiled;
+        log("Compiled %s mute-blocked commands (aliases included)", compiled.size());
+    }
+
     @Override
     protected void onStop() {
-        //TODO stop core
+        if(punishmentManager instanceof StandardPunishmentManager standardManager) {
+            standardManager.shutdown();
+        }
     }
 
     public static void log(String msg, Object... args) {
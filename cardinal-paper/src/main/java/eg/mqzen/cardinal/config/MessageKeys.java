@@ -267,6 +267,11 @@ public final class MessageKeys {
                     "success_temporary",
                     "<green>✅ Successfully muted <yellow><punishment_target></yellow> for <gold><punishment_duration></gold>. Reason: <#ffa500><punishment_reason></#ffa500>"
             );
+
+            public static final MessageKey EXPIRED = INSTANCE.createKey(
+                    "expired",
+                    "<green>🔊 Your mute has expired, you can chat again."
+            );
         }
 
         // Warn related messages
@@ -4,7 +4,9 @@ import eg.mqzen.cardinal.Cardinal;
 import eg.mqzen.cardinal.api.CardinalProvider;
 import eg.mqzen.cardinal.api.punishments.Punishment;
 import eg.mqzen.cardinal.api.punishments.PunishmentScanResult;
+import eg.mqzen.cardinal.api.punishments.PunishmentType;
 import eg.mqzen.cardinal.api.punishments.StandardPunishmentType;
+import eg.mqzen.cardinal.punishments.OnlinePunishmentStates;
 import eg.mqzen.cardinal.punishments.issuer.PunishmentIssuerFactory;
 import eg.mqzen.cardinal.util.PunishmentMessageUtil;
 import net.kyori.adventure.text.Component;
@@ -12,23 +14,45 @@ import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
+import org.jetbrains.annotations.Nullable;
 
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 
 
 public class BanListener implements Listener {
 
+    private static final List<PunishmentType> LOGIN_SCAN_TYPES = List.of(StandardPunishmentType.BAN, StandardPunishmentType.MUTE);
+
+    private final @Nullable OnlinePunishmentStates onlineStates;
+
+    public BanListener(@Nullable OnlinePunishmentStates onlineStates) {
+        this.onlineStates = onlineStates;
+    }
+
     @EventHandler(priority = EventPriority.LOW)
     public void onLogin(AsyncPlayerPreLoginEvent event) {
         UUID uuid = event.getUniqueId();
         String playerName = event.getName();
+        String ipAddress = event.getAddress().getHostAddress();
 
         try {
             // Check for active ban punishment
-            PunishmentScanResult scanResult = CardinalProvider.provide().getPunishmentManager()
-                    .scan(uuid, event.getAddress().getHostAddress(), StandardPunishmentType.BAN)
+            // Account and IP are settled together in a single round trip,
+            // the mute result seeds the player's state used by the chat checks
+            long stateGeneration = onlineStates == null ? 0L : onlineStates.generation();
+            Map<PunishmentType, PunishmentScanResult> scanResults = CardinalProvider.provide().getPunishmentManager()
+                    .scan(uuid, ipAddress, LOGIN_SCAN_TYPES)
                     .join();
+            if(onlineStates != null
+                    && !onlineStates.seed(uuid, ipAddress, scanResults.get(StandardPunishmentType.MUTE), stateGeneration)) {
+                //a mute changed during the scan, which may have missed it
+                onlineStates.load(uuid, ipAddress);
+            }
+
+            PunishmentScanResult scanResult = scanResults.get(StandardPunishmentType.BAN);
 
             if(scanResult.failed()) {
                 if(scanResult.getFoundPunishment().isEmpty()) {
@@ -2,8 +2,10 @@ package eg.mqzen.cardinal.listener;
 
 import eg.mqzen.cardinal.Cardinal;
 import eg.mqzen.cardinal.api.CardinalProvider;
+import eg.mqzen.cardinal.api.punishments.Punishment;
 import eg.mqzen.cardinal.api.punishments.PunishmentScanResult;
 import eg.mqzen.cardinal.api.punishments.StandardPunishmentType;
+import eg.mqzen.cardinal.punishments.OnlinePunishmentStates;
 import eg.mqzen.cardinal.util.PunishmentMessageUtil;
 import io.papermc.paper.event.player.AsyncChatEvent;
 import org.bukkit.entity.Player;
@@ -11,61 +13,63 @@ import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.player.PlayerCommandPreprocessEvent;
+import org.jetbrains.annotations.Nullable;
 
-import java.util.List;
 import java.util.Objects;
 
 public class MuteListener implements Listener {
 
+    private final @Nullable OnlinePunishmentStates onlineStates;
+
+    public MuteListener(@Nullable OnlinePunishmentStates onlineStates) {
+        this.onlineStates = onlineStates;
+    }
+
     @EventHandler(priority = EventPriority.HIGH)
     public void onChat(AsyncChatEvent event) {
 
         Player player = event.getPlayer();
-
-        String ipAddress = Objects.requireNonNull(player.getAddress()).getAddress().getHostAddress();
-
-        PunishmentScanResult result = CardinalProvider.provide().getPunishmentManager()
-                .scan(player.getUniqueId(), ipAddress, StandardPunishmentType.MUTE)
-                .join();
-
-        if(result.failed()) {
-            result.log();
-        }
-
-        result.getFoundPunishment().ifPresent((punishment)-> {
-            player.sendMessage(PunishmentMessageUtil.getMuteChatBlock(punishment));
+        Punishment<?> mute = findActiveMute(player);
+        if(mute != null) {
+            player.sendMessage(PunishmentMessageUtil.getMuteChatBlock(mute));
             event.setCancelled(true);
-        });
+        }
 
     }
 
     @EventHandler
     public void onCommandExecution(PlayerCommandPreprocessEvent event) {
 
-        Player player = event.getPlayer();
-        String msg = event.getMessage();
-        List<String> blockedCommands = Objects.requireNonNull(Cardinal.getInstance().getConfigYaml())
-                .getStringList("mute-blocked-commands");
+        if(Cardinal.getInstance().getMuteBlockedCommands().matches(event.getMessage())) {
+            Player player = event.getPlayer();
+            Punishment<?> mute = findActiveMute(player);
+            if(mute != null) {
+                player.sendMessage(PunishmentMessageUtil.getMuteChatBlock(mute));
+                event.setCancelled(true);
+            }
+        }
 
-        if(blockedCommands.stream().anyMatch(msg::startsWith)) {
-            String ipAddress = Objects.requireNonNull(player.getAddress()).getAddress().getHostAddress();
+    }
 
-            PunishmentScanResult result = CardinalProvider.provide().getPunishmentManager()
-                    .scan(player.getUniqueId(), ipAddress, StandardPunishmentType.MUTE)
-                    .join();
+    /**
+     * Reads the player's mute from their loaded snapshot, only scanning if the player has none.
+     */
+    private @Nullable Punishment<?> findActiveMute(Player player) {
+        OnlinePunishmentStates.Snapshot snapshot = onlineStates == null ? null : onlineStates.getSnapshot(player.getUniqueId());
+        if(snapshot != null) {
+            return snapshot.activeMute(System.currentTimeMillis());
+        }
 
-            if(result.failed()) {
-                result.log();
-                return;
-            }
+        String ipAddress = Objects.requireNonNull(player.getAddress()).getAddress().getHostAddress();
 
-            result.getFoundPunishment()
-                    .ifPresent((punishment)-> {
-                        player.sendMessage(PunishmentMessageUtil.getMuteChatBlock(punishment));
-                        event.setCancelled(true);
-                    });
-        }
+        PunishmentScanResult result = CardinalProvider.provide().getPunishmentManager()
+                .scan(player.getUniqueId(), ipAddress, StandardPunishmentType.MUTE)
+                .join();
 
+        if(result.failed()) {
+            result.log();
+        }
+        return result.getFoundPunishment().orElse(null);
     }
 
 }
@@ -0,0 +1,97 @@
+package eg.mqzen.cardinal.listener;
+
+import eg.mqzen.cardinal.Cardinal;
+import eg.mqzen.cardinal.punishments.OnlinePunishmentStates;
+import eg.mqzen.cardinal.punishments.StandardPunishmentManager;
+import eg.mqzen.cardinal.util.Tasks;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+
+import java.net.InetSocketAddress;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Prefetches the punishments of connecting players and keeps them, along with the
+ * {@link OnlinePunishmentStates}, in line with the players actually online.
+ * The states themselves are seeded by {@link BanListener} from the login scan.
+ */
+public class PunishmentStateListener implements Listener {
+
+    // 1 minute
+    private static final long SWEEP_PERIOD_TICKS = 20L * 60L;
+
+    private final StandardPunishmentManager punishmentManager;
+    private final OnlinePunishmentStates onlineStates;
+
+    public PunishmentStateListener(StandardPunishmentManager punishmentManager) {
+        this.punishmentManager = punishmentManager;
+        this.onlineStates = punishmentManager.getOnlineStates();
+
+        //players already online (plugin reload) never went through the login scan.
+        for(Player player : Bukkit.getOnlinePlayers()) {
+            loadLater(player);
+        }
+
+        //drops states seeded for logins that never completed (e.g. denied by another plugin after the MONITOR pass).
+        Tasks.runTimer(()-> {
+            Set<UUID> online = Bukkit.getOnlinePlayers().stream().map(Entity::getUniqueId).collect(Collectors.toSet());
+            onlineStates.retainAll(online);
+            punishmentManager.retainPrefetched(online);
+        }, SWEEP_PERIOD_TICKS, SWEEP_PERIOD_TICKS);
+    }
+
+    /**
+     * Loads everything the player is punished with before the ban check runs,
+     * so the checks of the whole session (ban, mute, warn) are served from memory.
+     */
+    @EventHandler(priority = EventPriority.LOWEST)
+    public void onPreLogin(AsyncPlayerPreLoginEvent event) {
+        try {
+            punishmentManager.prefetch(event.getUniqueId(), event.getAddress().getHostAddress()).join();
+        } catch (Exception e) {
+            Cardinal.warn("Failed to prefetch the punishments of %s", event.getName());
+            e.printStackTrace();
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onLoginResult(AsyncPlayerPreLoginEvent event) {
+        if(event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) {
+            onlineStates.drop(event.getUniqueId());
+            punishmentManager.releasePrefetched(event.getUniqueId());
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onJoin(PlayerJoinEvent event) {
+        //seeding failed, or the state was swept between the login and the join.
+        if(onlineStates.getSnapshot(event.getPlayer().getUniqueId()) == null) {
+            loadLater(event.getPlayer());
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onQuit(PlayerQuitEvent event) {
+        onlineStates.drop(event.getPlayer().getUniqueId());
+        punishmentManager.releasePrefetched(event.getPlayer().getUniqueId());
+    }
+
+    private void loadLater(Player player) {
+        InetSocketAddress address = player.getAddress();
+        String ipAddress = address == null ? null : address.getAddress().getHostAddress();
+        Tasks.runAsync(()-> {
+            punishmentManager.prefetch(player.getUniqueId(), ipAddress).join();
+            onlineStates.load(player.getUniqueId(), ipAddress);
+        });
+    }
+
+}
@@ -0,0 +1,386 @@
+package eg.mqzen.cardinal.punishments;
+
+import eg.mqzen.cardinal.api.punishments.Punishment;
+import eg.mqzen.cardinal.api.punishments.PunishmentType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Off-heap index of the active punishments, keyed by (target UUID, punishment type).
+ * <p>
+ * Entries live in a direct {@link ByteBuffer} laid out as an open-addressing (linear probing) hash table,
+ * each slot holding the target UUID as two {@code long}s and a compact record of the punishment:
+ * its id, type, expiry time in epoch millis and a revoked flag. Millions of active punishments therefore
+ * cost {@value #SLOT_SIZE} bytes each outside the Java heap, without any GC pressure.
+ * Full {@link Punishment} objects are not kept here, they are materialized from storage on demand.
+ * <p>
+ * Only the latest active punishment per (target, type) is indexed. A target can hold several active punishments
+ * of a type though (warns, which never expire, or overlapping temporary ones): once a punishment is indexed over
+ * another active one, the entry is flagged {@link Entry#shared() shared}, telling lookups that the index
+ * doesn't know every active punishment of that (target, type) and storage has to be asked instead.
+ * Those lookups {@link #reset reset} the entry from what storage returned, clearing the flag once at most one is left.
+ * Writers are serialized through a {@link StampedLock}, reads are optimistic and retry under the read lock
+ * if a write happened meanwhile.
+ */
+final class ActivePunishmentIndex {
+
+    /**
+     * Expiry value used for permanent punishments.
+     */
+    static final long PERMANENT = Long.MAX_VALUE;
+
+    static final int MAX_ID_LENGTH = 16;
+
+    // slot layout
+    private static final int OFFSET_MSB = 0;
+    private static final int OFFSET_LSB = 8;
+    private static final int OFFSET_EXPIRES = 16;
+    private static final int OFFSET_STATE = 24;
+    private static final int OFFSET_TYPE = 25;
+    private static final int OFFSET_FLAGS = 26;
+    private static final int OFFSET_ID_LENGTH = 27;
+    private static final int OFFSET_ID = 28;
+    private static final int SLOT_SIZE = 48;
+
+    private static final byte STATE_EMPTY = 0;
+    private static final byte STATE_OCCUPIED = 1;
+    private static final byte STATE_DELETED = 2;
+
+    private static final byte FLAG_REVOKED = 1;
+    private static final byte FLAG_SHARED = 2;
+
+    private static final double MAX_LOAD_FACTOR = 0.5;
+
+    private final List<? extends PunishmentType> types;
+    private final StampedLock lock = new StampedLock();
+
+    private ByteBuffer table;
+    private int capacity;
+    private int size;
+    private int deleted;
+
+    /**
+     * @param types           the punishment types that can be indexed, their position is stored as the type byte.
+     * @param initialCapacity the initial number of slots, rounded up to a power of two.
+     */
+    ActivePunishmentIndex(List<? extends PunishmentType> types, int initialCapacity) {
+        if (types.size() > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many punishment types to index");
+        }
+        this.types = List.copyOf(types);
+        this.capacity = Integer.highestOneBit(Math.max(16, initialCapacity - 1) << 1);
+        this.table = allocate(capacity);
+    }
+
+    /**
+     * A compact view of an indexed punishment.
+     *
+     * @param shared whether other punishments of the (target, type) may be active too, the index only knowing this one.
+     */
+    record Entry(UUID target, PunishmentType type, String punishmentId, long expiresAt, boolean revoked, boolean shared) {
+
+        boolean isActive(long nowMillis) {
+            return !revoked && expiresAt > nowMillis;
+        }
+
+        boolean isPermanent() {
+            return expiresAt == PERMANENT;
+        }
+    }
+
+    static long expiryOf(@NotNull Punishment<?> punishment) {
+        Instant expiresAt = punishment.getExpiresAt();
+        return punishment.isPermanent() || expiresAt == null ? PERMANENT : expiresAt.toEpochMilli();
+    }
+
+    /**
+     * Indexes the punishment, replacing the previous entry of its (target, type).
+     * Replacing another punishment that is still active flags the entry as shared.
+     *
+     * @return false if the punishment cannot be indexed (unknown type or oversized id)
+     */
+    boolean put(@NotNull Punishment<?> punishment) {
+        return index(punishment, null);
+    }
+
+    /**
+     * Rewrites the entry of (target, type) from every punishment of it that is active in storage,
+     * the entry being shared only if several of them are.
+     *
+     * @param active the active punishments of the (target, type), oldest first.
+     */
+    void reset(@NotNull UUID target, @NotNull PunishmentType type, @NotNull List<Punishment<?>> active) {
+        if (!active.isEmpty()) {
+            index(active.get(active.size() - 1), active.size() > 1);
+            return;
+        }
+        int typeIndex = types.indexOf(type);
+        if (typeIndex < 0) {
+            return;
+        }
+        long stamp = lock.writeLock();
+        try {
+            int base = findSlot(table, capacity, target.getMostSignificantBits(), target.getLeastSignificantBits(), (byte) typeIndex) * SLOT_SIZE;
+            if (table.get(base + OFFSET_STATE) == STATE_OCCUPIED) {
+                table.put(base + OFFSET_STATE, STATE_DELETED);
+                size--;
+                deleted++;
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @param shared whether the entry is shared, null to flag it if it was or if it replaces another active punishment.
+     */
+    private boolean index(Punishment<?> punishment, @Nullable Boolean shared) {
+        int typeIndex = types.indexOf(punishment.getType());
+        byte[] id = punishment.getId().getRepresentation().getBytes(StandardCharsets.US_ASCII);
+        if (typeIndex < 0 || id.length > MAX_ID_LENGTH) {
+            return false;
+        }
+
+        UUID target = punishment.getTarget().getTargetUUID();
+        long msb = target.getMostSignificantBits(), lsb = target.getLeastSignificantBits();
+
+        long stamp = lock.writeLock();
+        try {
+            if (size + deleted + 1 > capacity * MAX_LOAD_FACTOR) {
+                rehash(size + 1 > capacity * MAX_LOAD_FACTOR / 2 ? capacity << 1 : capacity);
+            }
+
+            int slot = findSlot(table, capacity, msb, lsb, (byte) typeIndex);
+            int base = slot * SLOT_SIZE;
+            byte state = table.get(base + OFFSET_STATE);
+            byte flags = punishment.isRevoked() ? FLAG_REVOKED : 0;
+            if (state != STATE_OCCUPIED) {
+                if (state == STATE_DELETED) {
+                    deleted--;
+                }
+                size++;
+            } else if (shared == null) {
+                byte previousFlags = table.get(base + OFFSET_FLAGS);
+                boolean previousActive = (previousFlags & FLAG_REVOKED) == 0
+                        && table.getLong(base + OFFSET_EXPIRES) > System.currentTimeMillis();
+                if ((previousFlags & FLAG_SHARED) != 0
+                        || (previousActive && !new String(id, StandardCharsets.US_ASCII).equals(readId(table, base)))) {
+                    flags |= FLAG_SHARED;
+                }
+            }
+            if (shared != null && shared) {
+                flags |= FLAG_SHARED;
+            }
+
+            table.putLong(base + OFFSET_MSB, msb);
+            table.putLong(base + OFFSET_LSB, lsb);
+            table.putLong(base + OFFSET_EXPIRES, expiryOf(punishment));
+            table.put(base + OFFSET_TYPE, (byte) typeIndex);
+            table.put(base + OFFSET_FLAGS, flags);
+            table.put(base + OFFSET_ID_LENGTH, (byte) id.length);
+            table.put(base + OFFSET_ID, id);
+            table.put(base + OFFSET_STATE, STATE_OCCUPIED);
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Nullable Entry get(@NotNull UUID target, @NotNull PunishmentType type) {
+        int typeIndex = types.indexOf(type);
+        if (typeIndex < 0) {
+            return null;
+        }
+        long msb = target.getMostSignificantBits(), lsb = target.getLeastSignificantBits();
+
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0L) {
+            try {
+                Entry entry = read(target, type, msb, lsb, (byte) typeIndex);
+                if (lock.validate(stamp)) {
+                    return entry;
+                }
+            } catch (RuntimeException ignored) {
+                // torn read during a concurrent write, retried below under the read lock
+            }
+        }
+
+        stamp = lock.readLock();
+        try {
+            return read(target, type, msb, lsb, (byte) typeIndex);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Flags the entry as revoked, so it stops being active right away while the revocation is written.
+     */
+    void markRevoked(@NotNull UUID target, @NotNull PunishmentType type, @NotNull String punishmentId) {
+        update(target, type, punishmentId, false);
+    }
+
+    /**
+     * Removes the entry of (target, type) if it still belongs to the given punishment.
+     * A shared entry is only flagged as revoked, so that lookups keep asking storage about the other punishments.
+     */
+    void remove(@NotNull UUID target, @NotNull PunishmentType type, @NotNull String punishmentId) {
+        update(target, type, punishmentId, true);
+    }
+
+    private void update(UUID target, PunishmentType type, String punishmentId, boolean remove) {
+        int typeIndex = types.indexOf(type);
+        if (typeIndex < 0) {
+            return;
+        }
+        long msb = target.getMostSignificantBits(), lsb = target.getLeastSignificantBits();
+
+        long stamp = lock.writeLock();
+        try {
+            int slot = findSlot(table, capacity, msb, lsb, (byte) typeIndex);
+            int base = slot * SLOT_SIZE;
+            if (table.get(base + OFFSET_STATE) != STATE_OCCUPIED || !punishmentId.equals(readId(table, base))) {
+                return;
+            }
+            byte flags = table.get(base + OFFSET_FLAGS);
+            if (remove && (flags & FLAG_SHARED) == 0) {
+                table.put(base + OFFSET_STATE, STATE_DELETED);
+                size--;
+                deleted++;
+            } else {
+                table.put(base + OFFSET_FLAGS, (byte) (flags | FLAG_REVOKED));
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    void clear(@NotNull PunishmentType type) {
+        int typeIndex = types.indexOf(type);
+        long stamp = lock.writeLock();
+        try {
+            for (int slot = 0; slot < capacity; slot++) {
+                int base = slot * SLOT_SIZE;
+                if (table.get(base + OFFSET_STATE) == STATE_OCCUPIED && table.get(base + OFFSET_TYPE) == typeIndex) {
+                    table.put(base + OFFSET_STATE, STATE_DELETED);
+                    size--;
+                    deleted++;
+                }
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    int size() {
+        long stamp = lock.readLock();
+        try {
+            return size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    int capacity() {
+        long stamp = lock.readLock();
+        try {
+            return capacity;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    long memoryBytes() {
+        return (long) capacity() * SLOT_SIZE;
+    }
+
+    private Entry read(UUID target, PunishmentType type, long msb, long lsb, byte typeIndex) {
+        ByteBuffer table = this.table;
+        int capacity = this.capacity;
+        int slot = findSlot(table, capacity, msb, lsb, typeIndex);
+        int base = slot * SLOT_SIZE;
+        if (table.get(base + OFFSET_STATE) != STATE_OCCUPIED) {
+            return null;
+        }
+        byte flags = table.get(base + OFFSET_FLAGS);
+        return new Entry(target, type, readId(table, base), table.getLong(base + OFFSET_EXPIRES),
+                (flags & FLAG_REVOKED) != 0, (flags & FLAG_SHARED) != 0);
+    }
+
+    /**
+     * @return the slot holding the key, or the first reusable slot along its probe sequence
+     */
+    private static int findSlot(ByteBuffer table, int capacity, long msb, long lsb, byte typeIndex) {
+        int mask = capacity - 1;
+        int slot = hash(msb, lsb, typeIndex) & mask;
+        int firstDeleted = -1;
+        for (int probes = 0; probes < capacity; probes++) {
+            int base = slot * SLOT_SIZE;
+            byte state = table.get(base + OFFSET_STATE);
+            if (state == STATE_EMPTY) {
+                return firstDeleted >= 0 ? firstDeleted : slot;
+            }
+            if (state == STATE_DELETED) {
+                if (firstDeleted < 0) {
+                    firstDeleted = slot;
+                }
+            } else if (table.getLong(base + OFFSET_MSB) == msb
+                    && table.getLong(base + OFFSET_LSB) == lsb
+                    && table.get(base + OFFSET_TYPE) == typeIndex) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (firstDeleted < 0) {
+            throw new IllegalStateException("Active punishment index is full");
+        }
+        return firstDeleted;
+    }
+
+    private void rehash(int newCapacity) {
+        ByteBuffer newTable = allocate(newCapacity);
+        for (int slot = 0; slot < capacity; slot++) {
+            int base = slot * SLOT_SIZE;
+            if (table.get(base + OFFSET_STATE) != STATE_OCCUPIED) {
+                continue;
+            }
+            int newSlot = findSlot(newTable, newCapacity, table.getLong(base + OFFSET_MSB),
+                    table.getLong(base + OFFSET_LSB), table.get(base + OFFSET_TYPE));
+            newTable.put(newSlot * SLOT_SIZE, table, base, SLOT_SIZE);
+        }
+        this.table = newTable;
+        this.capacity = newCapacity;
+        this.deleted = 0;
+    }
+
+    private static String readId(ByteBuffer table, int base) {
+        int length = Math.min(table.get(base + OFFSET_ID_LENGTH), MAX_ID_LENGTH);
+        byte[] id = new byte[Math.max(0, length)];
+        table.get(base + OFFSET_ID, id);
+        return new String(id, StandardCharsets.US_ASCII);
+    }
+
+    private static ByteBuffer allocate(int capacity) {
+        long bytes = (long) capacity * SLOT_SIZE;
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Active punishment index cannot grow beyond " + capacity / 2 + " slots");
+        }
+        return ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder());
+    }
+
+    private static int hash(long msb, long lsb, byte typeIndex) {
+        long h = msb ^ Long.rotateLeft(lsb, 29) ^ (typeIndex * 0x9E3779B97F4A7C15L);
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return (int) (h ^ (h >>> 32));
+    }
+}
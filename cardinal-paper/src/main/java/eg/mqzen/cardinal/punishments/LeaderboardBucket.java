@@ -0,0 +1,147 @@
+package eg.mqzen.cardinal.punishments;
+
+import eg.mqzen.cardinal.api.punishments.LeaderboardWindow;
+import eg.mqzen.cardinal.api.storage.VersionedEntity;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * The top players of one leaderboard scope (a punishment type, or every type) and {@link LeaderboardWindow window},
+ * with their exact punishment counts over it.
+ * <p>
+ * A day or week bucket covers the window ending on its (UTC) {@link #getEpochDay() day}, a new one being built
+ * every day. The all-time bucket of a scope has no day. Every bucket is bounded by the leaderboard capacity.
+ */
+public final class LeaderboardBucket implements VersionedEntity<String> {
+
+    /**
+     * The {@link #epochDay} of all-time buckets.
+     */
+    static final long ALL_TIME = -1L;
+
+    private final String id;
+    private final String scope;
+    private final LeaderboardWindow window;
+    private final long epochDay;
+    private final Map<String, Integer> counts;
+    private long version;
+
+    public LeaderboardBucket(@NotNull String id, @NotNull String scope, @NotNull LeaderboardWindow window,
+            long epochDay, Map<String, Integer> counts) {
+        this.id = Objects.requireNonNull(id);
+        this.scope = Objects.requireNonNull(scope);
+        this.window = Objects.requireNonNull(window);
+        this.epochDay = epochDay;
+        this.counts = counts;
+    }
+
+    static LeaderboardBucket empty(String scope, LeaderboardWindow window, long epochDay) {
+        return new LeaderboardBucket(idOf(scope, window, epochDay), scope, window, epochDay, new HashMap<>());
+    }
+
+    /**
+     * @param epochDay the last day of the window, ignored for all time.
+     */
+    static String idOf(String scope, LeaderboardWindow window, long epochDay) {
+        return window == LeaderboardWindow.ALL_TIME ? scope + ":all" : scope + ":" + window.name().toLowerCase() + ":" + epochDay;
+    }
+
+    @Override
+    public @NotNull String getEntityID() {
+        return id;
+    }
+
+    @Override
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    public String getScope() { return scope; }
+    public LeaderboardWindow getWindow() { return window; }
+    public long getEpochDay() { return epochDay; }
+    public Map<String, Integer> getCounts() { return counts; }
+
+    boolean isAllTime() {
+        return window == LeaderboardWindow.ALL_TIME;
+    }
+
+    /**
+     * Sets the count of a player in a bounded bucket, the player taking the place of the lowest one when full.
+     * Counts being exact rather than deltas, offering the same count twice changes nothing.
+     *
+     * @return false if nothing changed.
+     */
+    boolean offer(String player, int count, int capacity) {
+        Integer current = counts.get(player);
+        if(current != null || counts.size() < capacity) {
+            if(count <= 0) {
+                return counts.remove(player) != null;
+            }
+            return !Objects.equals(counts.put(player, count), count);
+        }
+
+        Map.Entry<String, Integer> lowest = null;
+        for(Map.Entry<String, Integer> entry : counts.entrySet()) {
+            if(lowest == null || entry.getValue() < lowest.getValue()) {
+                lowest = entry;
+            }
+        }
+        if(lowest == null || count <= lowest.getValue()) {
+            return false;
+        }
+        counts.remove(lowest.getKey());
+        counts.put(player, count);
+        return true;
+    }
+
+    /**
+     * Drops the lowest counts past the capacity.
+     */
+    void trim(int capacity) {
+        if(counts.size() <= capacity) {
+            return;
+        }
+        List<Map.Entry<String, Integer>> entries = new ArrayList<>(counts.entrySet());
+        entries.sort(Map.Entry.<String, Integer>comparingByValue().reversed());
+        for(Map.Entry<String, Integer> entry : entries.subList(capacity, entries.size())) {
+            counts.remove(entry.getKey());
+        }
+    }
+
+    /**
+     * Takes the counts of another bucket of the same scope and period, keeping this version.
+     */
+    void copyCounts(Map<String, Integer> other) {
+        counts.clear();
+        counts.putAll(other);
+    }
+
+    /**
+     * @return the {@code limit} highest counts, highest first.
+     */
+    static LinkedHashMap<UUID, Integer> top(Map<String, Integer> counts, int limit) {
+        List<Map.Entry<String, Integer>> entries = new ArrayList<>(counts.entrySet());
+        entries.sort(Map.Entry.<String, Integer>comparingByValue().reversed());
+
+        LinkedHashMap<UUID, Integer> top = new LinkedHashMap<>();
+        for(Map.Entry<String, Integer> entry : entries) {
+            if(top.size() >= limit) {
+                break;
+            }
+            top.put(UUID.fromString(entry.getKey()), entry.getValue());
+        }
+        return top;
+    }
+}
@@ -0,0 +1,204 @@
+package eg.mqzen.cardinal.punishments;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import eg.mqzen.cardinal.api.punishments.Punishment;
+import eg.mqzen.cardinal.api.punishments.PunishmentType;
+import eg.mqzen.cardinal.util.CountingBloomFilter;
+import org.jetbrains.annotations.NotNull;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Negative-result layer sitting in front of the punishment repositories.
+ * <p>
+ * For every memory-worthy {@link PunishmentType} it keeps a {@link CountingBloomFilter} over the
+ * target UUIDs (players, and IPs through {@code IPUtils.ipToUUID}) of all currently active punishments,
+ * plus a short-lived "known clean" cache for targets the database recently confirmed as clean.
+ * A target which the filter rejects cannot have an active punishment, so the lookup completes without I/O.
+ * <p>
+ * The filter is only trusted once it was fully built from storage ({@link #markReady(PunishmentType)}),
+ * before that every lookup falls through to the database.
+ * <p>
+ * A database result is only cached as "clean" if no punishment of the target was added since the query started,
+ * which per-target generations track: read one with {@link #generation} before querying.
+ */
+final class NegativeLookupCache {
+
+    private static final int GENERATION_STRIPES = 1024;
+
+    private final Map<PunishmentType, TypeFilter> filters = new ConcurrentHashMap<>();
+    private final int expectedInsertions;
+    private final double falsePositiveRate;
+    private final Duration cleanTtl;
+    private final int cleanCacheSize;
+
+    NegativeLookupCache(int expectedInsertions, double falsePositiveRate, Duration cleanTtl, int cleanCacheSize) {
+        this.expectedInsertions = expectedInsertions;
+        this.falsePositiveRate = falsePositiveRate;
+        this.cleanTtl = cleanTtl;
+        this.cleanCacheSize = cleanCacheSize;
+    }
+
+    private TypeFilter filter(PunishmentType type) {
+        return filters.computeIfAbsent(type, (t) -> new TypeFilter());
+    }
+
+    /**
+     * @return true if the target is guaranteed (filter) or was recently confirmed (clean cache)
+     * to have no active punishment of the given type.
+     */
+    boolean isKnownClean(@NotNull PunishmentType type, @NotNull UUID target) {
+        if (!type.isMemoryWorthy()) {
+            return false;
+        }
+        TypeFilter filter = filter(type);
+        if (filter.ready && !filter.bloom.mightContain(target)) {
+            filter.definiteNegatives.incrementAndGet();
+            return true;
+        }
+        if (filter.clean.getIfPresent(target) != null) {
+            filter.cleanHits.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the generation of the target, to be read before querying the database
+     * and handed to {@link #recordDatabaseResult}.
+     */
+    long generation(@NotNull PunishmentType type, @NotNull UUID target) {
+        if (!type.isMemoryWorthy()) {
+            return 0L;
+        }
+        return filter(type).generations.get(stripe(target));
+    }
+
+    /**
+     * Records the outcome of a lookup that had to go to the database.
+     *
+     * @param generation the {@link #generation} of the target read before the query.
+     */
+    void recordDatabaseResult(@NotNull PunishmentType type, @NotNull UUID target, boolean found, long generation) {
+        if (!type.isMemoryWorthy()) {
+            return;
+        }
+        TypeFilter filter = filter(type);
+        if (found) {
+            filter.truePositives.incrementAndGet();
+            return;
+        }
+        if (filter.ready) {
+            filter.falsePositives.incrementAndGet();
+        }
+        int stripe = stripe(target);
+        filter.clean.asMap().compute(target, (id, current)-> {
+            //a punishment added since the query started: the result may predate it
+            return filter.generations.get(stripe) == generation ? Boolean.TRUE : current;
+        });
+    }
+
+    void add(@NotNull Punishment<?> punishment) {
+        PunishmentType type = punishment.getType();
+        if (!type.isMemoryWorthy()) {
+            return;
+        }
+        UUID target = punishment.getTarget().getTargetUUID();
+        TypeFilter filter = filter(type);
+        invalidate(filter, target);
+        filter.bloom.add(target);
+    }
+
+    /**
+     * Forgets that the target was confirmed clean, to be called once a punishment added to the filter
+     * is written: a lookup that read storage before the write landed can't cache "clean" afterwards.
+     */
+    void invalidate(@NotNull Punishment<?> punishment) {
+        PunishmentType type = punishment.getType();
+        if (!type.isMemoryWorthy()) {
+            return;
+        }
+        invalidate(filter(type), punishment.getTarget().getTargetUUID());
+    }
+
+    private static void invalidate(TypeFilter filter, UUID target) {
+        //bumped first, so a lookup racing with this invalidation can't cache "clean" afterwards
+        filter.generations.incrementAndGet(stripe(target));
+        filter.clean.invalidate(target);
+    }
+
+    private static int stripe(UUID target) {
+        return (target.hashCode() & 0x7fffffff) % GENERATION_STRIPES;
+    }
+
+    void remove(@NotNull Punishment<?> punishment) {
+        PunishmentType type = punishment.getType();
+        if (!type.isMemoryWorthy()) {
+            return;
+        }
+        filter(type).bloom.remove(punishment.getTarget().getTargetUUID());
+    }
+
+    void markReady(@NotNull PunishmentType type) {
+        filter(type).ready = true;
+    }
+
+    void reset(@NotNull PunishmentType type) {
+        TypeFilter filter = filter(type);
+        filter.ready = false;
+        filter.bloom.clear();
+        for (int i = 0; i < GENERATION_STRIPES; i++) {
+            filter.generations.incrementAndGet(i);
+        }
+        filter.clean.invalidateAll();
+    }
+
+    /**
+     * @return per-type metrics such as the expected/observed false-positive rate and memory usage
+     */
+    Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        filters.forEach((type, filter) -> {
+            String prefix = "negative-cache." + type.id() + ".";
+            long falsePositives = filter.falsePositives.get();
+            long negatives = filter.definiteNegatives.get();
+
+            metrics.put(prefix + "ready", filter.ready);
+            metrics.put(prefix + "elements", filter.bloom.approximateElementCount());
+            metrics.put(prefix + "memory-bytes", filter.bloom.memoryBytes());
+            metrics.put(prefix + "hash-functions", filter.bloom.getNumHashFunctions());
+            metrics.put(prefix + "expected-fpp", filter.bloom.expectedFalsePositiveRate());
+            metrics.put(prefix + "observed-fpp", falsePositives + negatives == 0 ? 0.0 : (double) falsePositives / (falsePositives + negatives));
+            metrics.put(prefix + "definite-negatives", negatives);
+            metrics.put(prefix + "false-positives", falsePositives);
+            metrics.put(prefix + "true-positives", filter.truePositives.get());
+            metrics.put(prefix + "clean-cache-hits", filter.cleanHits.get());
+            metrics.put(prefix + "clean-cache-size", filter.clean.estimatedSize());
+        });
+        return metrics;
+    }
+
+    private final class TypeFilter {
+        private final CountingBloomFilter bloom = new CountingBloomFilter(expectedInsertions, falsePositiveRate);
+        private final Cache<UUID, Boolean> clean = Caffeine.newBuilder()
+                .expireAfterWrite(cleanTtl)
+                .maximumSize(cleanCacheSize)
+                .build();
+        //bumped on every punishment added, per stripe of targets
+        private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+        private volatile boolean ready = false;
+
+        private final AtomicLong definiteNegatives = new AtomicLong();
+        private final AtomicLong falsePositives = new AtomicLong();
+        private final AtomicLong truePositives = new AtomicLong();
+        private final AtomicLong cleanHits = new AtomicLong();
+    }
+}
@@ -0,0 +1,215 @@
+package eg.mqzen.cardinal.punishments;
+
+import eg.mqzen.cardinal.Cardinal;
+import eg.mqzen.cardinal.api.punishments.Punishment;
+import eg.mqzen.cardinal.api.punishments.PunishmentScanResult;
+import eg.mqzen.cardinal.api.punishments.PunishmentType;
+import eg.mqzen.cardinal.api.punishments.StandardPunishmentType;
+import eg.mqzen.cardinal.util.IPUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Immutable punishment snapshots of the online players, used by the hot chat/command checks.
+ * <p>
+ * A player's snapshot is seeded at {@code AsyncPlayerPreLoginEvent} (from the login scan),
+ * replaced whenever a punishment of theirs (account or IP) is applied, revoked or expires,
+ * and dropped on quit. Readers only perform a map lookup and a volatile read,
+ * so checking a chat message never blocks nor allocates.
+ * <p>
+ * A player without a snapshot (e.g. the seeding scan failed) is simply unknown,
+ * callers should then fall back to a regular scan.
+ * <p>
+ * A mute applied while a seeding scan runs can't reach the player's state, which doesn't exist yet,
+ * so every change bumps a {@link #generation()} and a seed whose scan started before it is scanned again.
+ */
+public final class OnlinePunishmentStates {
+
+    private static final List<PunishmentType> STATE_TYPES = List.of(StandardPunishmentType.MUTE);
+
+    /**
+     * Scans of a player before giving up on seeding them, leaving them to be loaded on join.
+     */
+    private static final int MAX_SEED_ATTEMPTS = 3;
+
+    private final StandardPunishmentManager manager;
+    private final Map<UUID, PlayerState> states = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+
+    OnlinePunishmentStates(StandardPunishmentManager manager) {
+        this.manager = manager;
+    }
+
+    /**
+     * What is known about an online player's punishments at a point in time.
+     *
+     * @param mute          the player's active mute (account or IP), or null.
+     * @param muteExpiresAt the mute's expiry in epoch millis, {@link Long#MAX_VALUE} if permanent.
+     */
+    public record Snapshot(@Nullable Punishment<?> mute, long muteExpiresAt) {
+
+        static final Snapshot CLEAN = new Snapshot(null, 0L);
+
+        static Snapshot of(@Nullable Punishment<?> mute) {
+            return mute == null || mute.isRevoked() ? CLEAN : new Snapshot(mute, ActivePunishmentIndex.expiryOf(mute));
+        }
+
+        /**
+         * @return the mute if it is still in effect at the given time, null otherwise.
+         */
+        public @Nullable Punishment<?> activeMute(long nowMillis) {
+            Punishment<?> mute = this.mute;
+            return mute != null && muteExpiresAt > nowMillis && !mute.isRevoked() ? mute : null;
+        }
+    }
+
+    private static final class PlayerState {
+
+        private final UUID player;
+        private final @Nullable String ipAddress;
+        private final @Nullable UUID ipTarget;
+        private volatile Snapshot snapshot;
+
+        private PlayerState(UUID player, @Nullable String ipAddress, Snapshot snapshot) {
+            this.player = player;
+            this.ipAddress = ipAddress;
+            this.ipTarget = ipAddress == null ? null : IPUtils.ipToUUID(ipAddress);
+            this.snapshot = snapshot;
+        }
+
+        private boolean concerns(UUID target) {
+            return player.equals(target) || target.equals(ipTarget);
+        }
+
+        private synchronized void set(Snapshot snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        private synchronized boolean compareAndSet(Snapshot expected, Snapshot snapshot) {
+            if(this.snapshot != expected) {
+                return false;
+            }
+            this.snapshot = snapshot;
+            return true;
+        }
+    }
+
+    /**
+     * @return the current generation, to be read before the scan a snapshot is seeded from.
+     */
+    public long generation() {
+        return generation.get();
+    }
+
+    /**
+     * Seeds the player's snapshot from the mute result of their login scan.
+     * A scan that errored leaves the player without a snapshot.
+     *
+     * @param generation the {@link #generation()} read before the scan started.
+     * @return false if a mute was applied or removed since the scan started, the snapshot may then have missed it
+     * and the player should be {@link #load(UUID, String) loaded} again.
+     */
+    public boolean seed(@NotNull UUID player, @Nullable String ipAddress, @Nullable PunishmentScanResult muteScan, long generation) {
+        if(muteScan == null || muteScan.getError() != null) {
+            states.remove(player);
+            return true;
+        }
+        //registered before checking the generation: a change made after the check reaches this state
+        states.put(player, new PlayerState(player, ipAddress, Snapshot.of(muteScan.getFoundPunishment().orElse(null))));
+        return this.generation.get() == generation;
+    }
+
+    /**
+     * Scans the player and seeds their snapshot, blocking until the scan completes.
+     */
+    public void load(@NotNull UUID player, @Nullable String ipAddress) {
+        try {
+            for(int i = 0; i < MAX_SEED_ATTEMPTS; i++) {
+                long generation = generation();
+                PunishmentScanResult muteScan = manager.scan(player, ipAddress, STATE_TYPES).join().get(StandardPunishmentType.MUTE);
+                if(seed(player, ipAddress, muteScan, generation)) {
+                    return;
+                }
+            }
+            Cardinal.warn("Punishments of '%s' kept changing while loading their state, leaving it unloaded", player);
+        } catch (Exception e) {
+            Cardinal.warn("Failed to load the punishment state of '%s'", player);
+            e.printStackTrace();
+        }
+        states.remove(player);
+    }
+
+    /**
+     * @return the player's current snapshot, or null if the player has none loaded.
+     */
+    public @Nullable Snapshot getSnapshot(@NotNull UUID player) {
+        PlayerState state = states.get(player);
+        return state == null ? null : state.snapshot;
+    }
+
+    public void drop(@NotNull UUID player) {
+        states.remove(player);
+    }
+
+    /**
+     * Drops the snapshots of every player not in the given collection.
+     */
+    public void retainAll(@NotNull Collection<UUID> onlinePlayers) {
+        states.keySet().retainAll(onlinePlayers);
+    }
+
+    public int size() {
+        return states.size();
+    }
+
+    void onApplied(@NotNull Punishment<?> punishment) {
+        if(!STATE_TYPES.contains(punishment.getType()) || punishment.isRevoked()) {
+            return;
+        }
+        generation.incrementAndGet();
+        UUID target = punishment.getTarget().getTargetUUID();
+        Snapshot snapshot = Snapshot.of(punishment);
+        for(PlayerState state : states.values()) {
+            if(state.concerns(target)) {
+                state.set(snapshot);
+            }
+        }
+    }
+
+    /**
+     * Clears the punishment from the snapshots holding it, then re-scans those players
+     * in the background in case another punishment (e.g. on their IP) is still in effect.
+     */
+    void onRemoved(@NotNull UUID target, @NotNull PunishmentType type, @NotNull String punishmentId) {
+        if(!STATE_TYPES.contains(type)) {
+            return;
+        }
+        generation.incrementAndGet();
+        for(PlayerState state : states.values()) {
+            Punishment<?> mute = state.snapshot.mute();
+            if(mute == null || !state.concerns(target) || !mute.getId().getRepresentation().equals(punishmentId)) {
+                continue;
+            }
+            Snapshot cleared = Snapshot.CLEAN;
+            state.set(cleared);
+            refresh(state, cleared);
+        }
+    }
+
+    private void refresh(PlayerState state, Snapshot expected) {
+        manager.scan(state.player, state.ipAddress, STATE_TYPES)
+                .onSuccess((results)-> {
+                    PunishmentScanResult result = results.get(StandardPunishmentType.MUTE);
+                    if(result != null && result.getError() == null) {
+                        state.compareAndSet(expected, Snapshot.of(result.getFoundPunishment().orElse(null)));
+                    }
+                });
+    }
+}
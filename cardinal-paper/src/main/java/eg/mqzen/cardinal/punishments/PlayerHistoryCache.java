@@ -0,0 +1,160 @@
+package eg.mqzen.cardinal.punishments;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import eg.mqzen.cardinal.api.punishments.Punishment;
+import eg.mqzen.cardinal.api.storage.Page;
+import eg.mqzen.cardinal.api.storage.StorageEvent;
+import eg.mqzen.cardinal.api.storage.StorageObserver;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Caches the history pages of the players recently looked up, grouped by player so that a write
+ * concerning a player drops all of that player's pages at once.
+ * <p>
+ * Invalidated by the storage events of this server: saves and batches drop the pages of the targets they touch,
+ * deletions (which only carry an id) drop everything. Events are delivered once the write committed.
+ * A page loaded while a write of the same player was in flight isn't cached, so a cached page never predates
+ * the last write of this server. Writes of other servers sharing the database only show after {@code expireAfterWrite}.
+ */
+final class PlayerHistoryCache implements StorageObserver {
+
+    //rough heap retained by a deserialized punishment (ids, issuer, target, reason, revisions)
+    private static final long ESTIMATED_PUNISHMENT_BYTES = 512L;
+
+    private static final int GENERATION_STRIPES = 1024;
+
+    /**
+     * @param cursor the cursor the page starts after, null for the first one.
+     * @param size   the page size or history limit.
+     * @param paged  whether it's a keyset page or a whole limited history.
+     */
+    record HistoryKey(@Nullable String cursor, int size, boolean paged) { }
+
+    private final Cache<UUID, Map<HistoryKey, Page<Punishment<?>>>> pages;
+
+    //bumped on every invalidation of a player, per stripe of players
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    PlayerHistoryCache(long maxPunishments, Duration expireAfterWrite) {
+        this.pages = Caffeine.newBuilder()
+                .maximumWeight(maxPunishments)
+                .weigher((UUID player, Map<HistoryKey, Page<Punishment<?>>> cached) -> weightOf(cached))
+                .expireAfterWrite(expireAfterWrite)
+                .build();
+    }
+
+    private static int weightOf(Map<HistoryKey, Page<Punishment<?>>> cached) {
+        int weight = 1;
+        for (Page<Punishment<?>> page : cached.values()) {
+            weight += page.items().size();
+        }
+        return weight;
+    }
+
+    /**
+     * @return the cached page, or the loaded one, cached unless the player was written meanwhile.
+     */
+    CompletableFuture<Page<Punishment<?>>> get(UUID player, HistoryKey key, Supplier<CompletableFuture<Page<Punishment<?>>>> loader) {
+        Map<HistoryKey, Page<Punishment<?>>> cached = pages.getIfPresent(player);
+        Page<Punishment<?>> page = cached == null ? null : cached.get(key);
+        if (page != null) {
+            hits.increment();
+            return CompletableFuture.completedFuture(page);
+        }
+
+        misses.increment();
+        int stripe = stripe(player);
+        long generation = generations.get(stripe);
+        return loader.get().thenApply((loaded)-> {
+            Page<Punishment<?>> frozen = new Page<>(List.copyOf(loaded.items()), loaded.nextCursor());
+            pages.asMap().compute(player, (id, current)-> {
+                //an invalidation since the load started: the page may predate it
+                if (generations.get(stripe) != generation) {
+                    return current;
+                }
+                Map<HistoryKey, Page<Punishment<?>>> updated = current == null ? new HashMap<>() : new HashMap<>(current);
+                updated.put(key, frozen);
+                return Map.copyOf(updated);
+            });
+            return frozen;
+        });
+    }
+
+    void invalidate(UUID player) {
+        //bumped first, so a load racing with this invalidation can't cache its page afterwards
+        generations.incrementAndGet(stripe(player));
+        pages.invalidate(player);
+        invalidations.increment();
+    }
+
+    void invalidateAll() {
+        for (int i = 0; i < GENERATION_STRIPES; i++) {
+            generations.incrementAndGet(i);
+        }
+        pages.invalidateAll();
+        invalidations.increment();
+    }
+
+    @Override
+    public void onStorageEvent(StorageEvent event) {
+        switch (event.type()) {
+            case ENTITY_SAVED, ENTITY_UPDATED -> invalidate(event.data());
+            case BATCH_OPERATION -> {
+                if (event.data() instanceof Collection<?> entities) {
+                    entities.forEach(this::invalidate);
+                } else {
+                    invalidateAll();
+                }
+            }
+            //only the id of the deleted entity is known
+            case ENTITY_DELETED -> invalidateAll();
+        }
+    }
+
+    private void invalidate(Object entity) {
+        if (entity instanceof Punishment<?> punishment) {
+            invalidate(punishment.getTarget().getTargetUUID());
+        }
+    }
+
+    private static int stripe(UUID player) {
+        return (player.hashCode() & 0x7fffffff) % GENERATION_STRIPES;
+    }
+
+    Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        long hitCount = hits.sum();
+        long missCount = misses.sum();
+        long players = pages.estimatedSize();
+        //every player weighs one more than its punishments
+        long cachedPunishments = Math.max(0L, pages.policy().eviction()
+                .map((eviction)-> eviction.weightedSize().orElse(0L))
+                .orElse(0L) - players);
+
+        metrics.put("history-cache.players", players);
+        metrics.put("history-cache.punishments", cachedPunishments);
+        metrics.put("history-cache.estimated-bytes", cachedPunishments * ESTIMATED_PUNISHMENT_BYTES);
+        metrics.put("history-cache.hits", hitCount);
+        metrics.put("history-cache.misses", missCount);
+        metrics.put("history-cache.hit-rate", hitCount + missCount == 0 ? 0.0 : (double) hitCount / (hitCount + missCount));
+        metrics.put("history-cache.invalidations", invalidations.sum());
+        return metrics;
+    }
+}
@@ -0,0 +1,278 @@
+package eg.mqzen.cardinal.punishments;
+
+import eg.mqzen.cardinal.Cardinal;
+import eg.mqzen.cardinal.api.punishments.Punishment;
+import eg.mqzen.cardinal.api.punishments.PunishmentType;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Expires temporary punishments proactively at their {@code expiresAt}.
+ * <p>
+ * Scheduled punishments wait in a {@link DelayQueue} drained by a dedicated daemon thread.
+ * When one fires, the {@code evictor} removes it from the in-memory caches right away, while the
+ * storage write of its "EXPIRED" revocation is queued and handed to the {@code writer} in batches,
+ * either every {@code flushInterval} or once {@code batchSize} revocations are pending.
+ * That keeps the expiry writes off the login/chat path.
+ * Revocations the writer failed to write are queued again for the next flush, up to {@code maxAttempts} times.
+ */
+final class PunishmentExpiryScheduler {
+
+    private final DelayQueue<ExpiryTask> queue = new DelayQueue<>();
+    private final Map<String, ExpiryTask> scheduled = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<ExpiryTask> pendingWrites = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingWriteCount = new AtomicInteger();
+
+    private final Predicate<ExpiryTask> evictor;
+    private final Function<List<ExpiryTask>, List<ExpiryTask>> writer;
+    private final int batchSize;
+    private final long flushIntervalMillis;
+    private final int maxAttempts;
+
+    private final ScheduledExecutorService writerExecutor = Executors.newSingleThreadScheduledExecutor((runnable)-> {
+        Thread thread = new Thread(runnable, "Cardinal-Expiry-Writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Thread expiryThread;
+    private volatile boolean running;
+
+    /**
+     * @param evictor removes the expired punishment from memory, returning false if the task is stale
+     *                (the punishment was revoked, re-applied or had its duration changed meanwhile).
+     * @param writer  persists a batch of expired punishments, returning the tasks it failed to write.
+     */
+    PunishmentExpiryScheduler(Predicate<ExpiryTask> evictor, Function<List<ExpiryTask>, List<ExpiryTask>> writer,
+            int batchSize, long flushIntervalMillis, int maxAttempts) {
+        this.evictor = evictor;
+        this.writer = writer;
+        this.batchSize = Math.max(1, batchSize);
+        this.flushIntervalMillis = Math.max(100L, flushIntervalMillis);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.expiryThread = new Thread(this::run, "Cardinal-Expiry");
+        this.expiryThread.setDaemon(true);
+    }
+
+    static final class ExpiryTask implements Delayed {
+
+        private final UUID target;
+        private final PunishmentType type;
+        private final String punishmentId;
+        private final long expiresAt;
+        private volatile boolean cancelled;
+        private volatile Punishment<?> punishment;
+        //only touched by the writer thread
+        private int attempts;
+
+        private ExpiryTask(UUID target, PunishmentType type, String punishmentId, long expiresAt) {
+            this.target = target;
+            this.type = type;
+            this.punishmentId = punishmentId;
+            this.expiresAt = expiresAt;
+        }
+
+        UUID target() {
+            return target;
+        }
+
+        PunishmentType type() {
+            return type;
+        }
+
+        String punishmentId() {
+            return punishmentId;
+        }
+
+        long expiresAt() {
+            return expiresAt;
+        }
+
+        /**
+         * @return the punishment object if it was already materialized when it expired, or null.
+         */
+        Punishment<?> punishment() {
+            return punishment;
+        }
+
+        void setPunishment(Punishment<?> punishment) {
+            this.punishment = punishment;
+        }
+
+        @Override
+        public long getDelay(@NotNull TimeUnit unit) {
+            return unit.convert(expiresAt - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(@NotNull Delayed other) {
+            if (other instanceof ExpiryTask task) {
+                return Long.compare(expiresAt, task.expiresAt);
+            }
+            return Long.compare(getDelay(TimeUnit.MILLISECONDS), other.getDelay(TimeUnit.MILLISECONDS));
+        }
+    }
+
+    void start() {
+        running = true;
+        expiryThread.start();
+        writerExecutor.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Schedules the punishment's expiry, replacing any previous schedule of the same punishment.
+     * Permanent punishments are ignored.
+     */
+    void schedule(@NotNull UUID target, @NotNull PunishmentType type, @NotNull String punishmentId, long expiresAt) {
+        if (expiresAt == ActivePunishmentIndex.PERMANENT) {
+            cancel(punishmentId);
+            return;
+        }
+
+        scheduled.compute(punishmentId, (id, previous) -> {
+            if (previous != null) {
+                if (previous.expiresAt == expiresAt && !previous.cancelled) {
+                    return previous;
+                }
+                previous.cancelled = true;
+            }
+            ExpiryTask task = new ExpiryTask(target, type, punishmentId, expiresAt);
+            queue.add(task);
+            return task;
+        });
+    }
+
+    void schedule(@NotNull Punishment<?> punishment) {
+        schedule(punishment.getTarget().getTargetUUID(), punishment.getType(),
+                punishment.getId().getRepresentation(), ActivePunishmentIndex.expiryOf(punishment));
+    }
+
+    void cancel(@NotNull String punishmentId) {
+        ExpiryTask task = scheduled.remove(punishmentId);
+        if (task != null) {
+            task.cancelled = true;
+        }
+    }
+
+    int scheduledCount() {
+        return scheduled.size();
+    }
+
+    int pendingWriteCount() {
+        return pendingWriteCount.get();
+    }
+
+    private void run() {
+        while (running) {
+            ExpiryTask task;
+            try {
+                task = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            if (task.cancelled) {
+                continue;
+            }
+            scheduled.remove(task.punishmentId, task);
+
+            try {
+                if (!evictor.test(task)) {
+                    continue;
+                }
+            } catch (Exception e) {
+                Cardinal.warn("Failed to evict expired punishment '%s'", task.punishmentId);
+                e.printStackTrace();
+                continue;
+            }
+
+            pendingWrites.add(task);
+            if (pendingWriteCount.incrementAndGet() >= batchSize) {
+                try {
+                    writerExecutor.execute(this::flush);
+                } catch (RejectedExecutionException ignored) {
+                    // shutting down, the pending writes are flushed by shutdown()
+                }
+            }
+        }
+    }
+
+    private void flush() {
+        //retried on the next flush rather than right away
+        List<ExpiryTask> failed = new ArrayList<>();
+        while (!pendingWrites.isEmpty()) {
+            List<ExpiryTask> batch = new ArrayList<>(batchSize);
+            ExpiryTask task;
+            while (batch.size() < batchSize && (task = pendingWrites.poll()) != null) {
+                batch.add(task);
+            }
+            if (batch.isEmpty()) {
+                break;
+            }
+            pendingWriteCount.addAndGet(-batch.size());
+
+            try {
+                failed.addAll(writer.apply(batch));
+            } catch (Exception e) {
+                Cardinal.warn("Failed to write %s expired punishments", batch.size());
+                e.printStackTrace();
+                failed.addAll(batch);
+            }
+        }
+        requeue(failed);
+    }
+
+    private void requeue(List<ExpiryTask> failed) {
+        int dropped = 0;
+        for (ExpiryTask task : failed) {
+            if (++task.attempts >= maxAttempts) {
+                dropped++;
+                continue;
+            }
+            //the punishment is read again from storage on the next attempt
+            task.punishment = null;
+            pendingWrites.add(task);
+            pendingWriteCount.incrementAndGet();
+        }
+
+        if (dropped > 0) {
+            Cardinal.severe("Gave up writing %s expired punishments after %s attempts", dropped, maxAttempts);
+        }
+    }
+
+    /**
+     * Stops expiring punishments and writes the revocations that are still pending,
+     * retrying the failed ones until they write or run out of attempts.
+     */
+    void shutdown() {
+        running = false;
+        expiryThread.interrupt();
+        writerExecutor.shutdown();
+        try {
+            if (!writerExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+                writerExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            writerExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        while (!pendingWrites.isEmpty()) {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,445 @@
+package eg.mqzen.cardinal.punishments;
+
+import static eg.mqzen.cardinal.punishments.StandardPunishmentManager.PUNISHMENT_TYPE_WRAP;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import eg.mqzen.cardinal.Cardinal;
+import eg.mqzen.cardinal.api.punishments.LeaderboardWindow;
+import eg.mqzen.cardinal.api.punishments.Punishment;
+import eg.mqzen.cardinal.api.punishments.PunishmentType;
+import eg.mqzen.cardinal.api.punishments.StandardPunishmentType;
+import eg.mqzen.cardinal.api.storage.Repository;
+import eg.mqzen.cardinal.api.storage.SaveResult;
+import eg.mqzen.cardinal.api.storage.StorageEngine;
+import eg.mqzen.cardinal.api.storage.StorageException;
+import org.jetbrains.annotations.Nullable;
+import studio.mevera.imperat.util.TypeWrap;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+
+/**
+ * Materialized most-punished-players leaderboards, per punishment type and for every type at once.
+ * <p>
+ * Every {@link LeaderboardWindow window} of a scope is a bucket keeping its top {@code capacity} players only,
+ * so reading a leaderboard costs one bucket read whatever the punishment volume. The day and week buckets cover
+ * the windows ending today: each day, a roll-over builds new ones from the punishments of the past week.
+ * Players are offered with their exact counts, read from their own recent punishments for the day and week windows
+ * and from their {@link StoredPunishmentStatistics} for all time. Punishments revoked by staff don't count, expired ones do.
+ * <p>
+ * Updates follow the statistics ones, on the statistics thread. A compaction job drops the buckets of past days
+ * and recomputes the others, repairing any drift (e.g. a top player whose count dropped below an untracked one).
+ */
+final class PunishmentLeaderboards implements PunishmentStatisticsStore.Listener {
+
+    static final TypeWrap<LeaderboardBucket> BUCKET_TYPE_WRAP = TypeWrap.of(LeaderboardBucket.class);
+
+    /**
+     * The scope of the leaderboards covering every punishment type.
+     */
+    static final String ALL_TYPES = "ALL";
+
+    private static final long DAY_MILLIS = Duration.ofDays(1).toMillis();
+
+    /**
+     * The windows built every day, the widest one last.
+     */
+    private static final List<LeaderboardWindow> DAILY_WINDOWS = List.of(LeaderboardWindow.DAY, LeaderboardWindow.WEEK);
+
+    private static final int MAX_UPDATE_ATTEMPTS = 5;
+
+    /**
+     * Documents fetched per round trip when scanning repositories.
+     */
+    private static final int STREAM_BATCH_SIZE = 500;
+
+    private final StandardPunishmentManager manager;
+    private final StorageEngine engine;
+    private final PunishmentStatisticsStore statistics;
+    private final Repository<String, LeaderboardBucket> repository;
+    private final int capacity;
+
+    //buckets read recently, replaced by this server's updates, re-read after the refresh interval for other servers' ones
+    private final Cache<String, LeaderboardBucket> buckets;
+
+    //false until the first compaction filled a new repository
+    private volatile boolean ready;
+
+    //the last day whose window buckets were requested and built, reads of a day not built yet scanning the punishments
+    private final AtomicLong requestedDay = new AtomicLong(Long.MIN_VALUE);
+    private volatile long builtDay = Long.MIN_VALUE;
+
+    private final LongAdder updates = new LongAdder();
+    private final LongAdder conflicts = new LongAdder();
+    private final LongAdder failedUpdates = new LongAdder();
+    private final LongAdder rollOvers = new LongAdder();
+    private final Map<String, Object> lastCompaction = new ConcurrentHashMap<>();
+
+    /**
+     * @param capacity                 the players kept by every leaderboard, the highest limit they serve.
+     * @param compactionIntervalMillis the delay between two compactions, 0 or less to only compact on the first start.
+     */
+    PunishmentLeaderboards(StandardPunishmentManager manager, PunishmentStatisticsStore statistics, String repositoryName,
+            int capacity, Duration refreshInterval, long compactionIntervalMillis) throws StorageException {
+        this.manager = manager;
+        this.engine = manager.getEngine();
+        this.statistics = statistics;
+        this.capacity = Math.max(1, capacity);
+        this.buckets = Caffeine.newBuilder()
+                .expireAfterWrite(refreshInterval)
+                .build();
+
+        boolean existed = engine.hasRepository(repositoryName);
+        this.repository = engine.getRepositoryOrCreate(repositoryName, BUCKET_TYPE_WRAP);
+        this.ready = existed;
+
+        statistics.setListener(this);
+        //queued behind the first statistics rebuild, which the all-time leaderboards are computed from
+        statistics.schedule(this::compactQuietly, !existed, compactionIntervalMillis);
+    }
+
+    static long epochDay(Instant instant) {
+        return Math.floorDiv(instant.toEpochMilli(), DAY_MILLIS);
+    }
+
+    private static long today() {
+        return epochDay(Instant.now());
+    }
+
+    private static String scopeOf(@Nullable PunishmentType type) {
+        return type == null ? ALL_TYPES : type.name();
+    }
+
+    /**
+     * @return the first day of the window ending on the given day.
+     */
+    private static long firstDay(LeaderboardWindow window, long day) {
+        return epochDay(window.since(Instant.ofEpochMilli(day * DAY_MILLIS)));
+    }
+
+    /**
+     * Passes the scope and window of every bucket of the day the punishment counts in.
+     */
+    private static void forEachWindow(Punishment<?> punishment, long day, BiConsumer<String, LeaderboardWindow> consumer) {
+        if(StoredPunishmentStatistics.State.of(punishment) == StoredPunishmentStatistics.State.REVOKED) {
+            return;
+        }
+        long issuedDay = epochDay(punishment.getIssuedAt());
+        for(LeaderboardWindow window : DAILY_WINDOWS) {
+            if(issuedDay >= firstDay(window, day) && issuedDay <= day) {
+                consumer.accept(punishment.getType().name(), window);
+                consumer.accept(ALL_TYPES, window);
+            }
+        }
+    }
+
+    /**
+     * @param since the start of the period, null for all time.
+     * @return the window answering that period and limit, null if none does: periods have to start
+     * where a window does, limits can't exceed the capacity.
+     */
+    @Nullable LeaderboardWindow windowOf(@Nullable Instant since, int limit) {
+        if(!ready || limit > capacity) {
+            return null;
+        }
+        if(since == null) {
+            return LeaderboardWindow.ALL_TIME;
+        }
+        long today = today();
+        requestRollOver(today);
+        if(builtDay != today) {
+            return null;
+        }
+        for(LeaderboardWindow window : DAILY_WINDOWS) {
+            if(since.toEpochMilli() == firstDay(window, today) * DAY_MILLIS) {
+                return window;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param type   the punishment type, null for every type.
+     * @param window a window {@link #windowOf} returned.
+     * @return the most punished players of the window, most punished first.
+     */
+    LinkedHashMap<UUID, Integer> top(@Nullable PunishmentType type, LeaderboardWindow window, int limit) throws StorageException {
+        long day = window == LeaderboardWindow.ALL_TIME ? LeaderboardBucket.ALL_TIME : today();
+        return LeaderboardBucket.top(bucket(scopeOf(type), window, day).getCounts(), limit);
+    }
+
+    private LeaderboardBucket bucket(String scope, LeaderboardWindow window, long day) throws StorageException {
+        String id = LeaderboardBucket.idOf(scope, window, day);
+        LeaderboardBucket cached = buckets.getIfPresent(id);
+        if(cached != null) {
+            return cached;
+        }
+        LeaderboardBucket loaded = repository.findById(id).orElseGet(()-> LeaderboardBucket.empty(scope, window, day));
+        buckets.put(id, loaded);
+        return loaded;
+    }
+
+    @Override
+    public void onApplied(Punishment<?> punishment, StoredPunishmentStatistics statistics) {
+        if(StoredPunishmentStatistics.State.of(punishment) == StoredPunishmentStatistics.State.REVOKED) {
+            return;
+        }
+        update(punishment, statistics);
+    }
+
+    @Override
+    public void onDeactivated(Punishment<?> punishment, StoredPunishmentStatistics statistics) {
+        //expired punishments still count
+        if(StoredPunishmentStatistics.State.of(punishment) != StoredPunishmentStatistics.State.REVOKED) {
+            return;
+        }
+        update(punishment, statistics);
+    }
+
+    private void update(Punishment<?> punishment, StoredPunishmentStatistics statistics) {
+        String player = statistics.getPlayerId();
+        PunishmentType type = punishment.getType();
+        try {
+            long today = today();
+            requestRollOver(today);
+            long firstDay = firstDay(LeaderboardWindow.WEEK, today);
+            if(epochDay(punishment.getIssuedAt()) >= firstDay) {
+                //the player's exact counts over the windows, from their punishments of the week only
+                Map<String, Integer> counts = new HashMap<>();
+                engine.queryAcrossRepositories(PUNISHMENT_TYPE_WRAP)
+                        .where("target.uuid").eq(player)
+                        .and()
+                        .where("issuedAt").gte(Instant.ofEpochMilli(firstDay * DAY_MILLIS))
+                        .forEach(STREAM_BATCH_SIZE, (recent)-> forEachWindow(recent, today, (scope, window)->
+                                counts.merge(LeaderboardBucket.idOf(scope, window, today), 1, Integer::sum)));
+
+                for(LeaderboardWindow window : DAILY_WINDOWS) {
+                    for(String scope : List.of(type.name(), ALL_TYPES)) {
+                        int count = counts.getOrDefault(LeaderboardBucket.idOf(scope, window, today), 0);
+                        mutate(scope, window, today, (bucket)-> bucket.offer(player, count, capacity));
+                    }
+                }
+            }
+            int ranked = statistics.ranked(type);
+            mutate(type.name(), LeaderboardWindow.ALL_TIME, LeaderboardBucket.ALL_TIME, (bucket)-> bucket.offer(player, ranked, capacity));
+            int rankedAll = statistics.ranked(null);
+            mutate(ALL_TYPES, LeaderboardWindow.ALL_TIME, LeaderboardBucket.ALL_TIME, (bucket)-> bucket.offer(player, rankedAll, capacity));
+        } catch (StorageException e) {
+            failedUpdates.increment();
+            Cardinal.warn("Failed to update the '%s' leaderboards, the next compaction repairs them", type.id());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @param change applies the change to the stored bucket, returns false if it changes nothing.
+     */
+    private void mutate(String scope, LeaderboardWindow window, long day, Predicate<LeaderboardBucket> change) throws StorageException {
+        String id = LeaderboardBucket.idOf(scope, window, day);
+        for(int i = 0; i < MAX_UPDATE_ATTEMPTS; i++) {
+            LeaderboardBucket bucket = repository.findById(id).orElseGet(()-> LeaderboardBucket.empty(scope, window, day));
+            if(!change.test(bucket)) {
+                buckets.put(id, bucket);
+                return;
+            }
+            if(repository.compareAndSave(bucket) instanceof SaveResult.Saved<LeaderboardBucket>) {
+                buckets.put(id, bucket);
+                updates.increment();
+                return;
+            }
+            conflicts.increment();
+        }
+
+        failedUpdates.increment();
+        Cardinal.warn("Gave up updating leaderboard '%s' after %d conflicting attempts", id, MAX_UPDATE_ATTEMPTS);
+    }
+
+    /**
+     * Offers every player of a bucket built from the punishments to the stored one,
+     * keeping the counts an update offered meanwhile as they are just as exact.
+     */
+    private void fill(LeaderboardBucket built) throws StorageException {
+        mutate(built.getScope(), built.getWindow(), built.getEpochDay(), (bucket)-> {
+            boolean changed = false;
+            for(Map.Entry<String, Integer> entry : built.getCounts().entrySet()) {
+                changed |= bucket.offer(entry.getKey(), entry.getValue(), capacity);
+            }
+            return changed;
+        });
+    }
+
+    /**
+     * Schedules the roll-over of the day once, if it isn't built yet.
+     */
+    private void requestRollOver(long day) {
+        long requested = requestedDay.get();
+        if(ready && requested < day && requestedDay.compareAndSet(requested, day)) {
+            statistics.schedule(()-> rollOverQuietly(day), true, 0);
+        }
+    }
+
+    private void rollOverQuietly(long day) {
+        if(builtDay >= day) {
+            return;
+        }
+        try {
+            long start = System.currentTimeMillis();
+            for(LeaderboardBucket bucket : buildWindows(day).values()) {
+                fill(bucket);
+            }
+            builtDay = day;
+            rollOvers.increment();
+            engine.getMetrics().recordOperation("leaderboards.roll-over", System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            //requested again by the next read or update
+            requestedDay.compareAndSet(day, day - 1);
+            engine.getMetrics().recordError("leaderboards.roll-over");
+            Cardinal.warn("Failed to build the punishment leaderboards of the day");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Counts the punishments of the week ending on the given day into the day and week buckets of that day,
+     * bounded to their top players.
+     */
+    private Map<String, LeaderboardBucket> buildWindows(long day) throws StorageException {
+        Map<String, LeaderboardBucket> built = new HashMap<>();
+        for(Repository<String, Punishment<?>> repo : manager.getPunishmentRepositories()) {
+            repo.query()
+                    .where("issuedAt").gte(Instant.ofEpochMilli(firstDay(LeaderboardWindow.WEEK, day) * DAY_MILLIS))
+                    .forEach(STREAM_BATCH_SIZE, (punishment)-> forEachWindow(punishment, day, (scope, window)-> built
+                            .computeIfAbsent(LeaderboardBucket.idOf(scope, window, day), (id)-> LeaderboardBucket.empty(scope, window, day))
+                            .getCounts()
+                            .merge(punishment.getTarget().getTargetUUID().toString(), 1, Integer::sum)));
+        }
+        built.values().forEach((bucket)-> bucket.trim(capacity));
+        return built;
+    }
+
+    private void compactQuietly() {
+        try {
+            compact();
+            ready = true;
+        } catch (Exception e) {
+            engine.getMetrics().recordError("leaderboards.compaction");
+            Cardinal.warn("Failed to compact the punishment leaderboards");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Reads the punishments of the past week and the stored statistics once,
+     * then rewrites the buckets that differ and drops those of past days.
+     */
+    private void compact() throws StorageException {
+        long start = System.currentTimeMillis();
+        long today = today();
+
+        Map<String, LeaderboardBucket> expected = buildWindows(today);
+
+        Map<String, PriorityQueue<Map.Entry<String, Integer>>> tops = new HashMap<>();
+        statistics.forEachStored((stored)-> {
+            for(PunishmentType type : StandardPunishmentType.values()) {
+                offer(tops, type.name(), stored.getPlayerId(), stored.ranked(type));
+            }
+            offer(tops, ALL_TYPES, stored.getPlayerId(), stored.ranked(null));
+        });
+        tops.forEach((scope, top)-> {
+            LeaderboardBucket board = LeaderboardBucket.empty(scope, LeaderboardWindow.ALL_TIME, LeaderboardBucket.ALL_TIME);
+            top.forEach((entry)-> board.getCounts().put(entry.getKey(), entry.getValue()));
+            expected.put(board.getEntityID(), board);
+        });
+
+        int removed = 0, repaired = 0, created = 0, skipped = 0;
+        List<LeaderboardBucket> stored = new ArrayList<>();
+        repository.query().forEach(STREAM_BATCH_SIZE, stored::add);
+        for(LeaderboardBucket bucket : stored) {
+            LeaderboardBucket target = expected.remove(bucket.getEntityID());
+            if(!bucket.isAllTime() && (target == null || bucket.getEpochDay() != today)) {
+                repository.delete(bucket);
+                buckets.invalidate(bucket.getEntityID());
+                removed++;
+                continue;
+            }
+            Map<String, Integer> counts = target == null ? Map.of() : target.getCounts();
+            if(bucket.getCounts().equals(counts)) {
+                continue;
+            }
+            bucket.copyCounts(counts);
+            if(repository.compareAndSave(bucket) instanceof SaveResult.Saved<LeaderboardBucket>) {
+                buckets.put(bucket.getEntityID(), bucket);
+                repaired++;
+            } else {
+                skipped++;
+            }
+        }
+
+        for(LeaderboardBucket bucket : expected.values()) {
+            //version 0: only inserted if no update created it meanwhile
+            if(repository.compareAndSave(bucket) instanceof SaveResult.Saved<LeaderboardBucket>) {
+                buckets.put(bucket.getEntityID(), bucket);
+                created++;
+            } else if(!bucket.isAllTime()) {
+                //created by an update or a roll-over meanwhile
+                fill(bucket);
+                created++;
+            } else {
+                skipped++;
+            }
+        }
+        builtDay = Math.max(builtDay, today);
+        requestedDay.accumulateAndGet(today, Math::max);
+
+        long took = System.currentTimeMillis() - start;
+        engine.getMetrics().recordOperation("leaderboards.compaction", took);
+        lastCompaction.put("leaderboards.compaction.created", created);
+        lastCompaction.put("leaderboards.compaction.repaired", repaired);
+        lastCompaction.put("leaderboards.compaction.removed", removed);
+        lastCompaction.put("leaderboards.compaction.skipped", skipped);
+        lastCompaction.put("leaderboards.compaction.took-ms", took);
+        Cardinal.log("Compacted the punishment leaderboards in %sms: %s created, %s repaired, %s removed, %s skipped",
+                took, created, repaired, removed, skipped);
+    }
+
+    /**
+     * Keeps the {@code capacity} highest counts of a scope in a min-heap.
+     */
+    private void offer(Map<String, PriorityQueue<Map.Entry<String, Integer>>> tops, String scope, String player, int count) {
+        if(count <= 0) {
+            return;
+        }
+        PriorityQueue<Map.Entry<String, Integer>> top = tops.computeIfAbsent(scope, (k)-> new PriorityQueue<>(Map.Entry.comparingByValue()));
+        if(top.size() < capacity) {
+            top.add(Map.entry(player, count));
+        } else if(top.peek().getValue() < count) {
+            top.poll();
+            top.add(Map.entry(player, count));
+        }
+    }
+
+    Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("leaderboards.ready", ready);
+        metrics.put("leaderboards.cached-buckets", buckets.estimatedSize());
+        metrics.put("leaderboards.updates", updates.sum());
+        metrics.put("leaderboards.conflicts", conflicts.sum());
+        metrics.put("leaderboards.failed-updates", failedUpdates.sum());
+        metrics.put("leaderboards.roll-overs", rollOvers.sum());
+        metrics.putAll(lastCompaction);
+        return metrics;
+    }
+}
@@ -0,0 +1,326 @@
+package eg.mqzen.cardinal.punishments;
+
+import static eg.mqzen.cardinal.punishments.StandardPunishmentManager.PUNISHMENT_TYPE_WRAP;
+
+import eg.mqzen.cardinal.Cardinal;
+import eg.mqzen.cardinal.api.punishments.Punishment;
+import eg.mqzen.cardinal.api.storage.Repository;
+import eg.mqzen.cardinal.api.storage.SaveResult;
+import eg.mqzen.cardinal.api.storage.StorageEngine;
+import eg.mqzen.cardinal.api.storage.StorageException;
+import org.jetbrains.annotations.Nullable;
+import studio.mevera.imperat.util.TypeWrap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the {@link StoredPunishmentStatistics} of every punished player up to date.
+ * <p>
+ * Changes are applied on a dedicated thread, in the order this server made them, once the punishment write
+ * they follow succeeded. Each one is a compare-and-save retried on conflicts with other servers.
+ * Statistics missing for a player are built from the player's history instead, which already holds the change.
+ * <p>
+ * Increments can drift from the punishments (a server dying between both writes, punishments expiring while
+ * the expiry scheduler is disabled...), so a rebuild job recomputes everything from the punishments
+ * on the first start and then every {@code rebuildInterval}, repairing whatever differs.
+ */
+final class PunishmentStatisticsStore {
+
+    static final TypeWrap<StoredPunishmentStatistics> STATISTICS_TYPE_WRAP = TypeWrap.of(StoredPunishmentStatistics.class);
+
+    private static final int MAX_UPDATE_ATTEMPTS = 5;
+
+    /**
+     * Documents fetched per round trip when scanning repositories.
+     */
+    private static final int STREAM_BATCH_SIZE = 500;
+
+    private final StandardPunishmentManager manager;
+    private final StorageEngine engine;
+    private final Repository<String, StoredPunishmentStatistics> repository;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor((runnable)-> {
+        Thread thread = new Thread(runnable, "Cardinal-Statistics");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final LongAdder updates = new LongAdder();
+    private final LongAdder conflicts = new LongAdder();
+    private final LongAdder lazyBuilds = new LongAdder();
+    private final LongAdder failedUpdates = new LongAdder();
+    private final Map<String, Object> lastRebuild = new ConcurrentHashMap<>();
+
+    private volatile @Nullable Listener listener;
+
+    /**
+     * Told about every change once the statistics counting it are saved, on the statistics thread.
+     */
+    interface Listener {
+
+        void onApplied(Punishment<?> punishment, StoredPunishmentStatistics statistics);
+
+        void onDeactivated(Punishment<?> punishment, StoredPunishmentStatistics statistics);
+    }
+
+    /**
+     * @param rebuildIntervalMillis the delay between two rebuilds, 0 or less to only rebuild on the first start.
+     */
+    PunishmentStatisticsStore(StandardPunishmentManager manager, String repositoryName, long rebuildIntervalMillis) throws StorageException {
+        this.manager = manager;
+        this.engine = manager.getEngine();
+
+        boolean existed = engine.hasRepository(repositoryName);
+        this.repository = engine.getRepositoryOrCreate(repositoryName, STATISTICS_TYPE_WRAP);
+        if(!existed) {
+            //first start: every punished player is missing
+            executor.execute(this::rebuildQuietly);
+        }
+        if(rebuildIntervalMillis > 0) {
+            executor.scheduleWithFixedDelay(this::rebuildQuietly, rebuildIntervalMillis, rebuildIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Counts a newly applied punishment, to be called once it's written.
+     */
+    void recordApplied(Punishment<?> punishment) {
+        update(punishment, (statistics)-> statistics.add(punishment), true);
+    }
+
+    /**
+     * Moves a punishment out of the active ones, to be called once its revocation is written.
+     */
+    void recordDeactivated(Punishment<?> punishment) {
+        StoredPunishmentStatistics.State state = StoredPunishmentStatistics.State.of(punishment);
+        update(punishment, (statistics)-> statistics.deactivate(punishment.getType(), state), false);
+    }
+
+    void setListener(@Nullable Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Runs a maintenance task on the statistics thread, after the pending changes, then every {@code intervalMillis}.
+     *
+     * @param runNow whether to run it right away rather than after the first interval.
+     */
+    void schedule(Runnable task, boolean runNow, long intervalMillis) {
+        if(runNow) {
+            executor.execute(task);
+        }
+        if(intervalMillis > 0) {
+            executor.scheduleWithFixedDelay(task, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Passes the stored statistics of every player to the consumer.
+     */
+    void forEachStored(Consumer<StoredPunishmentStatistics> consumer) throws StorageException {
+        repository.query().forEach(STREAM_BATCH_SIZE, consumer);
+    }
+
+    /**
+     * @return the stored statistics of the player, empty if not built yet.
+     */
+    Optional<StoredPunishmentStatistics> find(UUID playerId) throws StorageException {
+        return repository.findById(playerId.toString());
+    }
+
+    /**
+     * Computes the statistics of the player from its history, without storing them.
+     */
+    StoredPunishmentStatistics compute(UUID playerId) throws StorageException {
+        StoredPunishmentStatistics statistics = new StoredPunishmentStatistics(playerId.toString());
+        engine.queryAcrossRepositories(PUNISHMENT_TYPE_WRAP)
+                .where("target.uuid")
+                .eq(playerId.toString())
+                .forEach(STREAM_BATCH_SIZE, statistics::add);
+        return statistics;
+    }
+
+    private void update(Punishment<?> punishment, Consumer<StoredPunishmentStatistics> change, boolean applied) {
+        UUID playerId = punishment.getTarget().getTargetUUID();
+        try {
+            executor.execute(()-> {
+                try {
+                    StoredPunishmentStatistics saved = apply(playerId, change);
+                    Listener listener = this.listener;
+                    if(saved != null && listener != null) {
+                        if(applied) {
+                            listener.onApplied(punishment, saved);
+                        } else {
+                            listener.onDeactivated(punishment, saved);
+                        }
+                    }
+                } catch (StorageException e) {
+                    failedUpdates.increment();
+                    Cardinal.warn("Failed to update the punishment statistics of '%s', the next rebuild repairs them", playerId);
+                    e.printStackTrace();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            //shutting down, the next rebuild repairs them
+            failedUpdates.increment();
+        }
+    }
+
+    /**
+     * @return the saved statistics, null if given up on.
+     */
+    private @Nullable StoredPunishmentStatistics apply(UUID playerId, Consumer<StoredPunishmentStatistics> change) throws StorageException {
+        for(int i = 0; i < MAX_UPDATE_ATTEMPTS; i++) {
+            Optional<StoredPunishmentStatistics> stored = find(playerId);
+            StoredPunishmentStatistics next;
+            if(stored.isPresent()) {
+                next = stored.get();
+                change.accept(next);
+            } else {
+                lazyBuilds.increment();
+                next = compute(playerId);
+            }
+
+            if(repository.compareAndSave(next) instanceof SaveResult.Saved<StoredPunishmentStatistics>) {
+                updates.increment();
+                return next;
+            }
+            conflicts.increment();
+        }
+
+        failedUpdates.increment();
+        Cardinal.warn("Gave up updating the punishment statistics of '%s' after %d conflicting attempts", playerId, MAX_UPDATE_ATTEMPTS);
+        return null;
+    }
+
+    /**
+     * Recomputes the statistics of every punished player, on the statistics thread so that no change
+     * of this server interleaves with it.
+     */
+    CompletableFuture<Void> rebuildAsync() {
+        return CompletableFuture.runAsync(()-> {
+            try {
+                rebuild();
+            } catch (StorageException e) {
+                throw new RuntimeException(e);
+            }
+        }, executor);
+    }
+
+    private void rebuildQuietly() {
+        try {
+            rebuild();
+        } catch (Exception e) {
+            engine.getMetrics().recordError("statistics.rebuild");
+            Cardinal.warn("Failed to rebuild the punishment statistics");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Scans every punishment once, then compares the result with the stored statistics.
+     * A player whose statistics differ is recomputed from its own history right before being repaired,
+     * so changes made by other servers during the scan aren't undone.
+     */
+    private void rebuild() throws StorageException {
+        long start = System.currentTimeMillis();
+        Map<String, StoredPunishmentStatistics> rebuilt = new HashMap<>();
+        for(Repository<String, Punishment<?>> repo : manager.getPunishmentRepositories()) {
+            repo.query().forEach(STREAM_BATCH_SIZE, (punishment)-> rebuilt
+                    .computeIfAbsent(punishment.getTarget().getTargetUUID().toString(), StoredPunishmentStatistics::new)
+                    .add(punishment));
+        }
+
+        Set<String> stored = new HashSet<>();
+        List<StoredPunishmentStatistics> drifted = new ArrayList<>();
+        repository.query().forEach(STREAM_BATCH_SIZE, (statistics)-> {
+            stored.add(statistics.getPlayerId());
+            StoredPunishmentStatistics expected = rebuilt.get(statistics.getPlayerId());
+            if(expected == null || !statistics.sameCounts(expected)) {
+                drifted.add(statistics);
+            }
+        });
+
+        int repaired = 0, removed = 0, created = 0, skipped = 0;
+        for(StoredPunishmentStatistics statistics : drifted) {
+            StoredPunishmentStatistics current = compute(UUID.fromString(statistics.getPlayerId()));
+            if(current.getTotal() == 0) {
+                repository.delete(statistics);
+                removed++;
+                continue;
+            }
+            if(statistics.sameCounts(current)) {
+                continue;
+            }
+            statistics.copyCounts(current);
+            if(repository.compareAndSave(statistics) instanceof SaveResult.Saved<StoredPunishmentStatistics>) {
+                repaired++;
+            } else {
+                skipped++;
+            }
+        }
+
+        for(StoredPunishmentStatistics statistics : rebuilt.values()) {
+            if(stored.contains(statistics.getPlayerId())) {
+                continue;
+            }
+            //version 0: only inserted if no change created them meanwhile
+            if(repository.compareAndSave(statistics) instanceof SaveResult.Saved<StoredPunishmentStatistics>) {
+                created++;
+            } else {
+                skipped++;
+            }
+        }
+
+        long took = System.currentTimeMillis() - start;
+        engine.getMetrics().recordOperation("statistics.rebuild", took);
+        lastRebuild.put("statistics.rebuild.players", rebuilt.size());
+        lastRebuild.put("statistics.rebuild.created", created);
+        lastRebuild.put("statistics.rebuild.repaired", repaired);
+        lastRebuild.put("statistics.rebuild.removed", removed);
+        lastRebuild.put("statistics.rebuild.skipped", skipped);
+        lastRebuild.put("statistics.rebuild.took-ms", took);
+        Cardinal.log("Rebuilt the punishment statistics of %s players in %sms: %s created, %s repaired, %s removed, %s skipped",
+                rebuilt.size(), took, created, repaired, removed, skipped);
+    }
+
+    Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("statistics.updates", updates.sum());
+        metrics.put("statistics.conflicts", conflicts.sum());
+        metrics.put("statistics.lazy-builds", lazyBuilds.sum());
+        metrics.put("statistics.failed-updates", failedUpdates.sum());
+        metrics.putAll(lastRebuild);
+        return metrics;
+    }
+
+    /**
+     * Writes the pending changes, waiting a few seconds at most.
+     */
+    void shutdown() {
+        executor.shutdown();
+        try {
+            if(!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                Cardinal.warn("Punishment statistics changes still pending on shutdown, the next rebuild repairs them");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
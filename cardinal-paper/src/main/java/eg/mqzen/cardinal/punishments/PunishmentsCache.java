@@ -8,11 +8,12 @@ import lombok.Getter;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.ArrayDeque;
 import java.util.Collection;
 import java.util.Deque;
+import java.util.Map;
 import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
 
 public final class PunishmentsCache {
@@ -20,11 +21,28 @@ public final class PunishmentsCache {
     private final PunishmentType type;
     private final Cache<UUID, Deque<Punishment<?>>> internal;
 
+    /**
+     * Targets prefetched at login, held outside of {@link #internal} so they are never evicted while their
+     * players are online. A pinned target with an empty deque is known to have no active punishment.
+     */
+    private final Map<UUID, Deque<Punishment<?>>> pinned = new ConcurrentHashMap<>();
+    private final Map<UUID, Integer> pinCounts = new ConcurrentHashMap<>();
+
     public PunishmentsCache(PunishmentType type) {
+        this(type, 1000);
+    }
+
+    /**
+     * @param maximumSize the maximum number of cached targets, or a non-positive value for an unbounded cache
+     *                    (used when the cache holds the complete active set and must never evict).
+     */
+    public PunishmentsCache(PunishmentType type, long maximumSize) {
         this.type = type;
-        this.internal = Caffeine.newBuilder()
-                .maximumSize(1000) // Prevent unbounded growth
-                .build();
+        Caffeine<Object, Object> builder = Caffeine.newBuilder();
+        if (maximumSize > 0) {
+            builder.maximumSize(maximumSize); // Prevent unbounded growth
+        }
+        this.internal = builder.build();
     }
 
     /**
@@ -32,6 +50,10 @@ public final class PunishmentsCache {
      * This prevents null pointer exceptions and provides a consistent API.
      */
     public @NotNull Deque<Punishment<?>> getPunishments(@NotNull UUID uuid) {
+        Deque<Punishment<?>> pinnedPunishments = pinned.get(uuid);
+        if(pinnedPunishments != null) {
+            return pinnedPunishments;
+        }
         return Objects.requireNonNull(internal.get(uuid, k -> new ConcurrentLinkedDeque<>()));
     }
 
@@ -40,7 +62,8 @@ public final class PunishmentsCache {
      * Useful when you want to distinguish between "no punishments" and "not cached".
      */
     public @Nullable Deque<Punishment<?>> getPunishmentsIfPresent(@NotNull UUID uuid) {
-        return internal.getIfPresent(uuid);
+        Deque<Punishment<?>> pinnedPunishments = pinned.get(uuid);
+        return pinnedPunishments != null ? pinnedPunishments : internal.getIfPresent(uuid);
     }
 
     /**
@@ -49,9 +72,16 @@ public final class PunishmentsCache {
      */
     public void addPunishment(@NotNull UUID uuid, @NotNull Punishment<?> punishment) {
 
+        if(pinned.computeIfPresent(uuid, (id, pinnedPunishments)-> {
+            pinnedPunishments.add(punishment);
+            return pinnedPunishments;
+        }) != null) {
+            return;
+        }
+
         internal.asMap().compute(uuid, (oldId, otherActivePunishments)-> {
             if(otherActivePunishments == null) {
-               Deque<Punishment<?>> newStart = new ArrayDeque<>();
+               Deque<Punishment<?>> newStart = new ConcurrentLinkedDeque<>();
                newStart.add(punishment);
                return newStart;
            }
@@ -61,19 +91,42 @@ public final class PunishmentsCache {
         });
     }
 
+    /**
+     * Replaces the previous version of the punishment (same id) in the player's record, or adds it,
+     * as a single atomic update of the player's entry.
+     */
+    public void replacePunishment(@NotNull UUID uuid, @NotNull Punishment<?> punishment) {
+        if(pinned.computeIfPresent(uuid, (id, pinnedPunishments)-> {
+            pinnedPunishments.remove(punishment);
+            pinnedPunishments.add(punishment);
+            return pinnedPunishments;
+        }) != null) {
+            return;
+        }
+
+        internal.asMap().compute(uuid, (id, otherActivePunishments)-> {
+            Deque<Punishment<?>> punishments = otherActivePunishments == null ? new ConcurrentLinkedDeque<>() : otherActivePunishments;
+            punishments.remove(punishment);
+            punishments.add(punishment);
+            return punishments;
+        });
+    }
+
     /**
      * Adds multiple punishments atomically.
      */
     public void addPunishments(@NotNull UUID uuid, @NotNull Collection<Punishment<?>> punishments) {
         if (punishments.isEmpty()) return;
 
-        Deque<Punishment<?>> playerPunishments = internal.get(uuid, k -> new ConcurrentLinkedDeque<>());
-        assert playerPunishments != null;
+        Deque<Punishment<?>> playerPunishments = getPunishments(uuid);
         playerPunishments.addAll(punishments);
     }
 
 
     public void setPunishmentsFor(UUID punishmentsOwner, Deque<Punishment<?>> listOfPunishments) {
+        if(pinned.replace(punishmentsOwner, new ConcurrentLinkedDeque<>(listOfPunishments)) != null) {
+            return;
+        }
         internal.put(punishmentsOwner, listOfPunishments);
     }
 
@@ -82,15 +135,15 @@ public final class PunishmentsCache {
      * Returns true if the punishment was found and removed.
      */
     public void removePunishment(@NotNull UUID uuid, @NotNull Punishment<?> punishment) {
-        internal.asMap().compute(uuid,(oldId, otherActivePunishments)-> {
-            if(otherActivePunishments == null) {
-                Deque<Punishment<?>> newPunishmentsStart = new ArrayDeque<>();
-                newPunishmentsStart.add(punishment);
-                return newPunishmentsStart;
-            }
-
+        if(pinned.computeIfPresent(uuid, (id, pinnedPunishments)-> {
+            pinnedPunishments.remove(punishment);
+            return pinnedPunishments;
+        }) != null) {
+            return;
+        }
+        internal.asMap().computeIfPresent(uuid,(oldId, otherActivePunishments)-> {
             otherActivePunishments.remove(punishment);
-            return otherActivePunishments;
+            return otherActivePunishments.isEmpty() ? null : otherActivePunishments;
         });
     }
 
@@ -98,14 +151,79 @@ public final class PunishmentsCache {
      * Clears all punishments for a player.
      */
     public void clearPunishments(@NotNull UUID uuid) {
+        pinned.computeIfPresent(uuid, (id, pinnedPunishments)-> new ConcurrentLinkedDeque<>());
+        internal.invalidate(uuid);
+    }
+
+    /**
+     * Pins the target's punishments in the cache until {@link #unpin(UUID)} is called as many times,
+     * replacing them with the given complete set of its active punishments, plus the active ones cached
+     * since that set was read. Callers hold the target's lock, so nothing is cached between the merge and the pin.
+     */
+    public void pin(@NotNull UUID uuid, @NotNull Collection<Punishment<?>> activePunishments) {
+        Deque<Punishment<?>> merged = new ConcurrentLinkedDeque<>(activePunishments);
+        Deque<Punishment<?>> cached = getPunishmentsIfPresent(uuid);
+        if(cached != null) {
+            for(Punishment<?> punishment : cached) {
+                if(!punishment.isRevoked() && !punishment.hasExpired() && !merged.contains(punishment)) {
+                    merged.add(punishment);
+                }
+            }
+        }
+
+        pinCounts.merge(uuid, 1, Integer::sum);
+        pinned.put(uuid, merged);
         internal.invalidate(uuid);
     }
 
+    /**
+     * Releases one pin of the target, moving its punishments back to the evictable cache once unpinned.
+     */
+    public void unpin(@NotNull UUID uuid) {
+        pinCounts.computeIfPresent(uuid, (id, count)-> {
+            if(count > 1) {
+                return count - 1;
+            }
+            Deque<Punishment<?>> pinnedPunishments = pinned.remove(uuid);
+            if(pinnedPunishments != null && !pinnedPunishments.isEmpty()) {
+                internal.put(uuid, pinnedPunishments);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * @return true if every active punishment of the target is known to be in this cache.
+     */
+    public boolean isPinned(@NotNull UUID uuid) {
+        return pinned.containsKey(uuid);
+    }
+
+    /**
+     * @return true if the target has a cached punishment that is neither revoked nor expired.
+     */
+    public boolean hasActivePunishment(@NotNull UUID uuid) {
+        Deque<Punishment<?>> punishments = getPunishmentsIfPresent(uuid);
+        if(punishments == null) {
+            return false;
+        }
+        for(Punishment<?> punishment : punishments) {
+            if(!punishment.isRevoked() && !punishment.hasExpired()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int pinnedCount() {
+        return pinned.size();
+    }
+
     /**
      * Gets the most recent punishment for a player, or null if none exist.
      */
     public @Nullable Punishment<?> getLatestPunishment(@NotNull UUID uuid) {
-        Deque<Punishment<?>> punishments = internal.getIfPresent(uuid);
+        Deque<Punishment<?>> punishments = getPunishmentsIfPresent(uuid);
         return punishments != null ? punishments.peekLast() : null;
     }
 
@@ -113,7 +231,7 @@ public final class PunishmentsCache {
      * Gets the number of punishments for a player.
      */
     public int getPunishmentCount(@NotNull UUID uuid) {
-        Deque<Punishment<?>> punishments = internal.getIfPresent(uuid);
+        Deque<Punishment<?>> punishments = getPunishmentsIfPresent(uuid);
         return punishments != null ? punishments.size() : 0;
     }
 
@@ -121,7 +239,7 @@ public final class PunishmentsCache {
      * Checks if a player has any punishments.
      */
     public boolean hasPunishments(@NotNull UUID uuid) {
-        Deque<Punishment<?>> punishments = internal.getIfPresent(uuid);
+        Deque<Punishment<?>> punishments = getPunishmentsIfPresent(uuid);
         return punishments != null && !punishments.isEmpty();
     }
 
@@ -143,7 +261,7 @@ public final class PunishmentsCache {
      * Gets the current cache size.
      */
     public long size() {
-        return internal.estimatedSize();
+        return internal.estimatedSize() + pinned.size();
     }
 
 }
@@ -2,7 +2,9 @@ package eg.mqzen.cardinal.punishments;
 
 import static eg.mqzen.cardinal.punishments.StandardPunishmentManager.PUNISHMENT_TYPE_WRAP;
 
+import dev.dejvokep.boostedyaml.YamlDocument;
 import eg.mqzen.cardinal.Cardinal;
+import eg.mqzen.cardinal.api.punishments.LeaderboardWindow;
 import eg.mqzen.cardinal.api.punishments.Punishment;
 import eg.mqzen.cardinal.api.punishments.PunishmentHistoryService;
 import eg.mqzen.cardinal.api.punishments.PunishmentID;
@@ -12,12 +14,14 @@ import eg.mqzen.cardinal.api.punishments.PunishmentRevision;
 import eg.mqzen.cardinal.api.punishments.PunishmentSearchCriteria;
 import eg.mqzen.cardinal.api.punishments.PunishmentStatistics;
 import eg.mqzen.cardinal.api.punishments.PunishmentType;
+import eg.mqzen.cardinal.api.storage.Page;
 import eg.mqzen.cardinal.api.storage.QueryBuilder;
 import eg.mqzen.cardinal.api.storage.Repository;
 import eg.mqzen.cardinal.api.storage.StorageEngine;
 import eg.mqzen.cardinal.api.storage.StorageException;
 import eg.mqzen.cardinal.api.util.FutureOperation;
 import eg.mqzen.cardinal.punishments.core.StandardPunishment;
+import org.jetbrains.annotations.Nullable;
 
 import java.time.Duration;
 import java.time.Instant;
@@ -31,16 +35,44 @@ import java.util.Objects;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 final class StandardPunishmentHistoryService implements PunishmentHistoryService {
 
+    /**
+     * Documents fetched per round trip when scanning repositories.
+     */
+    private static final int STREAM_BATCH_SIZE = 500;
+
     private final StandardPunishmentManager manager;
     private final StorageEngine engine;
 
-    StandardPunishmentHistoryService(StandardPunishmentManager manager) {
+    /**
+     * Per-player history pages, null unless {@code cache.history.enabled}.
+     */
+    private final @Nullable PlayerHistoryCache historyCache;
+
+    StandardPunishmentHistoryService(StandardPunishmentManager manager, YamlDocument config) {
         this.manager = manager;
         this.engine = manager.getEngine();
+        if(config.getBoolean("cache.history.enabled", true)) {
+            historyCache = new PlayerHistoryCache(
+                    config.getLong("cache.history.max-punishments", 20000L),
+                    Duration.ofSeconds(config.getLong("cache.history.expire-after-write-seconds", 300L))
+            );
+            engine.registerObserver(historyCache);
+        }
+        else {
+            historyCache = null;
+        }
+    }
+
+    /**
+     * @return hit rate and footprint of the per-player history cache, empty when disabled.
+     */
+    Map<String, Object> getCacheMetrics() {
+        return historyCache == null ? Map.of() : historyCache.getMetrics();
     }
 
 
@@ -69,31 +101,74 @@ final class StandardPunishmentHistoryService implements PunishmentHistoryService
      */
     @Override
     public FutureOperation<Deque<Punishment<?>>> getFullHistory(UUID playerId, int limit) {
-        return FutureOperation.of(CompletableFuture.supplyAsync(()-> {
-            Deque<Punishment<?>> fullHistory = new ArrayDeque<>();
+        if(playerId == null || limit < -1) {
+            throw new IllegalArgumentException("Invalid history request for player " + playerId + " with limit " + limit);
+        }
+        if(limit == 0) {
+            return FutureOperation.of(CompletableFuture.completedFuture(new ArrayDeque<>()));
+        }
 
-            for (var punishmentRepo : manager.getPunishmentRepositories()) {
-                try {
-                    fullHistory.addAll(punishmentRepo.findAll());
-                } catch (StorageException e) {
-                    throw new RuntimeException(e);
-                }
+        //the limit reaches every repository, which reads no more than that many of the player's punishments
+        return FutureOperation.of(
+                cachedHistory(playerId, new PlayerHistoryCache.HistoryKey(null, limit, false), ()->
+                        playerHistory(playerId)
+                                .limit(limit)
+                                .executeAsync()
+                                .thenApply((punishments)-> new Page<>(punishments, null))
+                ).thenApply((history)-> new ArrayDeque<>(history.items()))
+        );
+    }
 
-            }
-            if(limit == -1) {
-                return fullHistory;
-            }
+    @Override
+    public FutureOperation<Page<Punishment<?>>> getHistoryPage(UUID playerId, @Nullable String cursor, int pageSize) {
+        if(pageSize < 1) {
+            throw new IllegalArgumentException("Page size must be positive, got " + pageSize);
+        }
+        return FutureOperation.of(
+                cachedHistory(playerId, new PlayerHistoryCache.HistoryKey(cursor, pageSize, true), ()->
+                        playerHistory(playerId)
+                                .after(cursor)
+                                .pageAsync(pageSize)
+                )
+        );
+    }
 
-            Deque<Punishment<?>> trimmedHistory = new ArrayDeque<>();
-            for (int i = 0; i < limit; i++) {
-                Punishment<?> punishment = fullHistory.poll();
-                if(punishment == null || fullHistory.isEmpty()) break;
-                trimmedHistory.add(punishment);
-            }
-            return trimmedHistory;
-        }));
+    private CompletableFuture<Page<Punishment<?>>> cachedHistory(UUID playerId, PlayerHistoryCache.HistoryKey key,
+            Supplier<CompletableFuture<Page<Punishment<?>>>> loader) {
+        return historyCache == null ? loader.get() : historyCache.get(playerId, key, loader);
     }
 
+    /**
+     * The punishments targeting the player, most recent first, read through the (target, issuedAt) indexes.
+     */
+    private QueryBuilder<Punishment<?>> playerHistory(UUID playerId) {
+        return engine.queryAcrossRepositories(PUNISHMENT_TYPE_WRAP)
+                .where("target.uuid")
+                .eq(playerId.toString())
+                .sortBy(StandardPunishment.class, "issuedAt", QueryBuilder.SortOrder.DESC);
+    }
+
+    @Override
+    public FutureOperation<Page<Punishment<?>>> getHistoryPage(@Nullable String cursor, int pageSize) {
+        return FutureOperation.of(
+                engine.queryAcrossRepositories(PUNISHMENT_TYPE_WRAP)
+                        .sortBy(StandardPunishment.class, "issuedAt", QueryBuilder.SortOrder.DESC)
+                        .after(cursor)
+                        .pageAsync(pageSize)
+        );
+    }
+
+    @Override
+    public FutureOperation<Page<Punishment<?>>> getPunishmentsByPunisher(PunishmentIssuer issuer, @Nullable String cursor, int pageSize) {
+        return FutureOperation.of(
+                engine.queryAcrossRepositories(PUNISHMENT_TYPE_WRAP)
+                        .where("issuer.uuid")
+                        .eq(issuer.getUniqueId().toString())
+                        .sortBy(StandardPunishment.class, "issuedAt", QueryBuilder.SortOrder.DESC)
+                        .after(cursor)
+                        .pageAsync(pageSize)
+        );
+    }
 
     /**
      * Searches for punishments by punisher (staff member who applied them).
@@ -185,7 +260,7 @@ final class StandardPunishmentHistoryService implements PunishmentHistoryService
                             .or(() -> {
                                 try {
                                     Cardinal.log("Searching for punishment in database with ID: " + punishmentID.getRepresentation());
-                                    return manager.getEngine().getRepositoryOrCreate(type.name().toLowerCase(), PUNISHMENT_TYPE_WRAP)
+                                    return manager.getPunishmentRepo(type)
                                             .query()
                                             .where("id")
                                             .eq(punishmentID.getRepresentation())
@@ -554,60 +629,37 @@ final class StandardPunishmentHistoryService implements PunishmentHistoryService
         Objects.requireNonNull(playerId, "playerId cannot be null");
         Objects.requireNonNull(since, "since cannot be null");
 
+        PunishmentStatisticsStore statistics = manager.getStatistics();
         return FutureOperation.of(CompletableFuture.supplyAsync(() -> {
-            PunishmentStatistics.Builder builder = PunishmentStatistics.builder(playerId);
-            Instant now = Instant.now();
-            Instant firstPunishment = null;
-            Instant lastPunishment = null;
-            Instant mostRecentActive = null;
-
-            for (Repository<String, Punishment<?>> repo : manager.getPunishmentRepositories()) {
-                try {
-                    QueryBuilder<Punishment<?>> query = repo.query()
-                            .where("target").eq(playerId.toString())
-                            .where("issuedAt").gte(since);
-
-                    List<Punishment<?>> punishments = query.execute();
-
-                    for (Punishment<?> punishment : punishments) {
-                        // Update basic counts
-                        builder.addPunishment(punishment.getType(), punishment.getDuration());
-
-                        // Track first/last punishment times
-                        Instant issuedAt = punishment.getIssuedAt();
-                        if (firstPunishment == null || issuedAt.isBefore(firstPunishment)) {
-                            firstPunishment = issuedAt;
-                        }
-                        if (lastPunishment == null || issuedAt.isAfter(lastPunishment)) {
-                            lastPunishment = issuedAt;
-                        }
-
-                        // Track active punishments
-                        if (punishment.getExpiresAt().isAfter(now)) {
-                            if (mostRecentActive == null || issuedAt.isAfter(mostRecentActive)) {
-                                mostRecentActive = issuedAt;
-                            }
-                        }
-
-                        // Update issuer counts
-                        builder.countByIssuer.merge(punishment.getIssuer(), 1, Integer::sum);
+            try {
+                //the stored statistics cover the whole history, so any period starting before it
+                if(statistics != null) {
+                    Optional<StoredPunishmentStatistics> stored = statistics.find(playerId);
+                    if(stored.isPresent() && (stored.get().getTotal() == 0 || since.toEpochMilli() <= stored.get().getFirstIssuedAt())) {
+                        return stored.get().toStatistics();
                     }
-                } catch (StorageException e) {
-                    // Log error but continue
                 }
+                return computeStatistics(playerId, since);
+            } catch (StorageException e) {
+                throw new RuntimeException(e);
             }
-
-            // Set the collected timestamps
-            builder.firstPunishment(firstPunishment)
-                    .lastPunishment(lastPunishment)
-                    .mostRecentActive(mostRecentActive);
-
-            return builder.build();
         }));
     }
 
+    /**
+     * Folds the player's punishments issued since the given time, for periods the stored statistics don't match.
+     */
+    private PunishmentStatistics computeStatistics(UUID playerId, Instant since) throws StorageException {
+        StoredPunishmentStatistics computed = new StoredPunishmentStatistics(playerId.toString());
+        playerHistory(playerId)
+                .where("issuedAt").gte(since)
+                .forEach(STREAM_BATCH_SIZE, computed::add);
+        return computed.toStatistics();
+    }
+
     /**
      * Gets the most frequently punished players.
+     * Punishments revoked by staff are not counted, expired ones are.
      *
      * @param type  the punishment type to analyze, or null for all types
      * @param limit the maximum number of players to return
@@ -618,6 +670,19 @@ final class StandardPunishmentHistoryService implements PunishmentHistoryService
     public FutureOperation<LinkedHashMap<UUID, Integer>> getMostPunishedPlayers(
             PunishmentType type, int limit, Instant since
     ) {
+        //a leaderboard window, up to the leaderboard capacity
+        PunishmentLeaderboards leaderboards = manager.getLeaderboards();
+        LeaderboardWindow window = leaderboards == null ? null : leaderboards.windowOf(since, limit);
+        if (window != null) {
+            return FutureOperation.of(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return leaderboards.top(type, window, limit);
+                } catch (StorageException e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+
         return FutureOperation.of(CompletableFuture.supplyAsync(() -> {
             Map<UUID, Integer> counts = new HashMap<>();
 
@@ -635,11 +700,12 @@ final class StandardPunishmentHistoryService implements PunishmentHistoryService
                         query.where("issuedAt").gte(since);
                     }
 
-                    List<Punishment<?>> punishments = query.execute();
-                    for (Punishment<?> punishment : punishments) {
-                        UUID playerId = punishment.getTarget().getTargetUUID();
-                        counts.put(playerId, counts.getOrDefault(playerId, 0) + 1);
-                    }
+                    //only the counts are kept in memory, not the punishments; the leaderboards' rules apply
+                    query.forEach(STREAM_BATCH_SIZE, punishment -> {
+                        if (StoredPunishmentStatistics.State.of(punishment) != StoredPunishmentStatistics.State.REVOKED) {
+                            counts.merge(punishment.getTarget().getTargetUUID(), 1, Integer::sum);
+                        }
+                    });
                 } catch (StorageException e) {
                     // Log error but continue processing other repositories
                 }
@@ -658,6 +724,12 @@ final class StandardPunishmentHistoryService implements PunishmentHistoryService
         }));
     }
 
+    @Override
+    public FutureOperation<LinkedHashMap<UUID, Integer>> getLeaderboard(@Nullable PunishmentType type, LeaderboardWindow window, int limit) {
+        Objects.requireNonNull(window, "window cannot be null");
+        return getMostPunishedPlayers(type, limit, window.since(Instant.now()));
+    }
+
     /**
      * Retrieves punishments by target type (useful for IP bans vs player bans).
      *
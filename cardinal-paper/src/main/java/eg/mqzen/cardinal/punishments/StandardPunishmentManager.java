@@ -13,25 +13,45 @@ import eg.mqzen.cardinal.api.punishments.PunishmentManager;
 import eg.mqzen.cardinal.api.punishments.PunishmentScanResult;
 import eg.mqzen.cardinal.api.punishments.PunishmentType;
 import eg.mqzen.cardinal.api.punishments.StandardPunishmentType;
+import eg.mqzen.cardinal.api.storage.BatchOperation;
+import eg.mqzen.cardinal.api.storage.BatchOperationResult;
+import eg.mqzen.cardinal.api.storage.Page;
+import eg.mqzen.cardinal.api.storage.QueryBuilder;
 import eg.mqzen.cardinal.api.storage.Repository;
+import eg.mqzen.cardinal.api.storage.SaveResult;
 import eg.mqzen.cardinal.api.storage.StorageEngine;
 import eg.mqzen.cardinal.api.storage.StorageException;
 import eg.mqzen.cardinal.api.util.FutureOperation;
+import eg.mqzen.cardinal.config.MessageKeys;
 import eg.mqzen.cardinal.punishments.core.StandardPunishment;
 import eg.mqzen.cardinal.punishments.issuer.PunishmentIssuerFactory;
+import eg.mqzen.cardinal.storage.DiscriminatedRepository;
+import eg.mqzen.cardinal.storage.SingleTableMigration;
 import eg.mqzen.cardinal.storage.StorageEngines;
+import eg.mqzen.cardinal.storage.WriteBehindBuffer;
 import eg.mqzen.cardinal.util.IPUtils;
+import eg.mqzen.cardinal.util.LatencyHistogram;
+import eg.mqzen.cardinal.util.SingleFlight;
+import eg.mqzen.cardinal.util.StripedLocks;
+import eg.mqzen.cardinal.util.Tasks;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import studio.mevera.imperat.util.TypeUtility;
 import studio.mevera.imperat.util.TypeWrap;
 
 import java.time.Duration;
-import java.util.AbstractMap;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -39,8 +59,10 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.locks.ReentrantLock;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
 
 @SuppressWarnings("all")
 public class StandardPunishmentManager implements PunishmentManager {
@@ -53,21 +75,518 @@ public class StandardPunishmentManager implements PunishmentManager {
 
     private final Cache<String, Punishment<?>> activePunishmentsPerID = Caffeine.newBuilder().build();
 
-    private final ReentrantLock lock = new ReentrantLock();
+    /**
+     * Serializes the writes (apply/revoke/reason update) of the same target, while unrelated targets
+     * proceed in parallel.
+     */
+    private final StripedLocks targetLocks = StripedLocks.forAvailableProcessors();
 
     private final StorageEngine engine;
 
-    private final PunishmentHistoryService historyService;
+    private final StandardPunishmentHistoryService historyService;
+
+    private final @Nullable NegativeLookupCache negativeLookups;
+
+    private final boolean warmLoad;
+
+    /**
+     * Off-heap index of every active memory-worthy punishment, present when warm-loading is enabled.
+     */
+    private final @Nullable ActivePunishmentIndex activeIndex;
+
+    private final int warmLoadBatchSize;
+
+    private final int bulkChunkSize;
+
+    /**
+     * Types whose active set was fully loaded into {@link #activeIndex} at startup,
+     * for these types a cache miss means "not punished" and storage is not consulted.
+     */
+    private final Set<PunishmentType> warmLoadedTypes = ConcurrentHashMap.newKeySet();
+
+    private final Map<String, Object> warmLoadReport = new ConcurrentHashMap<>();
+
+    private final @Nullable PunishmentExpiryScheduler expiryScheduler;
+
+    private final LatencyHistogram sequentialScanLatency = new LatencyHistogram();
+
+    private final LatencyHistogram combinedScanLatency = new LatencyHistogram();
+
+    private final OnlinePunishmentStates onlineStates = new OnlinePunishmentStates(this);
+
+    /**
+     * The (type, target) pins taken by {@link #prefetch(UUID, String)}, per player.
+     */
+    private final Map<UUID, List<PrefetchPin>> prefetchPins = new ConcurrentHashMap<>();
+
+    private final LatencyHistogram prefetchLatency = new LatencyHistogram();
+
+    private record PrefetchPin(PunishmentType type, UUID target) {}
+
+    private static final int GENERATION_STRIPES = 1024;
+    /**
+     * Bumped whenever a punishment of a target is applied or removed, per stripe of targets.
+     * A prefetch only pins the snapshot it read if the generation of the target didn't change meanwhile.
+     */
+    private final AtomicLongArray targetGenerations = new AtomicLongArray(GENERATION_STRIPES);
+
+    /**
+     * Concurrent storage lookups of the same targets and type share a single query.
+     */
+    private final SingleFlight<LookupKey, Optional<Punishment<?>>> playerLookups = new SingleFlight<>();
+
+    private final SingleFlight<LookupKey, Optional<Punishment<?>>> scanLookups = new SingleFlight<>();
+
+    private final SingleFlight<String, Optional<Punishment<?>>> materializations = new SingleFlight<>();
+
+    private record LookupKey(List<UUID> targets, PunishmentType type) {}
+
+    //bounds the retries of a save racing with writers of other servers on the same document
+    private static final int MAX_SAVE_ATTEMPTS = 5;
+
+    private final LongAdder saveConflicts = new LongAdder();
+
+    /**
+     * Write-behind buffers of the punishment saves per type, empty unless {@code write-behind.enabled}.
+     */
+    private final Map<PunishmentType, WriteBehindBuffer<Punishment<?>>> writeBehind = new HashMap<>();
+
+    /**
+     * The repository holding every punishment type when {@code storage.single-table.enabled},
+     * null when each type has its own.
+     */
+    private final @Nullable Repository<String, Punishment<?>> sharedRepository;
+
+    /**
+     * The per-player statistics kept up to date by every apply, revocation and expiry, null unless {@code statistics.enabled}.
+     */
+    private final @Nullable PunishmentStatisticsStore statistics;
+
+    /**
+     * The most-punished-players leaderboards, fed by {@link #statistics}, null unless both are enabled.
+     */
+    private final @Nullable PunishmentLeaderboards leaderboards;
+
+    /**
+     * The per-type views of {@link #sharedRepository}.
+     */
+    private final Map<PunishmentType, Repository<String, Punishment<?>>> typeViews = new ConcurrentHashMap<>();
 
     private StandardPunishmentManager(YamlDocument config) throws StorageException {
 
         engine = StorageEngines.createFromYaml(config);
+        warmLoad = config.getBoolean("cache.warm-load.enabled", true);
+        warmLoadBatchSize = Math.max(1, config.getInt("cache.warm-load.batch-size", 1000));
+        bulkChunkSize = Math.max(1, config.getInt("cache.bulk-chunk-size", 500));
+        activeIndex = warmLoad
+                ? new ActivePunishmentIndex(List.of(StandardPunishmentType.values()), config.getInt("cache.warm-load.index-initial-capacity", 65536))
+                : null;
+
+        //materialized punishment objects, the complete active set lives in the off-heap index.
+        long materializedSize = config.getLong("cache.materialized-max-size", 1000L);
+        if(config.getBoolean("storage.single-table.enabled", false)) {
+            sharedRepository = engine.getRepositoryOrCreate(config.getString("storage.single-table.name", "punishments"), PUNISHMENT_TYPE_WRAP);
+            //the per-type tables of the previous layout are moved in before anything reads the shared one
+            new SingleTableMigration<>(engine, sharedRepository, PUNISHMENT_TYPE_WRAP, config.getInt("storage.single-table.migration-batch-size", 500))
+                    .migrate(Arrays.stream(StandardPunishmentType.values()).map(PunishmentType::id).toList());
+        }
+        else {
+            sharedRepository = null;
+        }
+
         for(PunishmentType type : StandardPunishmentType.values()) {
-            engine.getRepositoryOrCreate(type.id(), PUNISHMENT_TYPE_WRAP);
-            activePunishments.put(type, new PunishmentsCache(type));
+            getPunishmentRepo(type);
+            activePunishments.put(type, new PunishmentsCache(type, materializedSize));
+        }
+
+        if(config.getBoolean("write-behind.enabled", false)) {
+            Cardinal.warn("Write-behind is enabled: punishment saves skip version conflict detection, "
+                    + "only a single server should write to the database");
+            for(PunishmentType type : StandardPunishmentType.values()) {
+                writeBehind.put(type, new WriteBehindBuffer<>(
+                        getPunishmentRepo(type),
+                        engine.getMetrics(),
+                        config.getInt("write-behind.batch-size", 200),
+                        config.getLong("write-behind.flush-interval-millis", 500L),
+                        config.getInt("write-behind.max-attempts", 10)
+                ));
+            }
+        }
+
+        if(config.getBoolean("cache.negative-lookup.enabled", true)) {
+            negativeLookups = new NegativeLookupCache(
+                    config.getInt("cache.negative-lookup.expected-insertions", 50000),
+                    config.getDouble("cache.negative-lookup.false-positive-rate", 0.01),
+                    Duration.ofSeconds(config.getInt("cache.negative-lookup.clean-ttl-seconds", 30)),
+                    config.getInt("cache.negative-lookup.clean-max-size", 10000)
+            );
+        }
+        else {
+            negativeLookups = null;
+        }
+
+        if(config.getBoolean("expiry.enabled", true)) {
+            expiryScheduler = new PunishmentExpiryScheduler(
+                    this::evictExpiredPunishment,
+                    this::writeExpiredPunishments,
+                    config.getInt("expiry.batch-size", 100),
+                    config.getLong("expiry.flush-interval-seconds", 5L) * 1000L,
+                    config.getInt("expiry.max-attempts", 10)
+            );
+        }
+        else {
+            expiryScheduler = null;
+        }
+
+        if(config.getBoolean("statistics.enabled", true)) {
+            statistics = new PunishmentStatisticsStore(
+                    this,
+                    config.getString("statistics.repository", "punishment-statistics"),
+                    config.getLong("statistics.rebuild-interval-hours", 24L) * 3_600_000L
+            );
+        }
+        else {
+            statistics = null;
+        }
+
+        if(statistics != null && config.getBoolean("leaderboards.enabled", true)) {
+            leaderboards = new PunishmentLeaderboards(
+                    this,
+                    statistics,
+                    config.getString("leaderboards.repository", "punishment-leaderboards"),
+                    config.getInt("leaderboards.capacity", 100),
+                    Duration.ofSeconds(config.getLong("leaderboards.refresh-seconds", 30L)),
+                    config.getLong("leaderboards.compaction-interval-hours", 6L) * 3_600_000L
+            );
+        }
+        else {
+            leaderboards = null;
+        }
+
+        if(warmLoad || negativeLookups != null) {
+            loadActivePunishments();
+        }
+
+        if(expiryScheduler != null) {
+            expiryScheduler.start();
+        }
+
+        historyService = new StandardPunishmentHistoryService(this, config);
+    }
+
+    /**
+     * Streams every non-revoked, non-expired punishment of each memory-worthy type from storage in pages
+     * of {@code cache.warm-load.batch-size}, feeding the off-heap {@link ActivePunishmentIndex}
+     * (when warm-loading is enabled) and the negative-lookup filters.
+     * <p>
+     * This runs while the plugin is enabling, so it completes before any {@code AsyncPlayerPreLoginEvent}
+     * reaches the listeners. A type whose repository cannot be read is left cold,
+     * its lookups keep going to the database.
+     */
+    private void loadActivePunishments() {
+        long totalStart = System.currentTimeMillis();
+        int totalLoaded = 0;
+
+        for(StandardPunishmentType type : StandardPunishmentType.values()) {
+            if(!type.isMemoryWorthy()) {
+                continue;
+            }
+
+            long start = System.currentTimeMillis();
+            Repository<String, Punishment<?>> repo = getPunishmentRepo(type);
+            try {
+                long expected = repo.query().where("revoke-info").eq(null).count();
+                Cardinal.log("Loading %s active '%s' punishments...", expected, type.id());
+
+                if(negativeLookups != null) {
+                    negativeLookups.reset(type);
+                }
+                if(warmLoad) {
+                    activeIndex.clear(type);
+                }
+
+                int loaded = 0, scanned = 0;
+                Page<Punishment<?>> page = null;
+                do {
+                    //keyset pages, so the last batch costs the same as the first one
+                    page = repo.query()
+                            .where("revoke-info").eq(null)
+                            .sortBy(StandardPunishment.class, "issuedAt", QueryBuilder.SortOrder.ASC)
+                            .after(page == null ? null : page.nextCursor())
+                            .page(warmLoadBatchSize);
+                    scanned += page.items().size();
+
+                    for(Punishment<?> punishment : page.items()) {
+                        if(punishment.hasExpired()) {
+                            continue;
+                        }
+                        if(negativeLookups != null) {
+                            negativeLookups.add(punishment);
+                        }
+                        if(warmLoad && !activeIndex.put(punishment)) {
+                            Cardinal.warn("Punishment '%s' cannot be indexed, its id is too long", punishment.getId().getRepresentation());
+                            continue;
+                        }
+                        if(expiryScheduler != null) {
+                            expiryScheduler.schedule(punishment);
+                        }
+                        loaded++;
+                    }
+
+                    if(page.hasNext()) {
+                        Cardinal.log("Loading '%s' punishments: %s/%s", type.id(), scanned, expected);
+                    }
+                } while(page.hasNext());
+
+                if(negativeLookups != null) {
+                    negativeLookups.markReady(type);
+                }
+                if(warmLoad) {
+                    warmLoadedTypes.add(type);
+                }
+
+                long took = System.currentTimeMillis() - start;
+                engine.getMetrics().recordOperation("warm-load." + type.id(), took);
+                warmLoadReport.put("warm-load." + type.id() + ".entries", loaded);
+                warmLoadReport.put("warm-load." + type.id() + ".millis", took);
+                totalLoaded += loaded;
+                Cardinal.log("Loaded %s active '%s' punishments (%s scanned) in %sms", loaded, type.id(), scanned, took);
+            } catch (StorageException e) {
+                engine.getMetrics().recordError("warm-load." + type.id());
+                Cardinal.warn("Failed to load active '%s' punishments, lookups of this type will hit the database", type.id());
+                e.printStackTrace();
+            }
+        }
+
+        long took = System.currentTimeMillis() - totalStart;
+        warmLoadReport.put("warm-load.total.entries", totalLoaded);
+        warmLoadReport.put("warm-load.total.millis", took);
+        Cardinal.log("Loaded %s active punishments into memory in %sms", totalLoaded, took);
+    }
+
+    /**
+     * @return metrics of the in-memory lookup layers (e.g. Bloom filter false-positive rate and memory usage).
+     */
+    public Map<String, Object> getCacheMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>(warmLoadReport);
+        if(expiryScheduler != null) {
+            metrics.put("expiry.scheduled", expiryScheduler.scheduledCount());
+            metrics.put("expiry.pending-writes", expiryScheduler.pendingWriteCount());
+        }
+        if(activeIndex != null) {
+            metrics.put("active-index.entries", activeIndex.size());
+            metrics.put("active-index.capacity", activeIndex.capacity());
+            metrics.put("active-index.off-heap-bytes", activeIndex.memoryBytes());
+        }
+        if(negativeLookups != null) {
+            metrics.putAll(negativeLookups.getMetrics());
+        }
+        metrics.put("online-states.players", onlineStates.size());
+        metrics.put("prefetch.players", prefetchPins.size());
+        metrics.put("save.conflicts", saveConflicts.sum());
+        metrics.putAll(historyService.getCacheMetrics());
+        if(statistics != null) {
+            metrics.putAll(statistics.getMetrics());
+        }
+        if(leaderboards != null) {
+            metrics.putAll(leaderboards.getMetrics());
+        }
+        return metrics;
+    }
+
+    /**
+     * @return latency percentiles of the sequential (account, then IP) and the combined scans,
+     * which tell how much the pre-login check saves.
+     */
+    public Map<String, Object> getLatencyMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.putAll(sequentialScanLatency.snapshot("scan.sequential"));
+        metrics.putAll(combinedScanLatency.snapshot("scan.combined"));
+        metrics.putAll(prefetchLatency.snapshot("prefetch"));
+        metrics.putAll(playerLookups.snapshot("single-flight.player-lookup"));
+        metrics.putAll(scanLookups.snapshot("single-flight.scan"));
+        metrics.putAll(materializations.snapshot("single-flight.materialize"));
+        return metrics;
+    }
+
+    /**
+     * Removes a punishment that reached its expiry from memory.
+     *
+     * @return false if the task is stale, i.e. the punishment was revoked or its expiry changed meanwhile.
+     */
+    private boolean evictExpiredPunishment(PunishmentExpiryScheduler.ExpiryTask task) {
+        Punishment<?> cached = activePunishmentsPerID.getIfPresent(task.punishmentId());
+        if(cached != null) {
+            if(cached.isRevoked() || ActivePunishmentIndex.expiryOf(cached) != task.expiresAt()) {
+                return false;
+            }
+            task.setPunishment(cached);
+            removeActivePunishmentFromCache(cached);
+            return true;
+        }
+
+        if(activeIndex != null) {
+            ActivePunishmentIndex.Entry entry = activeIndex.get(task.target(), task.type());
+            boolean indexed = entry != null && entry.punishmentId().equals(task.punishmentId());
+            if(entry != null && entry.shared() && !indexed) {
+                //overlapped by the indexed punishment, the writer checks its state against storage
+                onlineStates.onRemoved(task.target(), task.type(), task.punishmentId());
+                return true;
+            }
+            if(!indexed || entry.revoked() || entry.expiresAt() != task.expiresAt()) {
+                return false;
+            }
+            bumpGeneration(task.target());
+            activeIndex.remove(task.target(), task.type(), task.punishmentId());
+        }
+        onlineStates.onRemoved(task.target(), task.type(), task.punishmentId());
+        //not held in memory anymore, the writer checks its state against storage.
+        return true;
+    }
+
+    /**
+     * Writes the "EXPIRED" revocation of a batch of expired punishments, one batch operation per type,
+     * then tells the online targets whose mute ended.
+     * Punishments saved by another writer since they were read are merged through {@link #saveMerging}.
+     *
+     * @return the tasks whose revocation couldn't be written, to be retried.
+     */
+    private List<PunishmentExpiryScheduler.ExpiryTask> writeExpiredPunishments(List<PunishmentExpiryScheduler.ExpiryTask> tasks) {
+        Map<PunishmentType, List<Punishment<?>>> expiredPerType = new HashMap<>();
+        Map<Punishment<?>, PunishmentExpiryScheduler.ExpiryTask> taskOf = new IdentityHashMap<>();
+        List<PunishmentExpiryScheduler.ExpiryTask> failed = new ArrayList<>();
+        PunishmentIssuer console = PunishmentIssuerFactory.fromConsole();
+        Predicate<Punishment<?>> expire = (current)-> {
+            if(current.isRevoked()) {
+                return false;
+            }
+            if(!current.hasExpired()) {
+                //extended by someone else meanwhile, keep tracking it.
+                updateActivePunishment(current);
+                return false;
+            }
+            current.revoke(new StandardPunishment.StandardRevocationInfo(console, "EXPIRED"));
+            return true;
+        };
+
+        for(PunishmentExpiryScheduler.ExpiryTask task : tasks) {
+            Punishment<?> punishment = task.punishment();
+            if(punishment == null) {
+                try {
+                    punishment = getPunishmentRepo(task.type()).findById(task.punishmentId()).orElse(null);
+                } catch (StorageException e) {
+                    Cardinal.warn("Failed to load expired punishment '%s'", task.punishmentId());
+                    e.printStackTrace();
+                    failed.add(task);
+                    continue;
+                }
+            }
+
+            if(punishment == null || !expire.test(punishment)) {
+                continue;
+            }
+            taskOf.put(punishment, task);
+            expiredPerType.computeIfAbsent(task.type(), (k)-> new ArrayList<>()).add(punishment);
+        }
+
+        for(Map.Entry<PunishmentType, List<Punishment<?>>> entry : expiredPerType.entrySet()) {
+            PunishmentType type = entry.getKey();
+            List<Punishment<?>> expired = entry.getValue();
+            long start = System.currentTimeMillis();
+            List<Punishment<?>> written = new ArrayList<>();
+            try {
+                BatchOperation<Punishment<?>> batch = getPunishmentRepo(type).batch();
+                expired.forEach(batch::update);
+                BatchOperationResult<Punishment<?>> result = batch.execute();
+                engine.getMetrics().recordOperation("expiry.write." + type.id(), System.currentTimeMillis() - start);
+                if(!result.errors().isEmpty()) {
+                    engine.getMetrics().recordError("expiry.write." + type.id());
+                    Cardinal.warn("Expired '%s' punishments written with %s errors: %s", type.id(), result.errors().size(), result.errors());
+                }
+
+                Set<Punishment<?>> unwritten = Collections.newSetFromMap(new IdentityHashMap<>());
+                unwritten.addAll(result.conflicts());
+                unwritten.addAll(result.failed());
+                for(Punishment<?> punishment : expired) {
+                    if(!unwritten.contains(punishment)) {
+                        written.add(punishment);
+                    }
+                }
+                for(Punishment<?> punishment : result.failed()) {
+                    failed.add(taskOf.get(punishment));
+                }
+                for(Punishment<?> conflicting : result.conflicts()) {
+                    saveConflicts.increment();
+                    try {
+                        saveMerging(conflicting, expire).ifPresent(written::add);
+                    } catch (StorageException e) {
+                        e.printStackTrace();
+                        failed.add(taskOf.get(conflicting));
+                    }
+                }
+            } catch (StorageException e) {
+                engine.getMetrics().recordError("expiry.write." + type.id());
+                Cardinal.warn("Failed to write %s expired '%s' punishments", expired.size(), type.id());
+                e.printStackTrace();
+                expired.forEach((punishment)-> failed.add(taskOf.get(punishment)));
+                continue;
+            }
+
+            if(statistics != null) {
+                written.forEach(statistics::recordDeactivated);
+            }
+            if(type == StandardPunishmentType.MUTE) {
+                Tasks.runSync(()-> {
+                    for(Punishment<?> punishment : written) {
+                        punishment.getTarget().sendMsg(Cardinal.getInstance().getMessagesConfig()
+                                .getMessage(MessageKeys.Punishments.Mute.EXPIRED, punishment.asTagResolver()));
+                    }
+                });
+            }
         }
+        return failed;
+    }
+
+    /**
+     * Stops the background tasks, writing out the pending expiry revocations and buffered saves.
+     */
+    public void shutdown() {
+        if(expiryScheduler != null) {
+            expiryScheduler.shutdown();
+        }
+        writeBehind.values().forEach(WriteBehindBuffer::close);
+        //last, the expiries and saves written above being counted
+        if(statistics != null) {
+            statistics.shutdown();
+        }
+    }
+
+    /**
+     * @return the per-player statistics, null if disabled.
+     */
+    @Nullable PunishmentStatisticsStore getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * @return the most-punished-players leaderboards, null if disabled.
+     */
+    @Nullable PunishmentLeaderboards getLeaderboards() {
+        return leaderboards;
+    }
+
+    /**
+     * Recomputes the statistics of every punished player from their punishments, repairing any drift.
+     */
+    public CompletableFuture<Void> rebuildStatistics() {
+        return statistics == null ? CompletableFuture.completedFuture(null) : statistics.rebuildAsync();
+    }
 
-        historyService = new StandardPunishmentHistoryService(this);
+    /**
+     * @return the punishment snapshots of the online players
+     */
+    public OnlinePunishmentStates getOnlineStates() {
+        return onlineStates;
     }
 
     public static PunishmentManager createNew(YamlDocument config) throws StorageException {
@@ -82,11 +601,22 @@ public class StandardPunishmentManager implements PunishmentManager {
 
     @Override
     public Repository<String, Punishment<?>> getPunishmentRepo(PunishmentType type) {
-        return engine.getRepositoryOrCreate(type.id(), PUNISHMENT_TYPE_WRAP);
+        if(sharedRepository == null) {
+            return engine.getRepositoryOrCreate(type.id(), PUNISHMENT_TYPE_WRAP);
+        }
+        return typeViews.computeIfAbsent(type, (key)-> new DiscriminatedRepository<>(
+                key.id(), sharedRepository, "type", key.name(), (punishment)-> punishment.getType().equals(key)
+        ));
     }
 
+    /**
+     * @return the shared repository in the single-table layout, a cross-type query being a single query there.
+     */
     @Override
     public Collection<? extends Repository<String, Punishment<?>>> getPunishmentRepositories() {
+        if(sharedRepository != null) {
+            return List.of(sharedRepository);
+        }
         return engine.getRepositories().stream().filter((repo)-> TypeUtility.areRelatedTypes(repo.getEntityType().getType(), PUNISHMENT_TYPE_WRAP.getType()))
                 .map((repo)-> (Repository<String, Punishment<?>>)repo)
                 .toList();
@@ -104,7 +634,7 @@ public class StandardPunishmentManager implements PunishmentManager {
      * @throws IllegalArgumentException if playerId, type, or reason is null
      */
     @Override
-    public synchronized <T> Punishment<T> createPunishment(
+    public <T> Punishment<T> createPunishment(
             PunishmentType type,
             Punishable<T> target,
             PunishmentIssuer issuer,
@@ -154,16 +684,44 @@ public class StandardPunishmentManager implements PunishmentManager {
     ) {
 
         //memory cache
-        updateActivePunishment(punishment);
+        targetLocks.runWithLock(punishment.getTarget().getTargetUUID(), ()-> {
+            bumpGeneration(punishment.getTarget().getTargetUUID());
+            if(negativeLookups != null && activePunishmentsPerID.getIfPresent(punishment.getId().getRepresentation()) == null) {
+                negativeLookups.add(punishment);
+            }
+            updateActivePunishment(punishment);
+        });
 
-        //db cache
-        CompletableFuture<Punishment<T>> future = CompletableFuture.supplyAsync(()-> {
-            var repo = getPunishmentRepo(punishment.getType());
+        //db cache, an override of a punishment lifted meanwhile is not re-applied.
+        boolean fresh = punishment.getVersion() == 0;
+        CompletableFuture<Punishment<T>> future = persist(punishment, (current)-> {
+            if(current.isRevoked()) {
+                return false;
+            }
+            current.setReason(punishment.getReason().orElse(null));
+            current.setDuration(punishment.getDuration());
+            return true;
+        }).thenApply((saved)-> {
+            //the lookups that read storage before the write landed may have missed it
+            if(negativeLookups != null) {
+                negativeLookups.invalidate(punishment);
+            }
+            UUID target = punishment.getTarget().getTargetUUID();
+            targetLocks.runWithLock(target, ()-> {
+                bumpGeneration(target);
+                //and so may a prefetch, which pinned the target without it
+                PunishmentsCache punishmentsOfType = activePunishments.getIfPresent(punishment.getType());
+                if(punishmentsOfType != null && punishmentsOfType.isPinned(target)
+                        && !punishment.isRevoked() && !punishment.hasExpired()) {
+                    punishmentsOfType.replacePunishment(target, punishment);
+                }
+            });
+            //saving another writer's copy means it was already there, and counted
+            if(statistics != null && fresh && saved.orElse(null) == punishment) {
+                statistics.recordApplied(punishment);
+            }
             try {
-                return (Punishment<T>) repo.save(punishment);
-            } catch (StorageException e) {
-                e.printStackTrace();
-                return punishment;
+                return (Punishment<T>) saved.orElse(punishment);
             } catch (ClassCastException ex) {
                 ex.printStackTrace();
                 return punishment;
@@ -188,19 +746,19 @@ public class StandardPunishmentManager implements PunishmentManager {
      */
     @Override
     public FutureOperation<Deque<Punishment<?>>> getActivePunishments(UUID playerId) {
-        return FutureOperation.of(CompletableFuture.supplyAsync(()-> {
-            StandardPunishmentType[] types = StandardPunishmentType.values();
-            Deque<Punishment<?>> collected = new ArrayDeque<>();
-            for(PunishmentType type : types) {
-                var punishmentsOfType = activePunishments.get(type, PunishmentsCache::new);
-                if(punishmentsOfType == null) {
-                    continue;
-                }
-                Deque<Punishment<?>> userPunishments = punishmentsOfType.getPunishments(playerId);
-                collected.addAll(userPunishments);
-            }
-            return collected;
-        }));
+        List<CompletableFuture<Deque<Punishment<?>>>> perType = new ArrayList<>();
+        for(PunishmentType type : StandardPunishmentType.values()) {
+            perType.add(getActivePunishments(playerId, type).unwrap());
+        }
+
+        return FutureOperation.of(
+                CompletableFuture.allOf(perType.toArray(new CompletableFuture[0]))
+                        .thenApply((ignored)-> {
+                            Deque<Punishment<?>> collected = new ArrayDeque<>();
+                            perType.forEach((future)-> collected.addAll(future.join()));
+                            return collected;
+                        })
+        );
     }
 
     /**
@@ -221,17 +779,31 @@ public class StandardPunishmentManager implements PunishmentManager {
      */
     @Override
     public FutureOperation<Deque<Punishment<?>>> getActivePunishments(UUID playerId, PunishmentType type) {
-        return FutureOperation.of(CompletableFuture.supplyAsync(()-> {
-            Deque<Punishment<?>> collected = new ArrayDeque<>();
-            var punishmentsOfType = activePunishments.get(type, PunishmentsCache::new);
-            if(punishmentsOfType == null) {
-                return collected;
-            }
-            Deque<Punishment<?>> userPunishments = punishmentsOfType.getPunishments(playerId);
-            collected.addAll(userPunishments);
+        var punishmentsOfType = activePunishments.get(type, PunishmentsCache::new);
+        Deque<Punishment<?>> userPunishments = punishmentsOfType == null ? null : punishmentsOfType.getPunishmentsIfPresent(playerId);
+        boolean pinned = punishmentsOfType != null && punishmentsOfType.isPinned(playerId);
+        ActivePunishmentIndex.Entry entry = warmLoadedTypes.contains(type) ? activeIndex.get(playerId, type) : null;
+
+        //several active punishments the index only knows one of, storage holds them all.
+        if(!pinned && entry != null && entry.shared()) {
+            return FutureOperation.of(CompletableFuture.supplyAsync(()-> new ArrayDeque<>(loadSharedEntry(type, playerId))));
+        }
 
-            return collected;
-        }));
+        if(userPunishments != null && !userPunishments.isEmpty()) {
+            return FutureOperation.completed(new ArrayDeque<>(userPunishments));
+        }
+
+        if(!warmLoadedTypes.contains(type)) {
+            return FutureOperation.completed(new ArrayDeque<>());
+        }
+
+        //materializes the indexed punishment if there is one.
+        return getActivePunishment(playerId, type)
+                .map((punishment)-> {
+                    Deque<Punishment<?>> collected = new ArrayDeque<>();
+                    punishment.ifPresent(collected::add);
+                    return collected;
+                });
     }
 
     /**
@@ -269,33 +841,87 @@ public class StandardPunishmentManager implements PunishmentManager {
             }
         }
 
-        return FutureOperation.of(
+        //prefetched at login, the cache holds every active punishment of this player.
+        if(punishmentsOfType != null && punishmentsOfType.isPinned(playerId)) {
+            return FutureOperation.completed(Optional.empty());
+        }
+
+        //the warm-loaded index holds every active punishment of this type.
+        if(warmLoadedTypes.contains(type)) {
+            ActivePunishmentIndex.Entry entry = activeIndex.get(playerId, type);
+            if(entry != null && entry.shared()) {
+                //the indexed punishment may be gone while others are still active, only storage knows them all.
+                return FutureOperation.of(CompletableFuture.supplyAsync(()-> {
+                    List<Punishment<?>> active = loadSharedEntry(type, playerId);
+                    return active.isEmpty() ? Optional.empty() : Optional.of(active.get(active.size() - 1));
+                }));
+            }
+            if(entry == null || !entry.isActive(System.currentTimeMillis())) {
+                return FutureOperation.completed(Optional.empty());
+            }
+            return materialize(entry);
+        }
+
+        if(negativeLookups != null && negativeLookups.isKnownClean(type, playerId)) {
+            return FutureOperation.completed(Optional.empty());
+        }
+
+        return FutureOperation.of(playerLookups.execute(new LookupKey(List.of(playerId), type), ()->
+                CompletableFuture.supplyAsync(()-> {
+                    Cardinal.log("Trying to fetch it from DB !!");
+                    //every non-revoked row is checked: the first one found may have expired while another is still active
+                    return queryActivePunishment(type, List.of(playerId));
+                })
+        ));
+    }
+
+    /**
+     * Loads every active punishment behind a shared index entry, keeps them in the materialized caches
+     * and resets the entry from them, so that it stops being shared once at most one of them is left.
+     * The entry is left alone if a punishment of the target was applied or removed meanwhile.
+     *
+     * @return the active punishments, oldest first.
+     */
+    private List<Punishment<?>> loadSharedEntry(PunishmentType type, UUID target) {
+        long generation = generationOf(target);
+        List<Punishment<?>> active = new ArrayList<>();
+        for(Punishment<?> punishment : queryActivePunishments(type, List.of(target))) {
+            if(!punishment.hasExpired()) {
+                active.add(punishment);
+            }
+        }
+        active.sort(Comparator.comparing(Punishment::getIssuedAt));
+
+        targetLocks.runWithLock(target, ()-> {
+            for(Punishment<?> punishment : active) {
+                updateActivePunishment(punishment);
+            }
+            if(generationOf(target) == generation) {
+                activeIndex.reset(target, type, active);
+            }
+        });
+        return active;
+    }
+
+    /**
+     * Loads the full punishment behind an index entry and keeps it in the materialized caches.
+     */
+    private FutureOperation<Optional<Punishment<?>>> materialize(ActivePunishmentIndex.Entry entry) {
+        return FutureOperation.of(materializations.execute(entry.punishmentId(), ()->
                 CompletableFuture.supplyAsync(()-> {
                     try {
-                        Cardinal.log("Trying to fetch it from DB !!");
-                        Optional<Punishment<?>> loadedActivePunishment = getPunishmentRepo(type).query()
-                                .where("target.type").eq("PLAYER")
-                                .and()
-                                .where("target.uuid").eq(playerId.toString())
-                                .and()
-                                .where("revoke-info").eq(null)
-                                .limit(1)
-                                .findFirst();
-
-                        loadedActivePunishment.map((loadedPunishment)-> {
-                            if(loadedPunishment.hasExpired() ) {
-                                return null;
-                            }
-                            return loadedPunishment;
-                        }).ifPresent(this::updateActivePunishment);
+                        Optional<Punishment<?>> loaded = getPunishmentRepo(entry.type()).findById(entry.punishmentId())
+                                .filter((punishment)-> !punishment.isRevoked() && !punishment.hasExpired());
 
-                        return loadedActivePunishment;
+                        loaded.ifPresentOrElse(this::updateActivePunishment,
+                                ()-> activeIndex.remove(entry.target(), entry.type(), entry.punishmentId()));
+                        return loaded;
                     } catch (StorageException e) {
                         e.printStackTrace();
                         throw new RuntimeException(e);
                     }
                 })
-        );
+        ));
     }
 
     /**
@@ -369,14 +995,8 @@ public class StandardPunishmentManager implements PunishmentManager {
      */
     @Override
     public FutureOperation<Optional<Punishment<?>>> getLastActivePunishment(UUID playerId, PunishmentType type) {
-        return FutureOperation.of(CompletableFuture.supplyAsync(()-> {
-            var punishmentsOfType = activePunishments.get(type, PunishmentsCache::new);
-            if(punishmentsOfType == null) {
-                return Optional.empty();
-            }
-            Deque<Punishment<?>> userPunishments = punishmentsOfType.getPunishments(playerId);
-            return Optional.ofNullable(userPunishments.peekLast());
-        }));
+        return getActivePunishments(playerId, type)
+                .map((userPunishments)-> Optional.ofNullable(userPunishments.peekLast()));
     }
 
     /**
@@ -421,48 +1041,141 @@ public class StandardPunishmentManager implements PunishmentManager {
     public FutureOperation<Boolean> revokePunishment(PunishmentID punishmentId, PunishmentIssuer revoker, String reason) {
 
         Punishment<?> punishment = activePunishmentsPerID.getIfPresent(punishmentId.getRepresentation());
+        Punishment.RevocationInfo revocationInfo = new StandardPunishment.StandardRevocationInfo(revoker,reason);
         if(punishment != null) {
-            punishment.revoke(new StandardPunishment.StandardRevocationInfo(revoker,reason));
+            targetLocks.runWithLock(punishment.getTarget().getTargetUUID(), ()-> {
+                punishment.revoke(revocationInfo);
+                if(activeIndex != null) {
+                    activeIndex.markRevoked(punishment.getTarget().getTargetUUID(), punishment.getType(), punishmentId.getRepresentation());
+                }
+            });
         }
 
-        return FutureOperation.of(CompletableFuture.supplyAsync(()-> {
+        if(punishment == null) {
+            return FutureOperation.of(CompletableFuture.completedFuture(false));
+        }
 
-            if(punishment == null) {
+        //already revoked by another writer: nothing left to revoke.
+        return FutureOperation.of(persist(punishment, (current)-> {
+            if(current.isRevoked()) {
                 return false;
             }
+            current.revoke(revocationInfo);
+            return true;
+        }).thenApply(Optional::isPresent))
+        .thenApply((revoked)-> {
+            if(revoked) {
+                removeActivePunishmentFromCache(punishment);
+                if(negativeLookups != null) {
+                    negativeLookups.remove(punishment);
+                }
+                if(statistics != null) {
+                    statistics.recordDeactivated(punishment);
+                }
+            }
+            return revoked;
+        });
+    }
 
-            PunishmentType type = punishment.getType();
+    /**
+     * Saves the punishment through the write-behind buffer of its type when enabled, the future completing once
+     * the batch holding it is written. Buffered saves are unconditional: the in-memory instance, which every
+     * write of this server goes through, is the one written. Otherwise saves with {@link #saveMerging}.
+     *
+     * @return the saved punishment, or empty if the change no longer applies or the save failed.
+     */
+    private CompletableFuture<Optional<Punishment<?>>> persist(Punishment<?> punishment, Predicate<Punishment<?>> change) {
+        WriteBehindBuffer<Punishment<?>> buffer = writeBehind.get(punishment.getType());
+        if(buffer != null) {
+            return buffer.enqueue(punishment).handle((saved, error)-> {
+                if(error != null) {
+                    error.printStackTrace();
+                    return Optional.empty();
+                }
+                return Optional.of(saved);
+            });
+        }
+
+        return CompletableFuture.supplyAsync(()-> {
             try {
-                return this.getPunishmentRepo(type).save(punishment) != null;
+                return saveMerging(punishment, change);
             } catch (StorageException e) {
                 e.printStackTrace();
-                return false;
+                return Optional.empty();
             } catch (Exception ex) {
                 ex.printStackTrace();
-                return false;
+                return Optional.empty();
             }
+        });
+    }
 
-        }))
-        .thenApply((revoked)-> {
-            if(revoked) {
-                removeActivePunishmentFromCache(punishment);
+    /**
+     * Saves the punishment only if no other writer saved it since it was read.
+     * On a conflict the change is re-applied onto the stored punishment, which is saved in turn
+     * and replaces the stale instance in memory; writers never wait for each other.
+     *
+     * @param change re-applies the caller's change onto the stored punishment,
+     *               returns false if it no longer applies (e.g. already revoked).
+     * @return the saved punishment, or empty if the change no longer applies or kept conflicting.
+     */
+    private Optional<Punishment<?>> saveMerging(Punishment<?> punishment, Predicate<Punishment<?>> change) throws StorageException {
+        Repository<String, Punishment<?>> repo = getPunishmentRepo(punishment.getType());
+        Punishment<?> attempt = punishment;
+        for(int i = 0; i < MAX_SAVE_ATTEMPTS; i++) {
+            SaveResult<Punishment<?>> result = repo.compareAndSave(attempt);
+            if(result instanceof SaveResult.Saved<Punishment<?>> saved) {
+                if(attempt != punishment) {
+                    syncActivePunishment(attempt);
+                }
+                return Optional.of(saved.entity());
+            }
+
+            saveConflicts.increment();
+            Punishment<?> current = ((SaveResult.Conflict<Punishment<?>>) result).current();
+            if(current == null) {
+                //deleted meanwhile
+                return Optional.empty();
+            }
+            if(!change.test(current)) {
+                syncActivePunishment(current);
+                return Optional.empty();
+            }
+            attempt = current;
+        }
+
+        Cardinal.warn("Gave up saving punishment '%s' after %d conflicting attempts", punishment.getId().getRepresentation(), MAX_SAVE_ATTEMPTS);
+        return Optional.empty();
+    }
+
+    /**
+     * Replaces the in-memory instance of a punishment with the stored one.
+     */
+    private void syncActivePunishment(Punishment<?> stored) {
+        targetLocks.runWithLock(stored.getTarget().getTargetUUID(), ()-> {
+            if(stored.isRevoked()) {
+                removeActivePunishmentFromCache(stored);
+            } else if(activePunishmentsPerID.getIfPresent(stored.getId().getRepresentation()) != null) {
+                updateActivePunishment(stored);
             }
-            return revoked;
         });
     }
 
     private void removeActivePunishmentFromCache(Punishment<?> punishment) {
+        bumpGeneration(punishment.getTarget().getTargetUUID());
 
         activePunishmentsPerID.invalidate(punishment.getId().getRepresentation());
+        if(expiryScheduler != null) {
+            expiryScheduler.cancel(punishment.getId().getRepresentation());
+        }
+        if(activeIndex != null) {
+            activeIndex.remove(punishment.getTarget().getTargetUUID(), punishment.getType(), punishment.getId().getRepresentation());
+        }
 
-        activePunishments.asMap().computeIfPresent(punishment.getType(),(t, oldCache)-> {
-            if(oldCache == null) {
-                return null;
-            }
-
-           oldCache.removePunishment(punishment.getTarget().getTargetUUID(), punishment);
-           return oldCache;
-        });
+        PunishmentsCache punishmentsOfType = activePunishments.getIfPresent(punishment.getType());
+        if(punishmentsOfType != null) {
+            punishmentsOfType.removePunishment(punishment.getTarget().getTargetUUID(), punishment);
+        }
+        onlineStates.onRemoved(punishment.getTarget().getTargetUUID(), punishment.getType(), punishment.getId().getRepresentation());
 
     }
 
@@ -479,41 +1192,42 @@ public class StandardPunishmentManager implements PunishmentManager {
     public FutureOperation<Boolean> updatePunishmentReason(PunishmentID punishmentId, PunishmentIssuer issuer, @NotNull String newReason) {
         return FutureOperation.of(CompletableFuture.supplyAsync(()-> {
 
-            Punishment<?> punishment = null;
-            Repository<String, Punishment<?>> punishmentRepository = null;
-            for(var repo : this.getPunishmentRepositories()) {
-                punishmentRepository = repo;
-
-                Optional<Punishment<?>> container = null;
-                try {
-                    container = punishmentRepository.findById(punishmentId.getRepresentation());
-                } catch (StorageException e) {
-                    e.printStackTrace();
-                    return false;
-                }
-                if(container.isEmpty()) {
-                    continue;
-                }
-                else {
-                    punishment = container.get();
-                    break;
+            //the cached instance is the one every other write goes through
+            Punishment<?> punishment = activePunishmentsPerID.getIfPresent(punishmentId.getRepresentation());
+            if(punishment == null) {
+                for(var repo : this.getPunishmentRepositories()) {
+                    Optional<Punishment<?>> container;
+                    try {
+                        container = repo.findById(punishmentId.getRepresentation());
+                    } catch (StorageException e) {
+                        e.printStackTrace();
+                        return null;
+                    }
+                    if(container.isPresent()) {
+                        punishment = container.get();
+                        break;
+                    }
                 }
             }
+            return punishment;
+        }).thenCompose((found)-> {
+            if(found == null) {
+                return CompletableFuture.completedFuture(false);
+            }
 
             //TODO save the revisions.
 
-            lock.lock();
-            updateActivePunishment(punishment);
-            lock.unlock();
-
-            punishment.setReason(newReason);
-            try {
-                punishmentRepository.save(punishment);
-            } catch (StorageException e) {
-                return false;
-            }
+            targetLocks.runWithLock(found.getTarget().getTargetUUID(), ()-> {
+                found.setReason(newReason);
+                if(!found.isRevoked()) {
+                    updateActivePunishment(found);
+                }
+            });
 
-            return true;
+            return persist(found, (current)-> {
+                current.setReason(newReason);
+                return true;
+            }).thenApply(Optional::isPresent);
         }));
     }
 
@@ -571,37 +1285,87 @@ public class StandardPunishmentManager implements PunishmentManager {
             throw new IllegalArgumentException("playerIds cannot contain null values");
         }
 
-        // Precompute punishment types to avoid repeated calls
-        Set<PunishmentType> punishmentTypes = activePunishments.asMap().keySet();
-
-        // Create a future for each player
-        List<CompletableFuture<AbstractMap.SimpleEntry<UUID, Deque<Punishment<?>>>>> playerFutures = playerIds.stream()
-                .map(playerId -> {
-                    // Create futures for all punishment types in parallel
-                    List<CompletableFuture<Deque<Punishment<?>>>> typeFutures = punishmentTypes.stream()
-                            .map(type -> getActivePunishments(playerId, type).unwrap())
-                            .collect(Collectors.toList());
-
-                    // Combine all punishment types for this player
-                    return CompletableFuture.allOf(typeFutures.toArray(new CompletableFuture[0]))
-                            .thenApply(ignored -> {
-                                Deque<Punishment<?>> combined = new ArrayDeque<>();
-                                typeFutures.forEach(future -> combined.addAll(future.join()));
-                                return new AbstractMap.SimpleEntry<>(playerId, combined);
-                            });
-                })
-                .collect(Collectors.toList());
+        List<UUID> players = List.copyOf(new LinkedHashSet<>(playerIds));
 
-        // Combine all player results
+        // One task per punishment type, each resolving all the players at once
+        List<CompletableFuture<Map<UUID, List<Punishment<?>>>>> typeFutures = new ArrayList<>();
+        for(PunishmentType type : StandardPunishmentType.values()) {
+            typeFutures.add(CompletableFuture.supplyAsync(()-> getBulkActivePunishments(players, type)));
+        }
+
+        // Merge the per-type results, in the order of the types
         CompletableFuture<Map<UUID, Deque<Punishment<?>>>> resultFuture = CompletableFuture.allOf(
-                        playerFutures.toArray(new CompletableFuture[0]))
-                .thenApply(ignored -> playerFutures.stream()
-                        .map(CompletableFuture::join)
-                        .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue))
-                );
+                        typeFutures.toArray(new CompletableFuture[0]))
+                .thenApply(ignored -> {
+                    Map<UUID, Deque<Punishment<?>>> merged = new LinkedHashMap<>();
+                    for(UUID player : players) {
+                        merged.put(player, new ArrayDeque<>());
+                    }
+                    for(CompletableFuture<Map<UUID, List<Punishment<?>>>> typeFuture : typeFutures) {
+                        typeFuture.join().forEach((player, found)-> merged.get(player).addAll(found));
+                    }
+                    return merged;
+                });
 
         return FutureOperation.of(resultFuture);
     }
+
+    /**
+     * Resolves the active punishments of the type for all players: from memory first, then the misses
+     * with one {@code IN} query per chunk of {@code cache.bulk-chunk-size} players.
+     */
+    private Map<UUID, List<Punishment<?>>> getBulkActivePunishments(List<UUID> players, PunishmentType type) {
+        Map<UUID, List<Punishment<?>>> found = new HashMap<>();
+        PunishmentsCache punishmentsOfType = activePunishments.getIfPresent(type);
+
+        List<UUID> misses = new ArrayList<>();
+        for(UUID player : players) {
+            Deque<Punishment<?>> cached = punishmentsOfType == null ? null : punishmentsOfType.getPunishmentsIfPresent(player);
+            if(cached != null && (!cached.isEmpty() || punishmentsOfType.isPinned(player))) {
+                for(Punishment<?> punishment : cached) {
+                    if(!punishment.isRevoked() && !punishment.hasExpired()) {
+                        found.computeIfAbsent(player, (k)-> new ArrayList<>()).add(punishment);
+                    }
+                }
+                continue;
+            }
+            // only the memory-worthy types are tracked as "active" in storage
+            if(type.isMemoryWorthy() && !isKnownClean(type, List.of(player))) {
+                misses.add(player);
+            }
+        }
+
+        long start = System.currentTimeMillis();
+        for(int from = 0; from < misses.size(); from += bulkChunkSize) {
+            List<UUID> chunk = misses.subList(from, Math.min(misses.size(), from + bulkChunkSize));
+            long[] generations = new long[chunk.size()];
+            for(int i = 0; i < chunk.size() && negativeLookups != null; i++) {
+                generations[i] = negativeLookups.generation(type, chunk.get(i));
+            }
+            Set<UUID> punished = new HashSet<>();
+            for(Punishment<?> punishment : queryActivePunishments(type, chunk)) {
+                if(punishment.hasExpired()) {
+                    continue;
+                }
+                UUID target = punishment.getTarget().getTargetUUID();
+                punished.add(target);
+                found.computeIfAbsent(target, (k)-> new ArrayList<>()).add(punishment);
+                updateActivePunishment(punishment);
+            }
+            if(negativeLookups != null) {
+                for(int i = 0; i < chunk.size(); i++) {
+                    UUID player = chunk.get(i);
+                    negativeLookups.recordDatabaseResult(type, player, punished.contains(player), generations[i]);
+                }
+            }
+        }
+        if(!misses.isEmpty()) {
+            engine.getMetrics().recordOperation("bulk-lookup." + type.id(), System.currentTimeMillis() - start);
+        }
+
+        found.values().forEach((punishments)-> punishments.sort(Comparator.comparing(Punishment::getIssuedAt)));
+        return found;
+    }
     /**
      * Revokes all active punishments of a specific type for a player.
      *
@@ -619,27 +1383,60 @@ public class StandardPunishmentManager implements PunishmentManager {
             UUID revoker,
             String reason
     ) {
-        Repository<String, Punishment<?>> punishmentRepo = engine.getRepositoryOrCreate(type.id(), PUNISHMENT_TYPE_WRAP);
-        return FutureOperation.of(
-                punishmentRepo.query()
-                .where("target")
-                .eq(playerId.toString())
-                .executeAsync()
-                .thenApplyAsync((punishments -> {
-                    int count = 0;
-                    for(Punishment<?> punishment : punishments) {
-
-                        boolean completedWithoutIssues =
-                                revokePunishment(punishment.getId(),
-                                        PunishmentIssuerFactory.fromUUID(revoker), reason).unwrap().join();
-
-                        if(completedWithoutIssues) {
-                            count++;
-                        }
+        Collection<? extends Repository<String, Punishment<?>>> repositories =
+                type == null ? getPunishmentRepositories() : List.of(getPunishmentRepo(type));
+        Punishment.RevocationInfo revocationInfo = new StandardPunishment.StandardRevocationInfo(PunishmentIssuerFactory.fromUUID(revoker), reason);
+        Predicate<Punishment<?>> revoke = (current)-> {
+            if(current.isRevoked()) {
+                return false;
+            }
+            current.revoke(revocationInfo);
+            return true;
+        };
+
+        //one transaction: either every active punishment of the player is revoked or none is.
+        return FutureOperation.of(engine.executeTransactionAsync(()-> {
+            List<Punishment<?>> revoked = new ArrayList<>();
+            for(Repository<String, Punishment<?>> repo : repositories) {
+                List<Punishment<?>> active = repo.query()
+                        .where("target.uuid").eq(playerId.toString())
+                        .and()
+                        .where("revoke-info").eq(null)
+                        .execute();
+
+                for(Punishment<?> stored : active) {
+                    if(stored.hasExpired() || !revoke.test(stored)) {
+                        continue;
                     }
-                    return count;
-                }))
-        );
+                    saveMerging(stored, revoke).ifPresent(revoked::add);
+                }
+            }
+            return revoked;
+        }))
+        .thenApply((revoked)-> {
+            //the caches only learn about the revocations once committed
+            for(Punishment<?> punishment : revoked) {
+                Punishment<?> cached = activePunishmentsPerID.getIfPresent(punishment.getId().getRepresentation());
+                targetLocks.runWithLock(punishment.getTarget().getTargetUUID(), ()-> {
+                    //a save still buffered for the cached instance must not undo the revocation
+                    if(cached != null && !cached.isRevoked()) {
+                        cached.revoke(revocationInfo);
+                    }
+                    removeActivePunishmentFromCache(punishment);
+                });
+                if(negativeLookups != null) {
+                    negativeLookups.remove(punishment);
+                }
+                if(statistics != null) {
+                    statistics.recordDeactivated(punishment);
+                }
+            }
+            return revoked.size();
+        })
+        .onErrorAndReturn((ex)-> {
+            ex.printStackTrace();
+            return 0;
+        });
     }
 
 
@@ -648,6 +1445,7 @@ public class StandardPunishmentManager implements PunishmentManager {
     @Override
     public FutureOperation<PunishmentScanResult> scan(@NotNull UUID uuid, @Nullable String ipAddress, PunishmentType punishmentType) {
 
+        long start = System.nanoTime();
         return getActivePunishment(uuid,punishmentType)
                 .thenCompose((punishmentContainer)-> {
 
@@ -660,6 +1458,7 @@ public class StandardPunishmentManager implements PunishmentManager {
 
                 })
                 .thenApply((punishmentContainer)-> {
+                    sequentialScanLatency.recordNanosSince(start);
                     if(punishmentContainer.isPresent()) {
                         return PunishmentScanResult.success(punishmentContainer.get());
                     }
@@ -671,6 +1470,284 @@ public class StandardPunishmentManager implements PunishmentManager {
                 });
     }
 
+    /**
+     * Settles the account and the IP address for every requested type at once.
+     * <p>
+     * Each type is answered from memory when possible (materialized cache, warm-loaded index, negative-lookup filters),
+     * the remaining types issue a single query each, matching both targets with {@code target.uuid IN (account, ip)}.
+     * Those queries run concurrently on the engine's query executor, so the scan takes about as long as the slowest one.
+     * An active punishment on the account takes precedence over one on the IP address.
+     */
+    @NotNull
+    @Override
+    public FutureOperation<Map<PunishmentType, PunishmentScanResult>> scan(
+            @NotNull UUID uuid,
+            @Nullable String ipAddress,
+            @NotNull Collection<? extends PunishmentType> punishmentTypes
+    ) {
+        long start = System.nanoTime();
+        List<UUID> targets = ipAddress == null ? List.of(uuid) : List.of(uuid, IPUtils.ipToUUID(ipAddress));
+
+        Map<PunishmentType, PunishmentScanResult> results = new ConcurrentHashMap<>();
+        List<CompletableFuture<Void>> pending = new ArrayList<>();
+        for(PunishmentType type : punishmentTypes) {
+            Optional<Punishment<?>> cached = findCachedActivePunishment(type, targets);
+            if(cached.isPresent()) {
+                results.put(type, PunishmentScanResult.success(cached.get()));
+                continue;
+            }
+            if(isKnownClean(type, targets)) {
+                results.put(type, PunishmentScanResult.failure());
+                continue;
+            }
+
+            pending.add(scanLookups.execute(new LookupKey(targets, type), ()-> CompletableFuture.supplyAsync(()-> queryActivePunishment(type, targets), engine.getQueryExecutor()))
+                    .handle((found, ex)-> {
+                        results.put(type, ex != null ? PunishmentScanResult.failure(ex)
+                                : found.map(PunishmentScanResult::success).orElseGet(PunishmentScanResult::failure));
+                        return null;
+                    }));
+        }
+
+        return FutureOperation.of(
+                CompletableFuture.allOf(pending.toArray(new CompletableFuture[0]))
+                        .thenApply((ignored)-> {
+                            combinedScanLatency.recordNanosSince(start);
+                            Map<PunishmentType, PunishmentScanResult> ordered = new LinkedHashMap<>();
+                            for(PunishmentType type : punishmentTypes) {
+                                ordered.put(type, results.get(type));
+                            }
+                            return ordered;
+                        })
+        );
+    }
+
+    private Optional<Punishment<?>> findCachedActivePunishment(PunishmentType type, List<UUID> targets) {
+        PunishmentsCache punishmentsOfType = activePunishments.getIfPresent(type);
+        if(punishmentsOfType == null) {
+            return Optional.empty();
+        }
+        for(UUID target : targets) {
+            Deque<Punishment<?>> userPunishments = punishmentsOfType.getPunishmentsIfPresent(target);
+            Punishment<?> punishment = userPunishments == null ? null : userPunishments.peekLast();
+            if(punishment == null) {
+                continue;
+            }
+            if(punishment.isRevoked() || punishment.hasExpired()) {
+                removeActivePunishmentFromCache(punishment);
+                continue;
+            }
+            return Optional.of(punishment);
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * @return true if memory proves that none of the targets has an active punishment of the type.
+     */
+    private boolean isKnownClean(PunishmentType type, List<UUID> targets) {
+        long now = System.currentTimeMillis();
+        PunishmentsCache punishmentsOfType = activePunishments.getIfPresent(type);
+        for(UUID target : targets) {
+            if(punishmentsOfType != null && punishmentsOfType.isPinned(target)) {
+                if(punishmentsOfType.hasActivePunishment(target)) {
+                    return false;
+                }
+            }
+            else if(warmLoadedTypes.contains(type)) {
+                ActivePunishmentIndex.Entry entry = activeIndex.get(target, type);
+                if(entry != null && (entry.shared() || entry.isActive(now))) {
+                    return false;
+                }
+            }
+            else if(negativeLookups == null || !negativeLookups.isKnownClean(type, target)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Optional<Punishment<?>> queryActivePunishment(PunishmentType type, List<UUID> targets) {
+        long[] generations = new long[targets.size()];
+        for(int i = 0; i < targets.size() && negativeLookups != null; i++) {
+            generations[i] = negativeLookups.generation(type, targets.get(i));
+        }
+        List<Punishment<?>> found = queryActivePunishments(type, targets);
+
+        Punishment<?> match = null;
+        for(int i = 0; i < targets.size(); i++) {
+            UUID target = targets.get(i);
+            for(Punishment<?> punishment : found) {
+                if(target.equals(punishment.getTarget().getTargetUUID()) && !punishment.hasExpired()) {
+                    match = punishment;
+                    break;
+                }
+            }
+            if(negativeLookups != null) {
+                negativeLookups.recordDatabaseResult(type, target, match != null && target.equals(match.getTarget().getTargetUUID()), generations[i]);
+            }
+            if(match != null) {
+                break;
+            }
+        }
+
+        if(match != null) {
+            updateActivePunishment(match);
+        }
+        return Optional.ofNullable(match);
+    }
+
+    /**
+     * @return every non-revoked punishment of the type held by any of the targets, in one query.
+     */
+    private List<Punishment<?>> queryActivePunishments(PunishmentType type, List<UUID> targets) {
+        List<Object> targetIds = new ArrayList<>(targets.size());
+        for(UUID target : targets) {
+            targetIds.add(target.toString());
+        }
+
+        try {
+            return getPunishmentRepo(type).query()
+                    .where("target.uuid").in(targetIds)
+                    .and()
+                    .where("revoke-info").eq(null)
+                    .execute();
+        } catch (StorageException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Loads every active punishment of every memory-worthy type held by the connecting player's account
+     * or IP, one concurrent query per type, and pins them in the caches until {@link #releasePrefetched(UUID)}.
+     * Afterwards the player's punishment lookups are answered from memory, including "not punished".
+     * <p>
+     * A type that fails to load is left unpinned, its lookups keep going to storage.
+     */
+    public FutureOperation<Void> prefetch(@NotNull UUID uuid, @Nullable String ipAddress) {
+        long start = System.nanoTime();
+        List<UUID> targets = ipAddress == null ? List.of(uuid) : List.of(uuid, IPUtils.ipToUUID(ipAddress));
+        List<PrefetchPin> pins = Collections.synchronizedList(new ArrayList<>());
+
+        List<CompletableFuture<Void>> pending = new ArrayList<>();
+        for(PunishmentType type : StandardPunishmentType.values()) {
+            PunishmentsCache punishmentsOfType = activePunishments.getIfPresent(type);
+            if(!type.isMemoryWorthy() || punishmentsOfType == null) {
+                continue;
+            }
+
+            long[] generations = new long[targets.size()];
+            for(int i = 0; i < targets.size(); i++) {
+                generations[i] = generationOf(targets.get(i));
+            }
+
+            if(isKnownClean(type, targets)) {
+                for(int i = 0; i < targets.size(); i++) {
+                    if(pinIfUnchanged(punishmentsOfType, targets.get(i), List.of(), generations[i])) {
+                        pins.add(new PrefetchPin(type, targets.get(i)));
+                    }
+                }
+                continue;
+            }
+
+            pending.add(CompletableFuture.runAsync(()-> {
+                Map<UUID, List<Punishment<?>>> perTarget = new HashMap<>();
+                for(UUID target : targets) {
+                    perTarget.put(target, new ArrayList<>());
+                }
+                for(Punishment<?> punishment : queryActivePunishments(type, targets)) {
+                    List<Punishment<?>> ofTarget = perTarget.get(punishment.getTarget().getTargetUUID());
+                    if(ofTarget != null && !punishment.hasExpired()) {
+                        ofTarget.add(punishment);
+                    }
+                }
+
+                for(int i = 0; i < targets.size(); i++) {
+                    UUID target = targets.get(i);
+                    List<Punishment<?>> active = perTarget.get(target);
+                    active.sort(Comparator.comparing(Punishment::getIssuedAt));
+                    if(!pinIfUnchanged(punishmentsOfType, target, active, generations[i])) {
+                        continue;
+                    }
+                    pins.add(new PrefetchPin(type, target));
+                    for(Punishment<?> punishment : active) {
+                        updateActivePunishment(punishment);
+                    }
+                }
+            }).exceptionally((ex)-> {
+                Cardinal.warn("Failed to prefetch the '%s' punishments of '%s'", type.id(), uuid);
+                ex.printStackTrace();
+                return null;
+            }));
+        }
+
+        return FutureOperation.of(
+                CompletableFuture.allOf(pending.toArray(new CompletableFuture[0]))
+                        .thenRun(()-> {
+                            List<PrefetchPin> previous = prefetchPins.put(uuid, List.copyOf(pins));
+                            if(previous != null) {
+                                unpin(previous);
+                            }
+                            prefetchLatency.recordNanosSince(start);
+                        })
+        );
+    }
+
+    /**
+     * Pins the snapshot of the target's active punishments read by a prefetch, unless one of its punishments was
+     * applied or removed since {@code generation} was read: the snapshot may predate it, so the target is left
+     * unpinned and its lookups keep going through the usual paths.
+     *
+     * @return whether the target was pinned.
+     */
+    private boolean pinIfUnchanged(PunishmentsCache punishmentsOfType, UUID target, List<Punishment<?>> active, long generation) {
+        return targetLocks.withLock(target, ()-> {
+            if(generationOf(target) != generation) {
+                return false;
+            }
+            punishmentsOfType.pin(target, active);
+            return true;
+        });
+    }
+
+    private long generationOf(UUID target) {
+        return targetGenerations.get((target.hashCode() & 0x7fffffff) % GENERATION_STRIPES);
+    }
+
+    private void bumpGeneration(UUID target) {
+        targetGenerations.incrementAndGet((target.hashCode() & 0x7fffffff) % GENERATION_STRIPES);
+    }
+
+    /**
+     * Releases the pins taken when the player was prefetched, letting their punishments be evicted again.
+     */
+    public void releasePrefetched(@NotNull UUID uuid) {
+        List<PrefetchPin> pins = prefetchPins.remove(uuid);
+        if(pins != null) {
+            unpin(pins);
+        }
+    }
+
+    /**
+     * Releases the prefetched players which are not in the given collection.
+     */
+    public void retainPrefetched(@NotNull Collection<UUID> onlinePlayers) {
+        for(UUID uuid : prefetchPins.keySet()) {
+            if(!onlinePlayers.contains(uuid)) {
+                releasePrefetched(uuid);
+            }
+        }
+    }
+
+    private void unpin(List<PrefetchPin> pins) {
+        for(PrefetchPin pin : pins) {
+            PunishmentsCache punishmentsOfType = activePunishments.getIfPresent(pin.type());
+            if(punishmentsOfType != null) {
+                punishmentsOfType.unpin(pin.target());
+            }
+        }
+    }
+
     @NotNull @Override
     public PunishmentHistoryService getHistoryService() {
         return historyService;
@@ -682,21 +1759,21 @@ public class StandardPunishmentManager implements PunishmentManager {
             return;
         }
         activePunishmentsPerID.put(punishment.getId().getRepresentation(), punishment);
+        if(activeIndex != null) {
+            activeIndex.put(punishment);
+        }
+        if(expiryScheduler != null && !punishment.isRevoked()) {
+            expiryScheduler.schedule(punishment);
+        }
+        onlineStates.onApplied(punishment);
         //update in the type
 
         UUID punishmentsOwner = punishment.getTarget().getTargetUUID();
 
-        //update
-        activePunishments.asMap().computeIfPresent(punishment.getType(), (type, oldCache) -> {
-            if(oldCache == null) {
-                oldCache = new PunishmentsCache(type);
-                oldCache.addPunishment(punishmentsOwner, punishment);
-                return oldCache;
-            }
-
-            oldCache.removePunishment(punishmentsOwner, punishment);
-            oldCache.addPunishment(punishmentsOwner, punishment);
-            return oldCache;
-        });
+        //update, atomic on the owner's entry only
+        PunishmentsCache punishmentsOfType = activePunishments.getIfPresent(punishment.getType());
+        if(punishmentsOfType != null) {
+            punishmentsOfType.replacePunishment(punishmentsOwner, punishment);
+        }
     }
 }
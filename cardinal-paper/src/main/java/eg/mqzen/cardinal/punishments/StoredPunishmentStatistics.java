@@ -0,0 +1,260 @@
+package eg.mqzen.cardinal.punishments;
+
+import eg.mqzen.cardinal.api.punishments.Punishment;
+import eg.mqzen.cardinal.api.punishments.PunishmentIssuer;
+import eg.mqzen.cardinal.api.punishments.PunishmentStatistics;
+import eg.mqzen.cardinal.api.punishments.PunishmentType;
+import eg.mqzen.cardinal.api.punishments.StandardPunishmentType;
+import eg.mqzen.cardinal.api.storage.VersionedEntity;
+import eg.mqzen.cardinal.punishments.issuer.PunishmentIssuerFactory;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * The persisted punishment statistics of a player, one document per player kept next to the punishments.
+ * Updated incrementally as punishments are applied, revoked and expired, so reading them takes a single lookup.
+ * <p>
+ * Every punishment counts once in {@link #total} and once in exactly one of {@link #active},
+ * {@link #expired} and {@link #revoked}; its state only moves out of active.
+ * Issuers are counted by their UUID, their last known name being kept aside.
+ * Revocations by staff are also counted per type, leaderboards leaving these punishments out.
+ */
+public final class StoredPunishmentStatistics implements VersionedEntity<String> {
+
+    static final String EXPIRED_REASON = "EXPIRED";
+
+    private static final UUID CONSOLE_UUID = new UUID(0, 0);
+
+    /**
+     * The lifecycle state of a punishment, as far as statistics go.
+     */
+    enum State {
+        ACTIVE, EXPIRED, REVOKED;
+
+        static State of(Punishment<?> punishment) {
+            Punishment.RevocationInfo revocation = punishment.getRevocationInfo().orElse(null);
+            if(revocation != null) {
+                return EXPIRED_REASON.equals(revocation.getReason()) ? EXPIRED : REVOKED;
+            }
+            return punishment.hasExpired() ? EXPIRED : ACTIVE;
+        }
+    }
+
+    private final String playerId;
+    private int total;
+    private int active;
+    private int expired;
+    private int revoked;
+    private int permanent;
+    private final Map<String, Integer> countByType;
+    private final Map<String, Integer> revokedByType;
+    private final Map<String, Integer> countByIssuer;
+    private final Map<String, String> issuerNames;
+    private long totalDurationMillis;
+    private long firstIssuedAt;
+    private long lastIssuedAt;
+    private long mostRecentActiveIssuedAt;
+    private long version;
+
+    public StoredPunishmentStatistics(@NotNull String playerId) {
+        this(playerId, new HashMap<>(), new HashMap<>(), new HashMap<>(), new HashMap<>());
+    }
+
+    /**
+     * Restores stored statistics, the maps are kept as given.
+     */
+    public StoredPunishmentStatistics(@NotNull String playerId, Map<String, Integer> countByType, Map<String, Integer> revokedByType,
+            Map<String, Integer> countByIssuer, Map<String, String> issuerNames) {
+        this.playerId = Objects.requireNonNull(playerId);
+        this.countByType = countByType;
+        this.revokedByType = revokedByType;
+        this.countByIssuer = countByIssuer;
+        this.issuerNames = issuerNames;
+    }
+
+    /**
+     * Restores the counters of stored statistics.
+     */
+    public void restoreCounts(int total, int active, int expired, int revoked, int permanent, long totalDurationMillis,
+            long firstIssuedAt, long lastIssuedAt, long mostRecentActiveIssuedAt) {
+        this.total = total;
+        this.active = active;
+        this.expired = expired;
+        this.revoked = revoked;
+        this.permanent = permanent;
+        this.totalDurationMillis = totalDurationMillis;
+        this.firstIssuedAt = firstIssuedAt;
+        this.lastIssuedAt = lastIssuedAt;
+        this.mostRecentActiveIssuedAt = mostRecentActiveIssuedAt;
+    }
+
+    @Override
+    public @NotNull String getEntityID() {
+        return playerId;
+    }
+
+    @Override
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    public String getPlayerId() { return playerId; }
+    public int getTotal() { return total; }
+    public int getActive() { return active; }
+    public int getExpired() { return expired; }
+    public int getRevoked() { return revoked; }
+    public int getPermanent() { return permanent; }
+    public Map<String, Integer> getCountByType() { return countByType; }
+    public Map<String, Integer> getRevokedByType() { return revokedByType; }
+    public Map<String, Integer> getCountByIssuer() { return countByIssuer; }
+    public Map<String, String> getIssuerNames() { return issuerNames; }
+    public long getTotalDurationMillis() { return totalDurationMillis; }
+    public long getFirstIssuedAt() { return firstIssuedAt; }
+    public long getLastIssuedAt() { return lastIssuedAt; }
+    public long getMostRecentActiveIssuedAt() { return mostRecentActiveIssuedAt; }
+
+    /**
+     * Counts a punishment of the player, in its current state.
+     */
+    void add(Punishment<?> punishment) {
+        total++;
+        countByType.merge(punishment.getType().name(), 1, Integer::sum);
+
+        PunishmentIssuer issuer = punishment.getIssuer();
+        String issuerId = issuer.getUniqueId().toString();
+        countByIssuer.merge(issuerId, 1, Integer::sum);
+        issuerNames.put(issuerId, issuer.getName());
+
+        //same rule as PunishmentStatistics.Builder#addPunishment, a zero duration being permanent
+        Duration duration = punishment.getDuration();
+        if(duration.isNegative() || duration.isZero()) {
+            permanent++;
+        } else {
+            totalDurationMillis += duration.toMillis();
+        }
+
+        long issuedAt = punishment.getIssuedAt().toEpochMilli();
+        if(firstIssuedAt == 0 || issuedAt < firstIssuedAt) {
+            firstIssuedAt = issuedAt;
+        }
+        lastIssuedAt = Math.max(lastIssuedAt, issuedAt);
+
+        switch (State.of(punishment)) {
+            case ACTIVE -> {
+                active++;
+                mostRecentActiveIssuedAt = Math.max(mostRecentActiveIssuedAt, issuedAt);
+            }
+            case EXPIRED -> expired++;
+            case REVOKED -> {
+                revoked++;
+                revokedByType.merge(punishment.getType().name(), 1, Integer::sum);
+            }
+        }
+    }
+
+    /**
+     * Moves a counted punishment out of the active state.
+     * The most recent active timestamp is only cleared once nothing is active anymore,
+     * the rebuild job restores it otherwise.
+     */
+    void deactivate(PunishmentType type, State to) {
+        if(to == State.ACTIVE) {
+            return;
+        }
+        active = Math.max(0, active - 1);
+        if(to == State.EXPIRED) {
+            expired++;
+        } else {
+            revoked++;
+            revokedByType.merge(type.name(), 1, Integer::sum);
+        }
+        if(active == 0) {
+            mostRecentActiveIssuedAt = 0;
+        }
+    }
+
+    /**
+     * @return whether both count the same punishments, regardless of the stored version.
+     */
+    boolean sameCounts(StoredPunishmentStatistics other) {
+        return total == other.total && active == other.active && expired == other.expired
+                && revoked == other.revoked && permanent == other.permanent
+                && totalDurationMillis == other.totalDurationMillis
+                && firstIssuedAt == other.firstIssuedAt && lastIssuedAt == other.lastIssuedAt
+                && mostRecentActiveIssuedAt == other.mostRecentActiveIssuedAt
+                && countByType.equals(other.countByType) && revokedByType.equals(other.revokedByType)
+                && countByIssuer.equals(other.countByIssuer);
+    }
+
+    /**
+     * @param type the punishment type, null for all types.
+     * @return the number of punishments of that type which weren't revoked by staff, the one leaderboards rank by.
+     */
+    int ranked(@Nullable PunishmentType type) {
+        if(type == null) {
+            return total - revokedByType.values().stream().mapToInt(Integer::intValue).sum();
+        }
+        return countByType.getOrDefault(type.name(), 0) - revokedByType.getOrDefault(type.name(), 0);
+    }
+
+    /**
+     * Takes the counts of other statistics of the same player, keeping this version.
+     */
+    void copyCounts(StoredPunishmentStatistics other) {
+        restoreCounts(other.total, other.active, other.expired, other.revoked, other.permanent, other.totalDurationMillis,
+                other.firstIssuedAt, other.lastIssuedAt, other.mostRecentActiveIssuedAt);
+        countByType.clear();
+        countByType.putAll(other.countByType);
+        revokedByType.clear();
+        revokedByType.putAll(other.revokedByType);
+        countByIssuer.clear();
+        countByIssuer.putAll(other.countByIssuer);
+        issuerNames.clear();
+        issuerNames.putAll(other.issuerNames);
+    }
+
+    PunishmentStatistics toStatistics() {
+        PunishmentStatistics.Builder builder = PunishmentStatistics.builder(UUID.fromString(playerId))
+                .totalCount(total)
+                .activeCount(active)
+                .expiredCount(expired)
+                .revokedCount(revoked)
+                .permanentCount(permanent)
+                .totalDuration(Duration.ofMillis(totalDurationMillis));
+
+        Map<PunishmentType, Integer> byType = new HashMap<>();
+        countByType.forEach((type, count)-> byType.put(StandardPunishmentType.valueOf(type), count));
+        builder.countByType(byType);
+
+        Map<PunishmentIssuer, Integer> byIssuer = new HashMap<>();
+        countByIssuer.forEach((issuerId, count)-> {
+            UUID uuid = UUID.fromString(issuerId);
+            PunishmentIssuer issuer = uuid.equals(CONSOLE_UUID)
+                    ? PunishmentIssuerFactory.fromConsole()
+                    : PunishmentIssuerFactory.fromPlayerInfo(uuid, issuerNames.getOrDefault(issuerId, issuerId));
+            byIssuer.put(issuer, count);
+        });
+        builder.countByIssuer(byIssuer);
+
+        if(total > 0) {
+            builder.firstPunishment(Instant.ofEpochMilli(firstIssuedAt))
+                    .lastPunishment(Instant.ofEpochMilli(lastIssuedAt));
+        }
+        if(mostRecentActiveIssuedAt > 0) {
+            builder.mostRecentActive(Instant.ofEpochMilli(mostRecentActiveIssuedAt));
+        }
+        return builder.build();
+    }
+}
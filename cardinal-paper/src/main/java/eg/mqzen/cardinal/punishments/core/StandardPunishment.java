@@ -44,6 +44,8 @@ public final class StandardPunishment<T> implements Punishment<T> {
 
     private RevocationInfo revocationInfo;
 
+    private volatile long version;
+
     public StandardPunishment(
             @NotNull PunishmentID id,
             @NotNull PunishmentType type,
@@ -334,6 +336,21 @@ public final class StandardPunishment<T> implements Punishment<T> {
         this.revocationInfo = revocationInfo;
     }
 
+    /**
+     * Returns the version of the stored punishment this instance reflects.
+     *
+     * @return the version, 0 if never saved
+     */
+    @Override
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
     @Override
     public void setDuration(Duration duration) {
         this.duration = duration;
@@ -0,0 +1,298 @@
+package eg.mqzen.cardinal.storage;
+
+import eg.mqzen.cardinal.api.storage.BatchOperation;
+import eg.mqzen.cardinal.api.storage.DBEntity;
+import eg.mqzen.cardinal.api.storage.Page;
+import eg.mqzen.cardinal.api.storage.QueryBuilder;
+import eg.mqzen.cardinal.api.storage.Repository;
+import eg.mqzen.cardinal.api.storage.SaveResult;
+import eg.mqzen.cardinal.api.storage.StorageException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import studio.mevera.imperat.util.TypeWrap;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * A view of the entities of a shared repository whose discriminator field holds a given value,
+ * e.g. the bans of a single table holding every punishment type.
+ * Queries are the shared repository's, restricted by the (indexed) discriminator;
+ * writes go straight to the shared repository, the discriminator being part of the entity itself.
+ *
+ * @param <ID> the id type.
+ * @param <T> the entity type.
+ */
+public final class DiscriminatedRepository<ID, T extends DBEntity<ID>> implements Repository<ID, T> {
+
+    private final String name;
+    private final Repository<ID, T> shared;
+    private final String discriminatorField;
+    private final Object discriminator;
+    private final Predicate<T> belongs;
+
+    /**
+     * @param discriminatorField the stored field telling the entities apart.
+     * @param discriminator      the value of that field for the entities of this view.
+     * @param belongs            whether an entity belongs to this view, the in-memory counterpart of the field.
+     */
+    public DiscriminatedRepository(String name, Repository<ID, T> shared, String discriminatorField, Object discriminator,
+            Predicate<T> belongs) {
+        this.name = name;
+        this.shared = shared;
+        this.discriminatorField = discriminatorField;
+        this.discriminator = discriminator;
+        this.belongs = belongs;
+    }
+
+    public Repository<ID, T> getShared() {
+        return shared;
+    }
+
+    @NotNull
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public T save(T entity) throws StorageException {
+        return shared.save(entity);
+    }
+
+    @Override
+    public SaveResult<T> compareAndSave(T entity) throws StorageException {
+        return shared.compareAndSave(entity);
+    }
+
+    @Override
+    public List<T> saveAll(List<T> entities) throws StorageException {
+        return shared.saveAll(entities);
+    }
+
+    @Override
+    public Optional<T> findById(ID id) throws StorageException {
+        return shared.findById(id).filter(belongs);
+    }
+
+    @Override
+    public List<T> findAll() throws StorageException {
+        return query().execute();
+    }
+
+    @Override
+    public void deleteById(ID id) throws StorageException {
+        if (findById(id).isPresent()) {
+            shared.deleteById(id);
+        }
+    }
+
+    @Override
+    public void delete(T entity) throws StorageException {
+        shared.delete(entity);
+    }
+
+    @Override
+    public void deleteAll(List<T> entities) throws StorageException {
+        shared.deleteAll(entities);
+    }
+
+    @Override
+    public boolean existsById(ID id) throws StorageException {
+        return findById(id).isPresent();
+    }
+
+    @Override
+    public long count() throws StorageException {
+        return query().count();
+    }
+
+    @Override
+    public CompletableFuture<T> saveAsync(T entity) {
+        return shared.saveAsync(entity);
+    }
+
+    @Override
+    public CompletableFuture<Optional<T>> findByIdAsync(ID id) {
+        return shared.findByIdAsync(id).thenApply((found)-> found.filter(belongs));
+    }
+
+    @Override
+    public CompletableFuture<List<T>> findAllAsync() {
+        return query().executeAsync();
+    }
+
+    /**
+     * The discriminator condition comes first, the caller's conditions being AND-ed to it.
+     * Conditions can't be grouped, so {@link QueryBuilder#or()} is rejected: {@code type = ? AND a OR b}
+     * would read the entities of other views through this one.
+     */
+    @Override
+    public QueryBuilder<T> query() {
+        return new DiscriminatedQuery<>(shared.query().where(discriminatorField).eq(discriminator), name);
+    }
+
+    @Override
+    public BatchOperation<T> batch() {
+        return shared.batch();
+    }
+
+    @Override
+    public TypeWrap<T> getEntityType() {
+        return shared.getEntityType();
+    }
+
+    /**
+     * The shared repository's query, already restricted by the discriminator, minus {@link #or()}.
+     */
+    private static final class DiscriminatedQuery<T> implements QueryBuilder<T> {
+
+        private final QueryBuilder<T> query;
+        private final String view;
+
+        private DiscriminatedQuery(QueryBuilder<T> query, String view) {
+            this.query = query;
+            this.view = view;
+        }
+
+        @Override
+        public QueryBuilder<T> where(String field) {
+            query.where(field);
+            return this;
+        }
+
+        @Override
+        public QueryBuilder<T> eq(Object value) {
+            query.eq(value);
+            return this;
+        }
+
+        @Override
+        public QueryBuilder<T> ne(Object value) {
+            query.ne(value);
+            return this;
+        }
+
+        @Override
+        public QueryBuilder<T> gt(Object value) {
+            query.gt(value);
+            return this;
+        }
+
+        @Override
+        public QueryBuilder<T> gte(Object value) {
+            query.gte(value);
+            return this;
+        }
+
+        @Override
+        public QueryBuilder<T> lt(Object value) {
+            query.lt(value);
+            return this;
+        }
+
+        @Override
+        public QueryBuilder<T> lte(Object value) {
+            query.lte(value);
+            return this;
+        }
+
+        @Override
+        public QueryBuilder<T> in(List<Object> values) {
+            query.in(values);
+            return this;
+        }
+
+        @Override
+        public QueryBuilder<T> like(String pattern) {
+            query.like(pattern);
+            return this;
+        }
+
+        @Override
+        public QueryBuilder<T> and() {
+            query.and();
+            return this;
+        }
+
+        @Override
+        public QueryBuilder<T> or() {
+            throw new UnsupportedOperationException("OR conditions would escape the discriminator of '" + view
+                    + "', query the shared repository instead");
+        }
+
+        @Override
+        public QueryBuilder<T> not() {
+            query.not();
+            return this;
+        }
+
+        @Override
+        public QueryBuilder<T> sortBy(Class<?> sortEntityTypeClass, String field, SortOrder order) {
+            query.sortBy(sortEntityTypeClass, field, order);
+            return this;
+        }
+
+        @Override
+        public QueryBuilder<T> limit(int limit) {
+            query.limit(limit);
+            return this;
+        }
+
+        @Override
+        public QueryBuilder<T> skip(int skip) {
+            query.skip(skip);
+            return this;
+        }
+
+        @Override
+        public QueryBuilder<T> after(@Nullable String cursor) {
+            query.after(cursor);
+            return this;
+        }
+
+        @Override
+        public Page<T> page(int size) throws StorageException {
+            return query.page(size);
+        }
+
+        @Override
+        public CompletableFuture<Page<T>> pageAsync(int size) {
+            return query.pageAsync(size);
+        }
+
+        @Override
+        public List<T> execute() throws StorageException {
+            return query.execute();
+        }
+
+        @Override
+        public CompletableFuture<List<T>> executeAsync() {
+            return query.executeAsync();
+        }
+
+        @Override
+        public Stream<T> stream(int batchSize) throws StorageException {
+            return query.stream(batchSize);
+        }
+
+        @Override
+        public void forEach(int batchSize, Consumer<? super T> consumer) throws StorageException {
+            query.forEach(batchSize, consumer);
+        }
+
+        @Override
+        public Optional<T> findFirst() throws StorageException {
+            return query.findFirst();
+        }
+
+        @Override
+        public long count() throws StorageException {
+            return query.count();
+        }
+    }
+}
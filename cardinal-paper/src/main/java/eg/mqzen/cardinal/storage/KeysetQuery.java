@@ -0,0 +1,42 @@
+package eg.mqzen.cardinal.storage;
+
+import eg.mqzen.cardinal.api.storage.Page;
+import eg.mqzen.cardinal.api.storage.QueryBuilder;
+import eg.mqzen.cardinal.api.storage.StorageException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A query able to seek past a {@link PageCursor}, exposing the cursor of every row it reads
+ * so {@link MultiRepositoryQueryBuilder} can merge the pages of several repositories.
+ */
+public interface KeysetQuery<T> {
+
+    record Row<T>(T entity, PageCursor cursor) {}
+
+    /**
+     * @return up to {@code limit} rows past the cursor, in the order of the sort field then the id.
+     */
+    List<Row<T>> seek(int limit) throws StorageException;
+
+    /**
+     * @return the sort order of the key, used to merge rows of several queries.
+     * @throws IllegalStateException if no sort field was set.
+     */
+    QueryBuilder.SortOrder keyOrder();
+
+    /**
+     * Turns the rows of {@link #seek(int)} called with {@code size + 1} into a page,
+     * the extra row only telling whether a next page exists.
+     */
+    static <T> Page<T> toPage(List<Row<T>> rows, int size) {
+        int count = Math.min(rows.size(), size);
+        List<T> items = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            items.add(rows.get(i).entity());
+        }
+        String next = rows.size() > size && count > 0 ? rows.get(count - 1).cursor().encode() : null;
+        return new Page<>(items, next);
+    }
+}
@@ -1,23 +1,61 @@
 package eg.mqzen.cardinal.storage;
 
+import eg.mqzen.cardinal.Cardinal;
 import eg.mqzen.cardinal.api.storage.DBEntity;
+import eg.mqzen.cardinal.api.storage.Page;
 import eg.mqzen.cardinal.api.storage.QueryBuilder;
 import eg.mqzen.cardinal.api.storage.Repository;
 import eg.mqzen.cardinal.api.storage.StorageException;
 import eg.mqzen.cardinal.api.storage.StorageMetrics;
-
+import eg.mqzen.cardinal.api.storage.UncheckedStorageException;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.PriorityQueue;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
-import java.util.stream.Collectors;
-
+import java.util.stream.Stream;
+
+/**
+ * Queries every repository of an entity type as one.
+ * {@link #execute()}, {@link #count()} and {@link #page(int)} query the repositories concurrently on the engine's
+ * fan-out executor, so they take as long as the slowest repository rather than the sum of them,
+ * each repository being given up on after the fan-out timeout (its query still runs to completion on the executor).
+ * The fan-out threads don't join a transaction running on the calling thread.
+ */
 public final class MultiRepositoryQueryBuilder<T extends DBEntity<?>> implements QueryBuilder<T> {
 
+    public static final Duration DEFAULT_REPOSITORY_TIMEOUT = Duration.ofSeconds(10);
+    public static final int MAX_FAN_OUT_THREADS = 8;
+
+    private static final Map<String, MethodHandle> SORT_KEY_GETTERS = new ConcurrentHashMap<>();
+
     private final List<Repository<?, T>> repositories;
     private final StorageMetrics metrics;
+    private final Executor fanOutExecutor;
+    private final Duration repositoryTimeout;
     private final List<QueryBuilder<T>> builders;
+    private volatile Map<String, Throwable> lastFailures = Map.of();
 
     private final List<Function<QueryBuilder<T>, QueryBuilder<T>>> operations = new ArrayList<>();
     private QueryBuilder.SortOrder sortOrder;
@@ -27,12 +65,24 @@ public final class MultiRepositoryQueryBuilder<T extends DBEntity<?>> implements
 
     private Class<?> sortEntityTypeClass = null;
 
+    //results of the repositories that answered, errors of those that failed or timed out (by name)
+    private record FanOut<R>(List<R> results, Map<String, Throwable> failures) { }
+
+    @FunctionalInterface
+    private interface RepositoryQuery<T, R> {
+        R run(QueryBuilder<T> builder) throws StorageException;
+    }
+
     public MultiRepositoryQueryBuilder(
             List<Repository<?, T>> repositories,
-            StorageMetrics metrics
+            StorageMetrics metrics,
+            Executor fanOutExecutor,
+            Duration repositoryTimeout
     ) {
         this.repositories = repositories;
         this.metrics = metrics;
+        this.fanOutExecutor = fanOutExecutor;
+        this.repositoryTimeout = repositoryTimeout;
         this.builders = new ArrayList<>();
 
         for (Repository<?, T> repo : repositories) {
@@ -40,6 +90,97 @@ public final class MultiRepositoryQueryBuilder<T extends DBEntity<?>> implements
         }
     }
 
+    /**
+     * Creates the bounded executor an engine hands to its cross-repository queries.
+     *
+     * @param threads the maximum number of repositories queried at once.
+     */
+    public static ExecutorService newFanOutExecutor(int threads) {
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newFixedThreadPool(Math.max(1, threads), (runnable)-> {
+            Thread thread = new Thread(runnable, "Cardinal-Query-Fan-Out-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return the repositories (by name) that failed or timed out during the last {@link #execute()},
+     * whose results are missing from it.
+     */
+    public Map<String, Throwable> getLastFailures() {
+        return lastFailures;
+    }
+
+    private QueryBuilder<T> rebuild(Repository<?, T> repo) {
+        QueryBuilder<T> builder = repo.query();
+        // Reapply all operations
+        for (Function<QueryBuilder<T>, QueryBuilder<T>> op : operations) {
+            builder = op.apply(builder);
+        }
+        return builder;
+    }
+
+    /**
+     * Runs the query against every repository at once, waiting at most the repository timeout for each.
+     * A single repository is queried on the calling thread.
+     */
+    private <R> FanOut<R> fanOut(RepositoryQuery<T, R> query) {
+        if (repositories.size() == 1) {
+            Repository<?, T> repo = repositories.get(0);
+            try {
+                return new FanOut<>(List.of(query.run(rebuild(repo))), Map.of());
+            } catch (StorageException | RuntimeException e) {
+                return new FanOut<>(List.of(), Map.of(repo.getName(), e));
+            }
+        }
+
+        Map<String, CompletableFuture<R>> futures = new LinkedHashMap<>();
+        for (Repository<?, T> repo : repositories) {
+            CompletableFuture<R> future;
+            try {
+                future = CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return query.run(rebuild(repo));
+                    } catch (StorageException e) {
+                        throw new UncheckedStorageException(e);
+                    }
+                }, fanOutExecutor);
+            } catch (RejectedExecutionException e) {
+                future = CompletableFuture.failedFuture(e);
+            }
+            futures.put(repo.getName(), future.orTimeout(repositoryTimeout.toMillis(), TimeUnit.MILLISECONDS));
+        }
+
+        List<R> results = new ArrayList<>(futures.size());
+        Map<String, Throwable> failures = new LinkedHashMap<>();
+        futures.forEach((name, future) -> {
+            try {
+                results.add(future.join());
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause();
+                failures.put(name, cause instanceof UncheckedStorageException unchecked ? unchecked.getCause() : cause);
+            }
+        });
+        return new FanOut<>(results, failures);
+    }
+
+    /**
+     * Fails the operation unless every repository answered, for results that are wrong when partial.
+     */
+    private static <R> List<R> requireAll(FanOut<R> fanOut, String operation) throws StorageException {
+        if (fanOut.failures().isEmpty()) {
+            return fanOut.results();
+        }
+
+        StorageException exception = new StorageException(
+                operation + " failed for repositories " + fanOut.failures().keySet(),
+                fanOut.failures().values().iterator().next()
+        );
+        fanOut.failures().values().stream().skip(1).forEach(exception::addSuppressed);
+        throw exception;
+    }
+
     private void applyOperation(Function<QueryBuilder<T>, QueryBuilder<T>> operation) {
         operations.add(operation);
         for (QueryBuilder<T> builder : builders) {
@@ -141,23 +282,82 @@ public final class MultiRepositoryQueryBuilder<T extends DBEntity<?>> implements
         return this;
     }
 
+    @Override
+    public QueryBuilder<T> after(@Nullable String cursor) {
+        //validated once here rather than by every repository's builder
+        PageCursor.decode(cursor);
+        applyOperation(b -> b.after(cursor));
+        return this;
+    }
+
+    /**
+     * Seeks {@code size + 1} rows past the cursor in every repository and keeps the first ones of their merge,
+     * so each repository reads at most one page whatever the depth.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public Page<T> page(int size) throws StorageException {
+        if (size < 1) {
+            throw new IllegalArgumentException("Page size must be positive, got " + size);
+        }
+        if (sortField == null || sortOrder == null) {
+            throw new IllegalStateException("Keyset pagination requires a sort field");
+        }
+
+        try {
+            long startTime = System.currentTimeMillis();
+            //a page missing a repository would skip its rows for good, as the cursor moves past them
+            List<List<KeysetQuery.Row<T>>> seeks = requireAll(fanOut((builder) -> {
+                if (!(builder instanceof KeysetQuery<?> keyset)) {
+                    throw new IllegalStateException("Repository query " + builder.getClass().getSimpleName() + " doesn't support keyset pagination");
+                }
+                return ((KeysetQuery<T>) keyset).seek(size + 1);
+            }), "Page query");
+
+            List<KeysetQuery.Row<T>> rows = new ArrayList<>();
+            for (List<KeysetQuery.Row<T>> seek : seeks) {
+                rows.addAll(seek);
+            }
+            rows.sort(Comparator.comparing(KeysetQuery.Row::cursor, PageCursor.comparator(sortOrder)));
+            Page<T> page = KeysetQuery.toPage(rows, size);
+
+            metrics.recordOperation("multi-page", System.currentTimeMillis() - startTime);
+            return page;
+        } catch (StorageException e) {
+            metrics.recordError("multi-page");
+            throw e;
+        }
+    }
+
+    @Override
+    public CompletableFuture<Page<T>> pageAsync(int size) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return page(size);
+            } catch (StorageException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
     @Override
     public List<T> execute() throws StorageException {
         try {
             long startTime = System.currentTimeMillis();
-            List<T> results = new ArrayList<>();
+            FanOut<List<T>> fanOut = fanOut((builder) -> pushDownLimit(builder).execute());
+            lastFailures = fanOut.failures().isEmpty() ? Map.of() : Collections.unmodifiableMap(fanOut.failures());
 
-            for (Repository<?, T> repo : repositories) {
-                QueryBuilder<T> builder = repo.query();
-                // Reapply all operations
-                for (Function<QueryBuilder<T>, QueryBuilder<T>> op : operations) {
-                    builder = op.apply(builder);
+            if (!fanOut.failures().isEmpty()) {
+                if (fanOut.results().isEmpty()) {
+                    requireAll(fanOut, "Multi-repository query");
                 }
-                results.addAll(builder.execute());
+                //the repositories that answered are still worth returning
+                metrics.recordError("multi-query.partial");
+                fanOut.failures().forEach((name, error) ->
+                        Cardinal.warn("Repository '%s' left out of a multi-repository query: %s", name, error));
             }
 
-            // Apply global sorting and limiting
-            results = applyGlobalSortAndLimit(results);
+            List<T> results = mergeSorted(fanOut.results());
 
             metrics.recordOperation("multi-query", System.currentTimeMillis() - startTime);
             return results;
@@ -167,6 +367,34 @@ public final class MultiRepositoryQueryBuilder<T extends DBEntity<?>> implements
         }
     }
 
+    /**
+     * Streams the results of each repository in turn, a repository's cursor being opened only once
+     * the previous one is exhausted. Results aren't merged by the sort field across repositories.
+     */
+    @Override
+    public Stream<T> stream(int batchSize) throws StorageException {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive, got " + batchSize);
+        }
+
+        Stream<T> results = repositories.stream().flatMap(repo -> {
+            try {
+                return rebuild(repo).stream(batchSize);
+            } catch (StorageException e) {
+                metrics.recordError("multi-stream");
+                throw new UncheckedStorageException(e);
+            }
+        });
+
+        if (skipValue > 0) {
+            results = results.skip(skipValue);
+        }
+        if (limitValue > 0) {
+            results = results.limit(limitValue);
+        }
+        return results;
+    }
+
     @Override
     public CompletableFuture<List<T>> executeAsync() {
         return CompletableFuture.supplyAsync(() -> {
@@ -186,49 +414,110 @@ public final class MultiRepositoryQueryBuilder<T extends DBEntity<?>> implements
 
     @Override
     public long count() throws StorageException {
-        long total = 0;
-        for (Repository<?, T> repo : repositories) {
-            QueryBuilder<T> builder = repo.query();
-            // Reapply all operations
-            for (Function<QueryBuilder<T>, QueryBuilder<T>> op : operations) {
-                builder = op.apply(builder);
+        try {
+            long startTime = System.currentTimeMillis();
+            long total = 0;
+            for (long count : requireAll(fanOut(QueryBuilder::count), "Count query")) {
+                total += count;
             }
-            total += builder.count();
+            metrics.recordOperation("multi-count", System.currentTimeMillis() - startTime);
+            return total;
+        } catch (StorageException e) {
+            metrics.recordError("multi-count");
+            throw e;
         }
-        return total;
     }
 
-    private List<T> applyGlobalSortAndLimit(List<T> results) {
-        // Apply sorting if specified
-        if (sortField != null && sortOrder != null) {
-            results.sort((a, b) -> {
-                try {
-                    java.lang.reflect.Field field = sortEntityTypeClass.getDeclaredField(sortField);
-                    field.setAccessible(true);
-                    Comparable valA = (Comparable) field.get(a);
-                    Comparable valB = (Comparable) field.get(b);
-
-                    if (valA == null && valB == null) return 0;
-                    if (valA == null) return sortOrder == SortOrder.ASC ? -1 : 1;
-                    if (valB == null) return sortOrder == SortOrder.ASC ? 1 : -1;
-
-                    int comparison = valA.compareTo(valB);
-                    return sortOrder == SortOrder.ASC ? comparison : -comparison;
-                } catch (Exception e) {
-                    throw new RuntimeException("Failed to sort results", e);
+    /**
+     * Each repository is asked for its first {@code skip + limit} results, the only ones that can make it
+     * past the global skip and limit.
+     */
+    private QueryBuilder<T> pushDownLimit(QueryBuilder<T> builder) {
+        if (limitValue > 0) {
+            builder.limit((int) Math.min(Integer.MAX_VALUE, (long) skipValue + limitValue));
+        }
+        return builder;
+    }
+
+    /**
+     * Merges the per-repository results, each already sorted by its repository, with a k-way merge
+     * that stops as soon as {@code skip + limit} results were taken.
+     */
+    private List<T> mergeSorted(List<List<T>> perRepository) {
+        long wanted = limitValue > 0 ? (long) skipValue + limitValue : Long.MAX_VALUE;
+        List<T> merged = new ArrayList<>();
+
+        if (sortField == null || sortOrder == null) {
+            for (List<T> results : perRepository) {
+                for (T entity : results) {
+                    if (merged.size() >= wanted) break;
+                    merged.add(entity);
                 }
-            });
+            }
+            return skip(merged);
         }
 
-        // Apply skip and limit
-        if (skipValue > 0) {
-            results = results.stream().skip(skipValue).collect(Collectors.toList());
+        MethodHandle getter = sortKeyGetter(sortEntityTypeClass, sortField);
+        Comparator<Comparable<Object>> keyOrder = Comparator.nullsFirst(Comparator.<Comparable<Object>>naturalOrder());
+        Comparator<Head<T>> headOrder = Comparator.comparing(Head::key, sortOrder == SortOrder.ASC ? keyOrder : keyOrder.reversed());
+
+        PriorityQueue<Head<T>> heads = new PriorityQueue<>(Math.max(1, perRepository.size()), headOrder);
+        for (List<T> results : perRepository) {
+            Iterator<T> iterator = results.iterator();
+            if (iterator.hasNext()) {
+                T first = iterator.next();
+                heads.add(new Head<>(first, sortKey(getter, first), iterator));
+            }
         }
-        if (limitValue > 0 && results.size() > limitValue) {
-            results = results.subList(0, limitValue);
+
+        while (!heads.isEmpty() && merged.size() < wanted) {
+            Head<T> head = heads.poll();
+            merged.add(head.entity());
+            if (head.rest().hasNext()) {
+                T next = head.rest().next();
+                heads.add(new Head<>(next, sortKey(getter, next), head.rest()));
+            }
         }
+        return skip(merged);
+    }
 
-        return results;
+    private List<T> skip(List<T> results) {
+        if (skipValue <= 0) {
+            return results;
+        }
+        return skipValue >= results.size() ? new ArrayList<>() : new ArrayList<>(results.subList(skipValue, results.size()));
+    }
+
+    //the next result of a repository, with its sort key read once
+    private record Head<T>(T entity, Comparable<Object> key, Iterator<T> rest) { }
+
+    @SuppressWarnings("unchecked")
+    private static Comparable<Object> sortKey(MethodHandle getter, Object entity) {
+        try {
+            return (Comparable<Object>) (Object) getter.invokeExact(entity);
+        } catch (Throwable e) {
+            throw new IllegalStateException("Failed to read the sort field of " + entity, e);
+        }
+    }
+
+    /**
+     * Resolves the getter of the sort field once per class and field, as a method handle typed {@code (Object)Object}.
+     */
+    private static MethodHandle sortKeyGetter(Class<?> type, String field) {
+        return SORT_KEY_GETTERS.computeIfAbsent(type.getName() + '#' + field, (key) -> {
+            for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+                try {
+                    Field declared = current.getDeclaredField(field);
+                    MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(current, MethodHandles.lookup());
+                    return lookup.unreflectGetter(declared).asType(MethodType.methodType(Object.class, Object.class));
+                } catch (NoSuchFieldException ignored) {
+                    //declared higher up
+                } catch (IllegalAccessException e) {
+                    throw new IllegalStateException("Sort field '" + field + "' of " + type.getName() + " isn't accessible", e);
+                }
+            }
+            throw new IllegalArgumentException("No sort field '" + field + "' in " + type.getName());
+        });
     }
 
 }
\ No newline at end of file
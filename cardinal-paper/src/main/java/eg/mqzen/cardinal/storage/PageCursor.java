@@ -0,0 +1,53 @@
+package eg.mqzen.cardinal.storage;
+
+import eg.mqzen.cardinal.api.storage.QueryBuilder;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Comparator;
+
+/**
+ * The position of a keyset-paginated query: the sort key and id of the last item of a page.
+ * It's handed out as an opaque url-safe token, the next page seeks past it instead of skipping rows.
+ *
+ * @param key the value of the sort field.
+ * @param id  the entity id, breaking ties between equal keys.
+ */
+public record PageCursor(long key, String id) {
+
+    private static final char SEPARATOR = ':';
+
+    public static Comparator<PageCursor> comparator(QueryBuilder.SortOrder order) {
+        Comparator<PageCursor> ascending = Comparator.comparingLong(PageCursor::key).thenComparing(PageCursor::id);
+        return order == QueryBuilder.SortOrder.ASC ? ascending : ascending.reversed();
+    }
+
+    public String encode() {
+        String raw = Long.toString(key) + SEPARATOR + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param token a token from {@link #encode()}, or null.
+     * @return the cursor, or null if the token is null (i.e. the first page).
+     * @throws IllegalArgumentException if the token is malformed.
+     */
+    public static @Nullable PageCursor decode(@Nullable String token) {
+        if (token == null) {
+            return null;
+        }
+
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            int separator = raw.indexOf(SEPARATOR);
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Malformed page cursor: " + token);
+            }
+            return new PageCursor(Long.parseLong(raw.substring(0, separator)), raw.substring(separator + 1));
+        } catch (IllegalArgumentException e) {
+            //NumberFormatException included
+            throw new IllegalArgumentException("Malformed page cursor: " + token, e);
+        }
+    }
+}
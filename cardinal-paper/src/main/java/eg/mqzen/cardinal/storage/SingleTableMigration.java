@@ -0,0 +1,91 @@
+package eg.mqzen.cardinal.storage;
+
+import eg.mqzen.cardinal.Cardinal;
+import eg.mqzen.cardinal.api.storage.BatchOperation;
+import eg.mqzen.cardinal.api.storage.BatchOperationResult;
+import eg.mqzen.cardinal.api.storage.DBEntity;
+import eg.mqzen.cardinal.api.storage.Repository;
+import eg.mqzen.cardinal.api.storage.StorageEngine;
+import eg.mqzen.cardinal.api.storage.StorageException;
+import studio.mevera.imperat.util.TypeWrap;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Moves the entities of per-type repositories (one table/collection each) into the shared repository
+ * of the single-table layout, then drops the emptied repositories.
+ * <p>
+ * Entities are moved a batch at a time, each batch being upserted into the shared repository and deleted
+ * from its old one within a single transaction. Upserts make the move safe to resume: an interrupted
+ * migration picks up where it stopped on the next start, a batch copied but not deleted being copied again.
+ * The migration blocks its caller until every repository is moved, logging its progress after each batch.
+ */
+public final class SingleTableMigration<ID, T extends DBEntity<ID>> {
+
+    private final StorageEngine engine;
+    private final Repository<ID, T> shared;
+    private final TypeWrap<T> entityType;
+    private final int batchSize;
+
+    public SingleTableMigration(StorageEngine engine, Repository<ID, T> shared, TypeWrap<T> entityType, int batchSize) {
+        this.engine = engine;
+        this.shared = shared;
+        this.entityType = entityType;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * @param legacyNames the names of the per-type repositories, those that don't exist are skipped.
+     * @return the number of entities moved.
+     */
+    public long migrate(Collection<String> legacyNames) throws StorageException {
+        long total = 0;
+        for (String name : legacyNames) {
+            if (name.equals(shared.getName()) || !engine.hasRepository(name)) {
+                continue;
+            }
+
+            long start = System.currentTimeMillis();
+            Repository<ID, T> legacy = engine.getRepositoryOrCreate(name, entityType);
+            long remaining = legacy.count();
+            Cardinal.log("Moving %s entities from '%s' into '%s'", remaining, name, shared.getName());
+            long moved = 0;
+            while (true) {
+                //every moved batch is deleted, so the first rows left are always the next ones to move
+                List<T> batch = legacy.query().limit(batchSize).execute();
+                if (batch.isEmpty()) {
+                    break;
+                }
+                moved += engine.executeTransaction(() -> move(legacy, batch));
+                Cardinal.log("Moved %s/%s entities from '%s' into '%s' (%sms)", moved, remaining, name, shared.getName(),
+                        System.currentTimeMillis() - start);
+            }
+
+            engine.dropRepository(name);
+            total += moved;
+            Cardinal.log("Moved %s entities from '%s' into '%s' in %sms", moved, name, shared.getName(), System.currentTimeMillis() - start);
+        }
+        return total;
+    }
+
+    private int move(Repository<ID, T> legacy, List<T> batch) throws StorageException {
+        BatchOperation<T> copy = shared.batch();
+        BatchOperation<T> delete = legacy.batch();
+        for (T entity : batch) {
+            copy.upsert(entity);
+            delete.delete(entity);
+        }
+
+        BatchOperationResult<T> copied = copy.execute();
+        if (!copied.errors().isEmpty()) {
+            throw new StorageException("Failed to copy entities of '" + legacy.getName() + "': " + copied.errors());
+        }
+        BatchOperationResult<T> deleted = delete.execute();
+        if (!deleted.errors().isEmpty() || deleted.deletedCount() == 0) {
+            //nothing removed from the old repository would have the same batch read again forever
+            throw new StorageException("Failed to delete moved entities of '" + legacy.getName() + "': " + deleted.errors());
+        }
+        return batch.size();
+    }
+}
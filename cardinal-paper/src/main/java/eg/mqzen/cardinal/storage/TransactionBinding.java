@@ -0,0 +1,83 @@
+package eg.mqzen.cardinal.storage;
+
+import eg.mqzen.cardinal.api.storage.StorageCommand;
+import eg.mqzen.cardinal.api.storage.StorageException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binds the resource of a running transaction (a JDBC connection, a Mongo client session) to the thread
+ * executing the transaction's {@link StorageCommand}, so the repositories, queries and batches it calls
+ * pick it up instead of starting their own.
+ * Only work done on that thread joins the transaction, async operations run outside of it.
+ *
+ * @param <R> the transaction resource.
+ */
+public final class TransactionBinding<R> {
+
+    private final ThreadLocal<R> bound = new ThreadLocal<>();
+    private final ThreadLocal<List<Runnable>> afterCommit = new ThreadLocal<>();
+
+    /**
+     * Commits the transaction of the bound resource.
+     */
+    @FunctionalInterface
+    public interface Commit {
+        void commit() throws Exception;
+    }
+
+    /**
+     * @return the resource of the transaction running on this thread, or null outside of a transaction.
+     */
+    public @Nullable R current() {
+        return bound.get();
+    }
+
+    public boolean inTransaction() {
+        return bound.get() != null;
+    }
+
+    /**
+     * Holds the action back until the transaction running on this thread commits, and drops it if it doesn't.
+     *
+     * @return false outside of a transaction, the action being left to the caller.
+     */
+    public boolean deferUntilCommit(Runnable action) {
+        List<Runnable> actions = afterCommit.get();
+        if (actions == null) {
+            return false;
+        }
+        actions.add(action);
+        return true;
+    }
+
+    /**
+     * Runs the command with the resource bound to this thread, then commits.
+     * The actions deferred by the command run once the commit succeeded.
+     */
+    public <T> T runBound(@NotNull R resource, StorageCommand<T> command, Commit commit) throws StorageException {
+        List<Runnable> actions = new ArrayList<>();
+        bound.set(resource);
+        afterCommit.set(actions);
+        T result;
+        try {
+            result = command.execute();
+            commit.commit();
+        } catch (StorageException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new StorageException("Failed to commit transaction", e);
+        } finally {
+            bound.remove();
+            afterCommit.remove();
+        }
+
+        for (Runnable action : actions) {
+            action.run();
+        }
+        return result;
+    }
+}
@@ -0,0 +1,249 @@
+package eg.mqzen.cardinal.storage;
+
+import eg.mqzen.cardinal.Cardinal;
+import eg.mqzen.cardinal.api.storage.BatchOperation;
+import eg.mqzen.cardinal.api.storage.BatchOperationResult;
+import eg.mqzen.cardinal.api.storage.DBEntity;
+import eg.mqzen.cardinal.api.storage.Repository;
+import eg.mqzen.cardinal.api.storage.StorageException;
+import eg.mqzen.cardinal.api.storage.StorageMetrics;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Buffers the saves of a repository and writes them out as {@link BatchOperation#upsert batched upserts}
+ * (a multi-row {@code INSERT ... ON DUPLICATE KEY UPDATE} in MySQL, a {@code bulkWrite} in Mongo),
+ * every {@code flushInterval} or once {@code batchSize} entities are pending.
+ * <p>
+ * Saves of the same id are coalesced while pending, the latest entity being the one written.
+ * Batches are written one at a time by a single thread, so the writes of an id reach storage in order.
+ * The future returned by {@link #enqueue} is the durability hook: it completes once the entity is written.
+ * A failed batch, or the entities of a batch that failed to be written, are retried on the next flush,
+ * up to {@code maxAttempts} times.
+ * <p>
+ * Upserts are unconditional, so buffered saves skip the version check of {@link Repository#compareAndSave}:
+ * a concurrent write of another server to the same entity is overwritten instead of being detected.
+ */
+public final class WriteBehindBuffer<T extends DBEntity<?>> implements AutoCloseable {
+
+    private final Repository<?, T> repository;
+    private final StorageMetrics metrics;
+    private final int batchSize;
+    private final int maxAttempts;
+
+    //insertion ordered, guarded by itself
+    private final Map<Object, Pending<T>> pending = new LinkedHashMap<>();
+
+    private final ScheduledExecutorService writerExecutor;
+    private volatile boolean closed;
+
+    private static final class Pending<T> {
+        private T entity;
+        private final CompletableFuture<T> written = new CompletableFuture<>();
+        private int attempts;
+
+        private Pending(T entity) {
+            this.entity = entity;
+        }
+    }
+
+    public WriteBehindBuffer(Repository<?, T> repository, StorageMetrics metrics,
+            int batchSize, long flushIntervalMillis, int maxAttempts) {
+        this.repository = repository;
+        this.metrics = metrics;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.writerExecutor = Executors.newSingleThreadScheduledExecutor((runnable)-> {
+            Thread thread = new Thread(runnable, "Cardinal-Write-Behind-" + repository.getName());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long interval = Math.max(10L, flushIntervalMillis);
+        writerExecutor.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queues the entity to be saved, replacing a pending save of the same id.
+     *
+     * @return completes with the entity once written, or exceptionally if it couldn't be.
+     */
+    public CompletableFuture<T> enqueue(@NotNull T entity) {
+        if (closed) {
+            return CompletableFuture.failedFuture(new StorageException("Write-behind buffer of '" + repository.getName() + "' is closed"));
+        }
+
+        Pending<T> entry;
+        int size;
+        synchronized (pending) {
+            entry = pending.get(entity.getEntityID());
+            if (entry != null) {
+                entry.entity = entity;
+                metrics.recordOperation("write-behind.coalesced", 0);
+            } else {
+                entry = new Pending<>(entity);
+                pending.put(entity.getEntityID(), entry);
+            }
+            size = pending.size();
+        }
+
+        if (size >= batchSize) {
+            try {
+                writerExecutor.execute(this::flush);
+            } catch (RejectedExecutionException ignored) {
+                // closing, the pending saves are flushed by close()
+            }
+        }
+        return entry.written;
+    }
+
+    public int pendingCount() {
+        synchronized (pending) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * Writes batches until nothing is pending, stopping at the first failed batch.
+     *
+     * @return false if a batch failed.
+     */
+    private boolean flush() {
+        while (true) {
+            List<Pending<T>> batch = drain();
+            if (batch.isEmpty()) {
+                return true;
+            }
+            if (!write(batch)) {
+                return false;
+            }
+        }
+    }
+
+    private List<Pending<T>> drain() {
+        synchronized (pending) {
+            List<Pending<T>> batch = new ArrayList<>(Math.min(batchSize, pending.size()));
+            Iterator<Pending<T>> iterator = pending.values().iterator();
+            while (batch.size() < batchSize && iterator.hasNext()) {
+                batch.add(iterator.next());
+                iterator.remove();
+            }
+            return batch;
+        }
+    }
+
+    private boolean write(List<Pending<T>> batch) {
+        long start = System.currentTimeMillis();
+        try {
+            BatchOperation<T> operation = repository.batch();
+            for (Pending<T> entry : batch) {
+                operation.upsert(entry.entity);
+            }
+            BatchOperationResult<T> result = operation.execute();
+            metrics.recordOperation("write-behind.flush", System.currentTimeMillis() - start);
+            if (!result.errors().isEmpty()) {
+                Cardinal.warn("Write-behind batch of '%s' written with %s errors: %s", repository.getName(), result.errors().size(), result.errors());
+            }
+
+            Set<T> unwritten = Collections.newSetFromMap(new IdentityHashMap<>());
+            unwritten.addAll(result.failed());
+            List<Pending<T>> failed = new ArrayList<>();
+            for (Pending<T> entry : batch) {
+                if (unwritten.contains(entry.entity)) {
+                    failed.add(entry);
+                } else {
+                    entry.written.complete(entry.entity);
+                }
+            }
+
+            if (!failed.isEmpty()) {
+                metrics.recordError("write-behind.flush");
+                retry(failed, new StorageException("Failed to write buffered '" + repository.getName() + "' entities: " + result.errors()));
+                return false;
+            }
+            return true;
+        } catch (StorageException e) {
+            metrics.recordError("write-behind.flush");
+            Cardinal.warn("Failed to write %s buffered '%s' entities", batch.size(), repository.getName());
+            e.printStackTrace();
+            retry(batch, e);
+            return false;
+        }
+    }
+
+    /**
+     * Puts the failed entries back in front of the queue, unless a newer save of the same id was queued meanwhile:
+     * that one is written instead, completing the waiters of both.
+     */
+    private void retry(List<Pending<T>> batch, StorageException failure) {
+        int dropped = 0;
+        synchronized (pending) {
+            Map<Object, Pending<T>> requeued = new LinkedHashMap<>();
+            for (Pending<T> entry : batch) {
+                if (++entry.attempts >= maxAttempts) {
+                    entry.written.completeExceptionally(failure);
+                    dropped++;
+                    continue;
+                }
+
+                Pending<T> newer = pending.get(entry.entity.getEntityID());
+                if (newer != null) {
+                    newer.written.whenComplete((entity, error)-> {
+                        if (error != null) {
+                            entry.written.completeExceptionally(error);
+                        } else {
+                            entry.written.complete(entity);
+                        }
+                    });
+                } else {
+                    requeued.put(entry.entity.getEntityID(), entry);
+                }
+            }
+            requeued.putAll(pending);
+            pending.clear();
+            pending.putAll(requeued);
+        }
+
+        if (dropped > 0) {
+            metrics.recordError("write-behind.dropped");
+            Cardinal.severe("Gave up writing %s buffered '%s' entities after %s attempts", dropped, repository.getName(), maxAttempts);
+        }
+    }
+
+    /**
+     * Stops the periodic flushes and writes whatever is still pending,
+     * the saves that can't be written are failed.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        writerExecutor.shutdown();
+        try {
+            if (!writerExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+                writerExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            writerExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+
+        //a failed batch is requeued until out of attempts, so this ends
+        boolean flushed;
+        do {
+            flushed = flush();
+        } while (!flushed);
+    }
+}
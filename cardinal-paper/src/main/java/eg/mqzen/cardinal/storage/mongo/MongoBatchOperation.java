@@ -1,10 +1,13 @@
 package eg.mqzen.cardinal.storage.mongo;
 
 import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.ClientSession;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.Filters;
 import com.mongodb.client.model.InsertOneModel;
 import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
 import com.mongodb.client.model.WriteModel;
 import eg.mqzen.cardinal.api.storage.BatchOperation;
 import eg.mqzen.cardinal.api.storage.BatchOperationResult;
@@ -12,13 +15,19 @@ import eg.mqzen.cardinal.api.storage.StorageEvent;
 import eg.mqzen.cardinal.api.storage.StorageException;
 import eg.mqzen.cardinal.api.storage.StorageMetrics;
 import eg.mqzen.cardinal.api.storage.StorageObserver;
+import eg.mqzen.cardinal.api.storage.VersionedEntity;
+import eg.mqzen.cardinal.storage.TransactionBinding;
 import eg.mqzen.cardinal.storage.mongo.mapping.DocumentMapper;
 import org.bson.Document;
+import org.bson.conversions.Bson;
 import org.bson.types.ObjectId;
 import studio.mevera.imperat.util.TypeWrap;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
 
 /**
  * MongoDB implementation of BatchOperation
@@ -32,21 +41,37 @@ public final class MongoBatchOperation<T> implements BatchOperation<T> {
     private final DocumentMapper<T> mapper;
     private final List<StorageObserver> observers;
     private final StorageMetrics metrics;
+    private final TransactionBinding<ClientSession> sessions;
     private final List<WriteModel<Document>> operations;
     private final List<String> errors;
+    private final List<T> failed = new ArrayList<>();
+    private final List<VersionBump> versionBumps = new ArrayList<>();
+    private final List<VersionedUpdate<T>> versionedUpdates = new ArrayList<>();
+    private int replaceCount;
+    //handed to the observers once written
+    private final List<T> entities = new ArrayList<>();
+
+    //applied to the upserted entities once the bulk write succeeded
+    private record VersionBump(VersionedEntity<?> entity, long version) { }
+
+    //replaced only if the stored version still matches, checked once the bulk write matched fewer documents than sent
+    private record VersionedUpdate<T>(T entity, Document filter, Document doc, long version) { }
     
     public MongoBatchOperation(MongoCollection<Document> collection, DocumentMapper<T> mapper,
-                              List<StorageObserver> observers, StorageMetrics metrics) {
+                              List<StorageObserver> observers, StorageMetrics metrics,
+                              TransactionBinding<ClientSession> sessions) {
         this.collection = collection;
         this.mapper = mapper;
         this.observers = observers;
         this.metrics = metrics;
+        this.sessions = sessions;
         this.operations = new ArrayList<>();
         this.errors = new ArrayList<>();
     }
     
     @Override
     public BatchOperation<T> insert(T entity) {
+        entities.add(entity);
         try {
             Document doc = mapper.toDocument(entity);
             if (!doc.containsKey("_id")) {
@@ -54,82 +79,196 @@ public final class MongoBatchOperation<T> implements BatchOperation<T> {
             }
             operations.add(new InsertOneModel<>(doc));
         } catch (Exception e) {
-            errors.add("Insert failed: " + e.getMessage());
+            fail(entity, "Insert failed: " + e.getMessage());
         }
         return this;
     }
     
     @Override
     public BatchOperation<T> update(T entity) {
+        entities.add(entity);
         try {
             Document doc = mapper.toDocument(entity);
-            if (doc.containsKey("_id")) {
-                operations.add(new ReplaceOneModel<>(
-                    new Document("_id", doc.get("_id")), 
-                    doc
-                ));
+            Document filter = idFilter(doc);
+            if (filter == null) {
+                fail(entity, "Update failed: entity has no ID");
+                return this;
+            }
+            replaceCount++;
+            if (entity instanceof VersionedEntity<?> versioned) {
+                long expected = versioned.getVersion();
+                doc.put("version", expected + 1);
+                versionedUpdates.add(new VersionedUpdate<>(entity, filter, doc, expected + 1));
+                operations.add(new ReplaceOneModel<>(Filters.and(filter, versionFilter(expected)), doc));
             } else {
-                errors.add("Update failed: entity has no ID");
+                operations.add(new ReplaceOneModel<>(filter, doc));
             }
         } catch (Exception e) {
-            errors.add("Update failed: " + e.getMessage());
+            fail(entity, "Update failed: " + e.getMessage());
         }
         return this;
     }
     
+    @Override
+    public BatchOperation<T> upsert(T entity) {
+        entities.add(entity);
+        try {
+            Document doc = mapper.toDocument(entity);
+            if (entity instanceof VersionedEntity<?> versioned) {
+                long version = versioned.getVersion() + 1;
+                doc.put("version", version);
+                versionBumps.add(new VersionBump(versioned, version));
+            }
+            Document filter = idFilter(doc);
+            if (filter != null) {
+                replaceCount++;
+                operations.add(new ReplaceOneModel<>(filter, doc, new ReplaceOptions().upsert(true)));
+            } else {
+                fail(entity, "Upsert failed: entity has no ID");
+            }
+        } catch (Exception e) {
+            fail(entity, "Upsert failed: " + e.getMessage());
+        }
+        return this;
+    }
+
     @Override
     public BatchOperation<T> delete(T entity) {
+        entities.add(entity);
         try {
             Document doc = mapper.toDocument(entity);
-            if (doc.containsKey("_id")) {
-                operations.add(new DeleteOneModel<>(
-                    new Document("_id", doc.get("_id"))
-                ));
+            Document filter = idFilter(doc);
+            if (filter != null) {
+                operations.add(new DeleteOneModel<>(filter));
             } else {
-                errors.add("Delete failed: entity has no ID");
+                fail(entity, "Delete failed: entity has no ID");
             }
         } catch (Exception e) {
-            errors.add("Delete failed: " + e.getMessage());
+            fail(entity, "Delete failed: " + e.getMessage());
         }
         return this;
     }
     
+    private void fail(T entity, String error) {
+        errors.add(error);
+        failed.add(entity);
+    }
+
+    /**
+     * Entities written through a type adapter (e.g. punishments) keep their id in an "id" field
+     * instead of "_id", the same key {@link MongoRepository#save} upserts on.
+     */
+    private static Document idFilter(Document doc) {
+        if (doc.containsKey("_id")) {
+            return new Document("_id", doc.get("_id"));
+        }
+        if (doc.get("id") != null) {
+            return new Document("id", doc.get("id"));
+        }
+        return null;
+    }
+
+    private void applyVersions(Set<T> unwritten) {
+        for (VersionBump bump : versionBumps) {
+            if (!unwritten.contains(bump.entity())) {
+                bump.entity().setVersion(bump.version());
+            }
+        }
+        for (VersionedUpdate<T> update : versionedUpdates) {
+            if (!unwritten.contains(update.entity())) {
+                ((VersionedEntity<?>) update.entity()).setVersion(update.version());
+            }
+        }
+    }
+
+    /**
+     * Documents written before versioning have no version field, they count as version 0.
+     */
+    private static Bson versionFilter(long expected) {
+        return expected == 0
+                ? Filters.or(Filters.eq("version", 0L), Filters.exists("version", false))
+                : Filters.eq("version", expected);
+    }
+
     @Override
-    public BatchOperationResult execute() throws StorageException {
+    public BatchOperationResult<T> execute() throws StorageException {
         if (operations.isEmpty()) {
-            return new BatchOperationResult(0, 0, 0, errors);
+            return new BatchOperationResult<>(0, 0, 0, errors, List.of(), failed);
         }
         
         try {
             long startTime = System.currentTimeMillis();
             
-            BulkWriteResult result = collection.bulkWrite(operations);
+            ClientSession session = sessions.current();
+            BulkWriteResult result = session != null
+                    ? collection.bulkWrite(session, operations)
+                    : collection.bulkWrite(operations);
             
-            int insertCount = result.getInsertedCount();
+            int insertCount = result.getInsertedCount() + result.getUpserts().size();
             int updateCount = result.getModifiedCount();
             int deleteCount = result.getDeletedCount();
+            List<T> conflicts = findConflicts(session, result);
+            Set<T> unwritten = Collections.newSetFromMap(new IdentityHashMap<>());
+            unwritten.addAll(conflicts);
+            unwritten.addAll(failed);
+            // Versions of a transaction's writes only move once it commits
+            if (!sessions.deferUntilCommit(() -> applyVersions(unwritten))) {
+                applyVersions(unwritten);
+            }
             
             metrics.recordOperation("batch", System.currentTimeMillis() - startTime);
+            if (!conflicts.isEmpty()) {
+                metrics.recordError("batch.conflict");
+            }
             
-            // Notify observers
-            for (StorageObserver observer : observers) {
-                try {
-                    observer.onStorageEvent(new StorageEvent(
-                        StorageEvent.Type.BATCH_OPERATION,
-                        TypeWrap.of(Object.class),
-                        result
-                    ));
-                } catch (Exception e) {
-                    // Log but don't fail
-                    System.err.println("Observer notification failed: " + e.getMessage());
-                }
+            // Notify observers, once committed when part of a transaction
+            List<T> written = new ArrayList<>(entities);
+            written.removeIf(unwritten::contains);
+            StorageEvent event = new StorageEvent(StorageEvent.Type.BATCH_OPERATION, TypeWrap.of(Object.class), List.copyOf(written));
+            if (!sessions.deferUntilCommit(() -> notifyObservers(event))) {
+                notifyObservers(event);
             }
             
-            return new BatchOperationResult(insertCount, updateCount, deleteCount, errors);
+            return new BatchOperationResult<>(insertCount, updateCount, deleteCount, errors, conflicts, failed);
             
         } catch (Exception e) {
             metrics.recordError("batch");
             throw new StorageException("Batch operation failed", e);
         }
     }
+
+    /**
+     * A bulk write only reports how many documents matched, so when fewer matched than replacements were sent,
+     * each versioned update is checked against its stored document: the ones whose document isn't the one sent
+     * (another writer got there first, or it was deleted) are conflicts.
+     */
+    private List<T> findConflicts(ClientSession session, BulkWriteResult result) {
+        List<T> conflicts = new ArrayList<>();
+        int missed = replaceCount - result.getMatchedCount() - result.getUpserts().size();
+        if (missed <= 0 || versionedUpdates.isEmpty()) {
+            return conflicts;
+        }
+
+        for (VersionedUpdate<T> update : versionedUpdates) {
+            Document stored = (session != null ? collection.find(session, update.filter()) : collection.find(update.filter())).first();
+            if (stored != null && !update.doc().containsKey("_id")) {
+                stored.remove("_id");
+            }
+            if (!update.doc().equals(stored)) {
+                conflicts.add(update.entity());
+            }
+        }
+        return conflicts;
+    }
+
+    private void notifyObservers(StorageEvent event) {
+        for (StorageObserver observer : observers) {
+            try {
+                observer.onStorageEvent(event);
+            } catch (Exception e) {
+                // Log but don't fail
+                System.err.println("Observer notification failed: " + e.getMessage());
+            }
+        }
+    }
 }
\ No newline at end of file
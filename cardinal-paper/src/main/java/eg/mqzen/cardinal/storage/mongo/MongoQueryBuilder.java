@@ -1,19 +1,34 @@
 package eg.mqzen.cardinal.storage.mongo;
 
 
+import com.mongodb.MongoException;
+import com.mongodb.client.ClientSession;
 import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import eg.mqzen.cardinal.api.storage.Page;
 import eg.mqzen.cardinal.api.storage.QueryBuilder;
 import eg.mqzen.cardinal.api.storage.StorageException;
 import eg.mqzen.cardinal.api.storage.StorageMetrics;
+import eg.mqzen.cardinal.api.storage.UncheckedStorageException;
+import eg.mqzen.cardinal.storage.KeysetQuery;
+import eg.mqzen.cardinal.storage.PageCursor;
+import eg.mqzen.cardinal.storage.TransactionBinding;
 import eg.mqzen.cardinal.storage.mongo.mapping.DocumentMapper;
+import eg.mqzen.cardinal.storage.mongo.mapping.exception.DeserializationException;
 import org.bson.Document;
 import org.bson.conversions.Bson;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * MongoDB implementation of QueryBuilder
@@ -21,15 +36,22 @@ import java.util.concurrent.CompletableFuture;
  * @param <T> Entity type
  * @since 1.0
  */
-public final class MongoQueryBuilder<T> implements QueryBuilder<T> {
+public final class MongoQueryBuilder<T> implements QueryBuilder<T>, KeysetQuery<T> {
+
+    //entities written through a type adapter (e.g. punishments) keep their id in "id", "_id" being an ObjectId
+    private static final String KEYSET_ID_FIELD = "id";
 
     private final MongoCollection<Document> collection;
     private final DocumentMapper<T> mapper;
     private final StorageMetrics metrics;
+    private final TransactionBinding<ClientSession> sessions;
     private final List<FilterGroup> filterGroups;
     private final List<Bson> sorts;
     private int limitValue = 0;
     private int skipValue = 0;
+    private String keyField;
+    private SortOrder keyOrder;
+    private PageCursor afterCursor;
     private String currentField;
     private LogicalOperator nextOperator = LogicalOperator.AND;
 
@@ -40,10 +62,12 @@ public final class MongoQueryBuilder<T> implements QueryBuilder<T> {
     // Helper class to track filters with their logical operators
     private record FilterGroup(Bson filter, LogicalOperator operator) { }
 
-    public MongoQueryBuilder(MongoCollection<Document> collection, DocumentMapper<T> mapper, StorageMetrics metrics) {
+    public MongoQueryBuilder(MongoCollection<Document> collection, DocumentMapper<T> mapper, StorageMetrics metrics,
+            TransactionBinding<ClientSession> sessions) {
         this.collection = collection;
         this.mapper = mapper;
         this.metrics = metrics;
+        this.sessions = sessions;
         this.filterGroups = new ArrayList<>();
         this.sorts = new ArrayList<>();
     }
@@ -136,6 +160,8 @@ public final class MongoQueryBuilder<T> implements QueryBuilder<T> {
     public QueryBuilder<T> sortBy(Class<?> sortEntityTypeClass, String field, SortOrder order) {
         int sortOrder = order == SortOrder.ASC ? 1 : -1;
         sorts.add(new Document(field, sortOrder));
+        this.keyField = field;
+        this.keyOrder = order;
         return this;
     }
 
@@ -152,30 +178,88 @@ public final class MongoQueryBuilder<T> implements QueryBuilder<T> {
     }
 
     @Override
-    public List<T> execute() throws StorageException {
-        try {
-            long startTime = System.currentTimeMillis();
+    public QueryBuilder<T> after(@Nullable String cursor) {
+        this.afterCursor = PageCursor.decode(cursor);
+        return this;
+    }
 
-            FindIterable<Document> iterable = collection.find(buildQuery());
+    @Override
+    public Page<T> page(int size) throws StorageException {
+        if (size < 1) {
+            throw new IllegalArgumentException("Page size must be positive, got " + size);
+        }
+        return KeysetQuery.toPage(seek(size + 1), size);
+    }
 
-            if (!sorts.isEmpty()) {
-                Document sortDoc = new Document();
-                for (Bson sort : sorts) {
-                    sortDoc.putAll(sort.toBsonDocument());
-                }
-                iterable = iterable.sort(sortDoc);
+    @Override
+    public CompletableFuture<Page<T>> pageAsync(int size) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return page(size);
+            } catch (StorageException e) {
+                throw new RuntimeException(e);
             }
+        });
+    }
 
-            if (skipValue > 0) {
-                iterable = iterable.skip(skipValue);
+    /**
+     * Runs the filters plus a seek predicate on (key, id), sorted on both so the index on them
+     * is walked from the cursor on, skip being ignored.
+     */
+    @Override
+    public List<Row<T>> seek(int limit) throws StorageException {
+        SortOrder order = keyOrder();
+        try {
+            long startTime = System.currentTimeMillis();
+
+            Bson query = buildQuery();
+            if (afterCursor != null) {
+                String operator = order == SortOrder.ASC ? "$gt" : "$lt";
+                Document seek = new Document("$or", List.of(
+                        new Document(keyField, new Document(operator, afterCursor.key())),
+                        new Document(keyField, afterCursor.key())
+                                .append(KEYSET_ID_FIELD, new Document(operator, afterCursor.id()))
+                ));
+                query = filterGroups.isEmpty() ? seek : new Document("$and", List.of(query, seek));
             }
 
-            if (limitValue > 0) {
-                iterable = iterable.limit(limitValue);
+            int direction = order == SortOrder.ASC ? 1 : -1;
+            FindIterable<Document> iterable = find(query)
+                    .sort(new Document(keyField, direction).append(KEYSET_ID_FIELD, direction))
+                    .limit(limit);
+
+            List<Row<T>> rows = new ArrayList<>();
+            for (Document doc : iterable) {
+                PageCursor cursor = new PageCursor(
+                        ((Number) doc.get(keyField)).longValue(),
+                        String.valueOf(doc.get(KEYSET_ID_FIELD))
+                );
+                rows.add(new Row<>(mapper.fromDocument(doc), cursor));
             }
 
+            metrics.recordOperation("page", System.currentTimeMillis() - startTime);
+            return rows;
+        } catch (Exception e) {
+            metrics.recordError("page");
+            throw new StorageException("Page query failed", e);
+        }
+    }
+
+    @Override
+    public SortOrder keyOrder() {
+        if (keyField == null) {
+            throw new IllegalStateException("Keyset pagination requires a sort field");
+        }
+        return keyOrder;
+    }
+
+    @Override
+    public List<T> execute() throws StorageException {
+        try {
+            long startTime = System.currentTimeMillis();
+
             List<T> results = new ArrayList<>();
-            for (Document doc : iterable) {
+            for (Document doc : find()) {
                 results.add(mapper.fromDocument(doc));
             }
 
@@ -187,6 +271,75 @@ public final class MongoQueryBuilder<T> implements QueryBuilder<T> {
         }
     }
 
+    /**
+     * Streams over a cursor fetching {@code batchSize} documents per getMore, mapping them as they're consumed.
+     */
+    @Override
+    public Stream<T> stream(int batchSize) throws StorageException {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive, got " + batchSize);
+        }
+
+        MongoCursor<Document> cursor;
+        try {
+            cursor = find().batchSize(batchSize).cursor();
+        } catch (Exception e) {
+            metrics.recordError("stream");
+            throw new StorageException("Query execution failed", e);
+        }
+
+        long startTime = System.currentTimeMillis();
+        Spliterator<T> spliterator = new Spliterators.AbstractSpliterator<>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super T> action) {
+                try {
+                    if (!cursor.hasNext()) {
+                        return false;
+                    }
+                    action.accept(mapper.fromDocument(cursor.next()));
+                    return true;
+                } catch (MongoException | DeserializationException e) {
+                    metrics.recordError("stream");
+                    throw new UncheckedStorageException(new StorageException("Failed to read the query cursor", e));
+                }
+            }
+        };
+
+        return StreamSupport.stream(spliterator, false).onClose(() -> {
+            cursor.close();
+            metrics.recordOperation("stream", System.currentTimeMillis() - startTime);
+        });
+    }
+
+    /**
+     * Finds within the transaction running on this thread, if any.
+     */
+    private FindIterable<Document> find(Bson query) {
+        ClientSession session = sessions.current();
+        return session != null ? collection.find(session, query) : collection.find(query);
+    }
+
+    private FindIterable<Document> find() {
+        FindIterable<Document> iterable = find(buildQuery());
+
+        if (!sorts.isEmpty()) {
+            Document sortDoc = new Document();
+            for (Bson sort : sorts) {
+                sortDoc.putAll(sort.toBsonDocument());
+            }
+            iterable = iterable.sort(sortDoc);
+        }
+
+        if (skipValue > 0) {
+            iterable = iterable.skip(skipValue);
+        }
+
+        if (limitValue > 0) {
+            iterable = iterable.limit(limitValue);
+        }
+        return iterable;
+    }
+
     @Override
     public CompletableFuture<List<T>> executeAsync() {
         return CompletableFuture.supplyAsync(() -> {
@@ -208,7 +361,10 @@ public final class MongoQueryBuilder<T> implements QueryBuilder<T> {
     public long count() throws StorageException {
         try {
             long startTime = System.currentTimeMillis();
-            long count = collection.countDocuments(buildQuery());
+            ClientSession session = sessions.current();
+            long count = session != null
+                    ? collection.countDocuments(session, buildQuery())
+                    : collection.countDocuments(buildQuery());
             metrics.recordOperation("count", System.currentTimeMillis() - startTime);
             return count;
         } catch (Exception e) {
@@ -301,6 +457,9 @@ public final class MongoQueryBuilder<T> implements QueryBuilder<T> {
         sorts.clear();
         limitValue = 0;
         skipValue = 0;
+        keyField = null;
+        keyOrder = null;
+        afterCursor = null;
         currentField = null;
         nextOperator = LogicalOperator.AND;
         return this;
@@ -310,11 +469,14 @@ public final class MongoQueryBuilder<T> implements QueryBuilder<T> {
      * Returns a copy of this query builder for creating variations
      */
     public MongoQueryBuilder<T> copy() {
-        MongoQueryBuilder<T> copy = new MongoQueryBuilder<>(collection, mapper, metrics);
+        MongoQueryBuilder<T> copy = new MongoQueryBuilder<>(collection, mapper, metrics, sessions);
         copy.filterGroups.addAll(this.filterGroups);
         copy.sorts.addAll(this.sorts);
         copy.limitValue = this.limitValue;
         copy.skipValue = this.skipValue;
+        copy.keyField = this.keyField;
+        copy.keyOrder = this.keyOrder;
+        copy.afterCursor = this.afterCursor;
         copy.currentField = this.currentField;
         copy.nextOperator = this.nextOperator;
         return copy;
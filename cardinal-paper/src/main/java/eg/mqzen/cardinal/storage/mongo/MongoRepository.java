@@ -1,22 +1,34 @@
 package eg.mqzen.cardinal.storage.mongo;
 
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.ClientSession;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
 import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.result.UpdateResult;
+import eg.mqzen.cardinal.Cardinal;
+import eg.mqzen.cardinal.api.punishments.Punishment;
 import eg.mqzen.cardinal.api.storage.BatchOperation;
 import eg.mqzen.cardinal.api.storage.DBEntity;
 import eg.mqzen.cardinal.api.storage.QueryBuilder;
 import eg.mqzen.cardinal.api.storage.Repository;
+import eg.mqzen.cardinal.api.storage.SaveResult;
 import eg.mqzen.cardinal.api.storage.StorageConfig;
 import eg.mqzen.cardinal.api.storage.StorageEvent;
 import eg.mqzen.cardinal.api.storage.StorageException;
 import eg.mqzen.cardinal.api.storage.StorageMetrics;
 import eg.mqzen.cardinal.api.storage.StorageObserver;
+import eg.mqzen.cardinal.api.storage.VersionedEntity;
+import eg.mqzen.cardinal.storage.TransactionBinding;
 import eg.mqzen.cardinal.storage.mongo.mapping.DocumentMapper;
 import eg.mqzen.cardinal.storage.mongo.mapping.exception.SerializationException;
 import org.bson.Document;
+import org.bson.conversions.Bson;
 import org.jetbrains.annotations.NotNull;
 import studio.mevera.imperat.util.TypeWrap;
 
@@ -33,6 +45,7 @@ public class MongoRepository<ID, T extends DBEntity<ID>> implements Repository<I
     private final List<StorageObserver> observers;
     private final StorageMetrics metrics;
     private final DocumentMapper<T> mapper;
+    private final TransactionBinding<ClientSession> sessions;
     
     public MongoRepository(
             String name,
@@ -40,9 +53,11 @@ public class MongoRepository<ID, T extends DBEntity<ID>> implements Repository<I
             MongoDatabase database,
             StorageConfig.MongoConfig config,
             List<StorageObserver> observers,
-            StorageMetrics metrics
+            StorageMetrics metrics,
+            TransactionBinding<ClientSession> sessions
     ) {
         this.name = name;
+        this.sessions = sessions;
         this.entityType = entityType;
         this.observers = observers;
         this.metrics = metrics;
@@ -64,6 +79,25 @@ public class MongoRepository<ID, T extends DBEntity<ID>> implements Repository<I
             database.createCollection(collectionName);
         }
         this.collection = database.getCollection(collectionName);
+
+        //conditional saves rely on a single document per id, so concurrent first inserts collide instead of duplicating.
+        try {
+            collection.createIndex(Indexes.ascending("id"), new IndexOptions().unique(true));
+        } catch (Exception e) {
+            Cardinal.warn("Failed to create a unique index on 'id' for collection '%s': %s", collectionName, e.getMessage());
+        }
+
+        //keyset pages of the history seek on (issuedAt, id), globally or per target.
+        if(Punishment.class.isAssignableFrom(entityType.getRawType())) {
+            try {
+                collection.createIndex(Indexes.descending("issuedAt", "id"));
+                collection.createIndex(Indexes.compoundIndex(Indexes.ascending("target.uuid"), Indexes.descending("issuedAt", "id")));
+                //the type discriminator of the single-table layout
+                collection.createIndex(Indexes.compoundIndex(Indexes.ascending("type"), Indexes.descending("issuedAt", "id")));
+            } catch (Exception e) {
+                Cardinal.warn("Failed to create the history indexes for collection '%s': %s", collectionName, e.getMessage());
+            }
+        }
     }
 
     /**
@@ -82,7 +116,22 @@ public class MongoRepository<ID, T extends DBEntity<ID>> implements Repository<I
         try {
             long startTime = System.currentTimeMillis();
             Document doc = mapper.toDocument(entity);
-            collection.replaceOne(Filters.eq("id", entity.getEntityID().toString()),doc, new ReplaceOptions().upsert(true));
+            long version = -1;
+            if(entity instanceof VersionedEntity<?> versioned) {
+                version = versioned.getVersion() + 1;
+                doc.put("version", version);
+            }
+            Bson filter = Filters.eq("id", entity.getEntityID().toString());
+            ReplaceOptions options = new ReplaceOptions().upsert(true);
+            ClientSession session = sessions.current();
+            if(session != null) {
+                collection.replaceOne(session, filter, doc, options);
+            } else {
+                collection.replaceOne(filter, doc, options);
+            }
+            if(version != -1) {
+                ((VersionedEntity<?>) entity).setVersion(version);
+            }
 
             metrics.recordOperation("save", System.currentTimeMillis() - startTime);
             notifyObservers(new StorageEvent(StorageEvent.Type.ENTITY_SAVED, entityType, entity));
@@ -94,6 +143,74 @@ public class MongoRepository<ID, T extends DBEntity<ID>> implements Repository<I
         }
     }
     
+    @Override
+    public SaveResult<T> compareAndSave(T entity) throws StorageException {
+        if(!(entity instanceof VersionedEntity<?> versioned)) {
+            return SaveResult.saved(save(entity));
+        }
+
+        try {
+            long startTime = System.currentTimeMillis();
+            String id = entity.getEntityID().toString();
+            long expected = versioned.getVersion();
+
+            Document doc = mapper.toDocument(entity);
+            doc.put("version", expected + 1);
+
+            //documents written before versioning have no version field, they count as version 0.
+            Bson versionFilter = expected == 0
+                    ? Filters.or(Filters.eq("version", 0L), Filters.exists("version", false))
+                    : Filters.eq("version", expected);
+
+            ClientSession session = sessions.current();
+            Bson filter = Filters.and(Filters.eq("id", id), versionFilter);
+            UpdateResult result = session != null ? collection.replaceOne(session, filter, doc) : collection.replaceOne(filter, doc);
+            boolean written = result.getMatchedCount() > 0;
+            if(!written && expected == 0 && findDocument(Filters.eq("id", id)) == null) {
+                written = insertIfAbsent(doc);
+            }
+
+            metrics.recordOperation("compareAndSave", System.currentTimeMillis() - startTime);
+            if(!written) {
+                metrics.recordError("compareAndSave.conflict");
+                Document current = findDocument(Filters.eq("id", id));
+                return SaveResult.conflict(current == null ? null : mapper.fromDocument(current));
+            }
+
+            versioned.setVersion(expected + 1);
+            notifyObservers(new StorageEvent(StorageEvent.Type.ENTITY_SAVED, entityType, entity));
+            return SaveResult.saved(entity);
+        } catch (Exception e) {
+            metrics.recordError("compareAndSave");
+            throw new StorageException("Failed to save entity", e);
+        }
+    }
+
+    private Document findDocument(Bson filter) {
+        ClientSession session = sessions.current();
+        return (session != null ? collection.find(session, filter) : collection.find(filter)).first();
+    }
+
+    /**
+     * @return false if another writer inserted the same id first.
+     */
+    private boolean insertIfAbsent(Document doc) {
+        try {
+            ClientSession session = sessions.current();
+            if(session != null) {
+                collection.insertOne(session, doc);
+            } else {
+                collection.insertOne(doc);
+            }
+            return true;
+        } catch (MongoWriteException e) {
+            if(e.getError().getCategory() == ErrorCategory.DUPLICATE_KEY) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
     @Override
     public List<T> saveAll(List<T> entities) throws StorageException {
         List<T> savedEntities = new ArrayList<>();
@@ -107,7 +224,7 @@ public class MongoRepository<ID, T extends DBEntity<ID>> implements Repository<I
     public Optional<T> findById(ID id) throws StorageException {
         try {
             long startTime = System.currentTimeMillis();
-            Document doc = collection.find(new Document("id", id.toString())).first();
+            Document doc = findDocument(new Document("id", id.toString()));
             
             metrics.recordOperation("findById", System.currentTimeMillis() - startTime);
             
@@ -124,7 +241,8 @@ public class MongoRepository<ID, T extends DBEntity<ID>> implements Repository<I
             long startTime = System.currentTimeMillis();
             List<T> entities = new ArrayList<>();
             
-            for (Document doc : collection.find()) {
+            ClientSession session = sessions.current();
+            for (Document doc : session != null ? collection.find(session) : collection.find()) {
                 entities.add(mapper.fromDocument(doc));
             }
             
@@ -140,7 +258,13 @@ public class MongoRepository<ID, T extends DBEntity<ID>> implements Repository<I
     public void deleteById(ID id) throws StorageException {
         try {
             long startTime = System.currentTimeMillis();
-            collection.deleteOne(new Document("_id", id.toString()));
+            Document filter = new Document("_id", id.toString());
+            ClientSession session = sessions.current();
+            if(session != null) {
+                collection.deleteOne(session, filter);
+            } else {
+                collection.deleteOne(filter);
+            }
             
             metrics.recordOperation("deleteById", System.currentTimeMillis() - startTime);
             notifyObservers(new StorageEvent(StorageEvent.Type.ENTITY_DELETED, entityType, id));
@@ -173,7 +297,9 @@ public class MongoRepository<ID, T extends DBEntity<ID>> implements Repository<I
     @Override
     public boolean existsById(ID id) throws StorageException {
         try {
-            return collection.countDocuments(new Document("id", id.toString())) > 0;
+            Document filter = new Document("id", id.toString());
+            ClientSession session = sessions.current();
+            return (session != null ? collection.countDocuments(session, filter) : collection.countDocuments(filter)) > 0;
         } catch (Exception e) {
             throw new StorageException("Failed to check entity existence", e);
         }
@@ -182,7 +308,8 @@ public class MongoRepository<ID, T extends DBEntity<ID>> implements Repository<I
     @Override
     public long count() throws StorageException {
         try {
-            return collection.countDocuments();
+            ClientSession session = sessions.current();
+            return session != null ? collection.countDocuments(session) : collection.countDocuments();
         } catch (Exception e) {
             throw new StorageException("Failed to count entities", e);
         }
@@ -223,12 +350,12 @@ public class MongoRepository<ID, T extends DBEntity<ID>> implements Repository<I
     
     @Override
     public QueryBuilder<T> query() {
-        return new MongoQueryBuilder<>(collection, mapper, metrics);
+        return new MongoQueryBuilder<>(collection, mapper, metrics, sessions);
     }
     
     @Override
     public BatchOperation<T> batch() {
-        return new MongoBatchOperation<>(collection, mapper, observers, metrics);
+        return new MongoBatchOperation<>(collection, mapper, observers, metrics, sessions);
     }
     
     @Override
@@ -236,7 +363,16 @@ public class MongoRepository<ID, T extends DBEntity<ID>> implements Repository<I
         return entityType;
     }
     
+    /**
+     * Observers learn about the writes of a transaction once it committed, and never about rolled back ones.
+     */
     private void notifyObservers(StorageEvent event) {
+        if (!sessions.deferUntilCommit(() -> dispatch(event))) {
+            dispatch(event);
+        }
+    }
+
+    private void dispatch(StorageEvent event) {
         for (StorageObserver observer : observers) {
             try {
                 observer.onStorageEvent(event);
@@ -1,5 +1,6 @@
 package eg.mqzen.cardinal.storage.mongo;
 
+import com.mongodb.client.ClientSession;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoDatabase;
@@ -16,6 +17,7 @@ import eg.mqzen.cardinal.api.storage.StorageObserver;
 import eg.mqzen.cardinal.api.storage.StorageType;
 import eg.mqzen.cardinal.storage.MultiRepositoryQueryBuilder;
 import eg.mqzen.cardinal.storage.StorageMetricsImpl;
+import eg.mqzen.cardinal.storage.TransactionBinding;
 import org.bson.Document;
 import studio.mevera.imperat.util.TypeUtility;
 import studio.mevera.imperat.util.TypeWrap;
@@ -25,6 +27,8 @@ import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -38,12 +42,18 @@ public final class MongoStorageEngine implements StorageEngine {
     private final ConcurrentHashMap<String, Repository<?, ?>> repositories;
     private final List<StorageObserver> observers;
     private final StorageMetrics metrics;
+    private final TransactionBinding<ClientSession> sessions = new TransactionBinding<>();
+    private final boolean transactionsSupported;
+    private final ExecutorService fanOutExecutor;
 
     public MongoStorageEngine(StorageConfig.MongoConfig config) throws StorageException {
         this.config = config;
         this.repositories = new ConcurrentHashMap<>();
         this.observers = new CopyOnWriteArrayList<>();
         this.metrics = new StorageMetricsImpl();
+        //no more concurrent repository queries than pooled connections
+        this.fanOutExecutor = MultiRepositoryQueryBuilder.newFanOutExecutor(
+                Math.min(config.maxPoolSize(), MultiRepositoryQueryBuilder.MAX_FAN_OUT_THREADS));
 
         Cardinal.log("Connecting to MongoDB database ...");
         Cardinal.log("ConnectionURI='%s', DB='%s'", config.uri(), config.database());
@@ -53,6 +63,13 @@ public final class MongoStorageEngine implements StorageEngine {
 
             // Test connection
             database.runCommand(new Document("ping", 1));
+
+            //multi-document transactions require a replica set or a sharded cluster
+            Document hello = database.runCommand(new Document("hello", 1));
+            this.transactionsSupported = hello.containsKey("setName") || "isdbgrid".equals(hello.getString("msg"));
+            if (!transactionsSupported) {
+                Cardinal.warn("MongoDB is running standalone, transactions are executed without isolation or rollback");
+            }
         } catch (Exception e) {
             throw new StorageException("Failed to initialize MongoDB storage engine", e);
         }
@@ -79,7 +96,32 @@ public final class MongoStorageEngine implements StorageEngine {
     @Override
     public <ID, T extends DBEntity<ID>> Repository<ID, T> getRepositoryOrCreate(String name, TypeWrap<T> entityClass) {
         return (Repository<ID, T>) repositories.computeIfAbsent(name,
-            k -> new MongoRepository<>(name, entityClass, database, config, observers, metrics));
+            k -> new MongoRepository<>(name, entityClass, database, config, observers, metrics, sessions));
+    }
+
+    @Override
+    public boolean hasRepository(String name) throws StorageException {
+        try {
+            String collectionName = config.collectionPrefix() + name;
+            for (String existing : database.listCollectionNames()) {
+                if (existing.equals(collectionName)) {
+                    return true;
+                }
+            }
+            return false;
+        } catch (Exception e) {
+            throw new StorageException("Failed to check collection of repository '" + name + "'", e);
+        }
+    }
+
+    @Override
+    public void dropRepository(String name) throws StorageException {
+        try {
+            database.getCollection(config.collectionPrefix() + name).drop();
+            repositories.remove(name);
+        } catch (Exception e) {
+            throw new StorageException("Failed to drop collection of repository '" + name + "'", e);
+        }
     }
     
     @Override
@@ -92,13 +134,36 @@ public final class MongoStorageEngine implements StorageEngine {
         observers.remove(observer);
     }
     
+    /**
+     * Runs the command within a client session transaction, committed once the command returns.
+     * Every repository, query and batch called by the command on this thread runs in that session.
+     * A nested call joins the transaction already running on this thread.
+     */
     @Override
     public <T> T executeTransaction(StorageCommand<T> command) throws StorageException {
-        // MongoDB transactions require replica set or sharded cluster
-        // For single node, we'll execute directly
-        try {
+        if (!transactionsSupported || sessions.inTransaction()) {
             return command.execute();
-        } catch (Exception e) {
+        }
+
+        long startTime = System.currentTimeMillis();
+        try (ClientSession session = client.startSession()) {
+            session.startTransaction();
+            T result;
+            try {
+                result = sessions.runBound(session, command, session::commitTransaction);
+            } catch (StorageException | RuntimeException e) {
+                if (session.hasActiveTransaction()) {
+                    session.abortTransaction();
+                }
+                throw e;
+            }
+            metrics.recordOperation("transaction", System.currentTimeMillis() - startTime);
+            return result;
+        } catch (StorageException e) {
+            metrics.recordError("transaction");
+            throw e;
+        } catch (RuntimeException e) {
+            metrics.recordError("transaction");
             throw new StorageException("Transaction failed", e);
         }
     }
@@ -115,6 +180,11 @@ public final class MongoStorageEngine implements StorageEngine {
     }
 
     
+    @Override
+    public Executor getQueryExecutor() {
+        return fanOutExecutor;
+    }
+
     @Override
     public StorageMetrics getMetrics() {
         return metrics;
@@ -127,6 +197,7 @@ public final class MongoStorageEngine implements StorageEngine {
     
     @Override
     public void close() {
+        fanOutExecutor.shutdownNow();
         if (client != null) {
             client.close();
         }
@@ -139,6 +210,7 @@ public final class MongoStorageEngine implements StorageEngine {
                 .map((r)-> (Repository<?, T>)r)
                 .collect(Collectors.toList());
 
-        return new MultiRepositoryQueryBuilder<>(matchingRepos, metrics);
+        return new MultiRepositoryQueryBuilder<>(matchingRepos, metrics, fanOutExecutor,
+                MultiRepositoryQueryBuilder.DEFAULT_REPOSITORY_TIMEOUT);
     }
 }
\ No newline at end of file
@@ -7,7 +7,9 @@ import eg.mqzen.cardinal.storage.mongo.mapping.adapter.MapTypeAdapter;
 import eg.mqzen.cardinal.storage.mongo.mapping.adapter.NumberTypeAdapter;
 import eg.mqzen.cardinal.storage.mongo.mapping.adapter.ObjectIdTypeAdapter;
 import eg.mqzen.cardinal.storage.mongo.mapping.adapter.StringTypeAdapter;
+import eg.mqzen.cardinal.storage.mongo.mapping.adapter.punishment.LeaderboardBucketAdapter;
 import eg.mqzen.cardinal.storage.mongo.mapping.adapter.punishment.PunishmentAdapter;
+import eg.mqzen.cardinal.storage.mongo.mapping.adapter.punishment.PunishmentStatisticsAdapter;
 import studio.mevera.imperat.util.TypeWrap;
 
 import java.lang.reflect.Type;
@@ -26,6 +28,8 @@ public class TypeAdapterRegistry {
     
     private void registerBuiltInAdapters() {
         register(new PunishmentAdapter());
+        register(new PunishmentStatisticsAdapter());
+        register(new LeaderboardBucketAdapter());
         register(new StringTypeAdapter());
         register(new NumberTypeAdapter());
         register(new BooleanTypeAdapter());
@@ -0,0 +1,79 @@
+package eg.mqzen.cardinal.storage.mongo.mapping.adapter.punishment;
+
+import eg.mqzen.cardinal.api.punishments.LeaderboardWindow;
+import eg.mqzen.cardinal.punishments.LeaderboardBucket;
+import eg.mqzen.cardinal.storage.mongo.mapping.DeserializationContext;
+import eg.mqzen.cardinal.storage.mongo.mapping.SerializationContext;
+import eg.mqzen.cardinal.storage.mongo.mapping.TypeAdapter;
+import eg.mqzen.cardinal.storage.mongo.mapping.exception.DeserializationException;
+import eg.mqzen.cardinal.storage.mongo.mapping.exception.SerializationException;
+import org.bson.Document;
+import studio.mevera.imperat.util.TypeWrap;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes leaderboard buckets with an explicit {@code id} field, the one repositories look entities up by.
+ */
+public class LeaderboardBucketAdapter implements TypeAdapter<LeaderboardBucket> {
+
+    private static final String ID_FIELD = "id";
+    private static final String SCOPE_FIELD = "scope";
+    private static final String WINDOW_FIELD = "window";
+    private static final String EPOCH_DAY_FIELD = "epochDay";
+    private static final String COUNTS_FIELD = "counts";
+    private static final String VERSION_FIELD = "version";
+
+    @Override
+    public Object serialize(LeaderboardBucket value, SerializationContext context) throws SerializationException {
+        Document document = new Document();
+        document.append(ID_FIELD, value.getEntityID());
+        document.append(SCOPE_FIELD, value.getScope());
+        document.append(WINDOW_FIELD, value.getWindow().name());
+        document.append(EPOCH_DAY_FIELD, value.getEpochDay());
+        document.append(COUNTS_FIELD, new Document(value.getCounts()));
+        document.append(VERSION_FIELD, value.getVersion());
+        return document;
+    }
+
+    @Override
+    public LeaderboardBucket deserialize(Object value, TypeWrap<LeaderboardBucket> targetType,
+            DeserializationContext context) throws DeserializationException {
+        if (value == null) {
+            return null;
+        }
+
+        if (!(value instanceof Document document)) {
+            throw new DeserializationException("Expected Document for leaderboard deserialization, got: " + value.getClass());
+        }
+
+        String id = document.getString(ID_FIELD);
+        String scope = document.getString(SCOPE_FIELD);
+        Number epochDay = document.get(EPOCH_DAY_FIELD, Number.class);
+        if (id == null || scope == null || epochDay == null) {
+            throw new DeserializationException("Missing leaderboard id, scope or day");
+        }
+
+        Map<String, Integer> counts = new HashMap<>();
+        Document countsDoc = document.get(COUNTS_FIELD, Document.class);
+        if (countsDoc != null) {
+            countsDoc.forEach((player, count)-> counts.put(player, ((Number) count).intValue()));
+        }
+
+        //buckets written before windows existed were daily ones, dropped by the next compaction
+        String window = document.getString(WINDOW_FIELD);
+        LeaderboardBucket bucket = new LeaderboardBucket(id, scope,
+                window != null ? LeaderboardWindow.valueOf(window)
+                        : epochDay.longValue() < 0 ? LeaderboardWindow.ALL_TIME : LeaderboardWindow.DAY,
+                epochDay.longValue(), counts);
+        Number version = document.get(VERSION_FIELD, Number.class);
+        bucket.setVersion(version == null ? 0L : version.longValue());
+        return bucket;
+    }
+
+    @Override
+    public boolean canHandle(TypeWrap<?> type) {
+        return type.isSubtypeOf(LeaderboardBucket.class);
+    }
+}
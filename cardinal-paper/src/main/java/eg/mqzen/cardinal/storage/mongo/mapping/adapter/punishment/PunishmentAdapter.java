@@ -44,6 +44,7 @@ public class PunishmentAdapter implements TypeAdapter<Punishment<?>> {
     private static final String EXPIRES_AT_FIELD = "expiresAt";
     private static final String REVOCATION_INFO_FIELD = "revoke-info";
     private static final String NOTES_FIELD = "notes";
+    private static final String VERSION_FIELD = "version";
 
     // Target fields
     private static final String TARGET_TYPE_FIELD = "type";
@@ -91,6 +92,7 @@ public class PunishmentAdapter implements TypeAdapter<Punishment<?>> {
         document.append(REVOCATION_INFO_FIELD, revocationToDoc(value.getRevocationInfo().orElse(null)));
 
         document.append(NOTES_FIELD, value.getNotes());
+        document.append(VERSION_FIELD, value.getVersion());
 
         return document;
     }
@@ -208,9 +210,14 @@ public class PunishmentAdapter implements TypeAdapter<Punishment<?>> {
 
             // Create punishment using builder pattern or constructor
             // Note: You'll need to adjust this based on your actual Punishment implementation
-            return createPunishment(id, type, target, issuer, reason.orElse(null), issuedAt, duration, expiresAt,
+            Punishment<?> punishment = createPunishment(id, type, target, issuer, reason.orElse(null), issuedAt, duration, expiresAt,
                     revocationInfo.orElse(null), notes);
 
+            // documents written before versioning count as version 0
+            Number version = document.get(VERSION_FIELD, Number.class);
+            punishment.setVersion(version == null ? 0L : version.longValue());
+            return punishment;
+
         } catch (Exception e) {
             throw new DeserializationException("Failed to deserialize Punishment", e);
         }
@@ -0,0 +1,124 @@
+package eg.mqzen.cardinal.storage.mongo.mapping.adapter.punishment;
+
+import eg.mqzen.cardinal.punishments.StoredPunishmentStatistics;
+import eg.mqzen.cardinal.storage.mongo.mapping.DeserializationContext;
+import eg.mqzen.cardinal.storage.mongo.mapping.SerializationContext;
+import eg.mqzen.cardinal.storage.mongo.mapping.TypeAdapter;
+import eg.mqzen.cardinal.storage.mongo.mapping.exception.DeserializationException;
+import eg.mqzen.cardinal.storage.mongo.mapping.exception.SerializationException;
+import org.bson.Document;
+import studio.mevera.imperat.util.TypeWrap;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes the per-player statistics with an explicit {@code id} field, the one repositories look entities up by.
+ */
+public class PunishmentStatisticsAdapter implements TypeAdapter<StoredPunishmentStatistics> {
+
+    private static final String ID_FIELD = "id";
+    private static final String TOTAL_FIELD = "total";
+    private static final String ACTIVE_FIELD = "active";
+    private static final String EXPIRED_FIELD = "expired";
+    private static final String REVOKED_FIELD = "revoked";
+    private static final String PERMANENT_FIELD = "permanent";
+    private static final String BY_TYPE_FIELD = "byType";
+    private static final String REVOKED_BY_TYPE_FIELD = "revokedByType";
+    private static final String BY_ISSUER_FIELD = "byIssuer";
+    private static final String ISSUER_NAMES_FIELD = "issuerNames";
+    private static final String TOTAL_DURATION_FIELD = "totalDurationMillis";
+    private static final String FIRST_ISSUED_AT_FIELD = "firstIssuedAt";
+    private static final String LAST_ISSUED_AT_FIELD = "lastIssuedAt";
+    private static final String MOST_RECENT_ACTIVE_FIELD = "mostRecentActiveIssuedAt";
+    private static final String VERSION_FIELD = "version";
+
+    @Override
+    public Object serialize(StoredPunishmentStatistics value, SerializationContext context) throws SerializationException {
+        Document document = new Document();
+        document.append(ID_FIELD, value.getPlayerId());
+        document.append(TOTAL_FIELD, value.getTotal());
+        document.append(ACTIVE_FIELD, value.getActive());
+        document.append(EXPIRED_FIELD, value.getExpired());
+        document.append(REVOKED_FIELD, value.getRevoked());
+        document.append(PERMANENT_FIELD, value.getPermanent());
+        document.append(BY_TYPE_FIELD, new Document(value.getCountByType()));
+        document.append(REVOKED_BY_TYPE_FIELD, new Document(value.getRevokedByType()));
+        document.append(BY_ISSUER_FIELD, new Document(value.getCountByIssuer()));
+        document.append(ISSUER_NAMES_FIELD, new Document(value.getIssuerNames()));
+        document.append(TOTAL_DURATION_FIELD, value.getTotalDurationMillis());
+        document.append(FIRST_ISSUED_AT_FIELD, value.getFirstIssuedAt());
+        document.append(LAST_ISSUED_AT_FIELD, value.getLastIssuedAt());
+        document.append(MOST_RECENT_ACTIVE_FIELD, value.getMostRecentActiveIssuedAt());
+        document.append(VERSION_FIELD, value.getVersion());
+        return document;
+    }
+
+    @Override
+    public StoredPunishmentStatistics deserialize(Object value, TypeWrap<StoredPunishmentStatistics> targetType,
+            DeserializationContext context) throws DeserializationException {
+        if (value == null) {
+            return null;
+        }
+
+        if (!(value instanceof Document document)) {
+            throw new DeserializationException("Expected Document for statistics deserialization, got: " + value.getClass());
+        }
+
+        String playerId = document.getString(ID_FIELD);
+        if (playerId == null) {
+            throw new DeserializationException("Missing statistics player id");
+        }
+
+        try {
+            StoredPunishmentStatistics statistics = new StoredPunishmentStatistics(playerId,
+                    counts(document.get(BY_TYPE_FIELD, Document.class)),
+                    counts(document.get(REVOKED_BY_TYPE_FIELD, Document.class)),
+                    counts(document.get(BY_ISSUER_FIELD, Document.class)),
+                    names(document.get(ISSUER_NAMES_FIELD, Document.class)));
+
+            // numbers read back from MySQL's JSON are ints or longs depending on their magnitude
+            statistics.restoreCounts(
+                    number(document, TOTAL_FIELD).intValue(),
+                    number(document, ACTIVE_FIELD).intValue(),
+                    number(document, EXPIRED_FIELD).intValue(),
+                    number(document, REVOKED_FIELD).intValue(),
+                    number(document, PERMANENT_FIELD).intValue(),
+                    number(document, TOTAL_DURATION_FIELD).longValue(),
+                    number(document, FIRST_ISSUED_AT_FIELD).longValue(),
+                    number(document, LAST_ISSUED_AT_FIELD).longValue(),
+                    number(document, MOST_RECENT_ACTIVE_FIELD).longValue()
+            );
+            statistics.setVersion(number(document, VERSION_FIELD).longValue());
+            return statistics;
+        } catch (Exception e) {
+            throw new DeserializationException("Failed to deserialize statistics of '" + playerId + "'", e);
+        }
+    }
+
+    private static Number number(Document document, String field) {
+        Number number = document.get(field, Number.class);
+        return number == null ? 0L : number;
+    }
+
+    private static Map<String, Integer> counts(Document document) {
+        Map<String, Integer> counts = new HashMap<>();
+        if (document != null) {
+            document.forEach((key, count)-> counts.put(key, ((Number) count).intValue()));
+        }
+        return counts;
+    }
+
+    private static Map<String, String> names(Document document) {
+        Map<String, String> names = new HashMap<>();
+        if (document != null) {
+            document.forEach((key, name)-> names.put(key, String.valueOf(name)));
+        }
+        return names;
+    }
+
+    @Override
+    public boolean canHandle(TypeWrap<?> type) {
+        return type.isSubtypeOf(StoredPunishmentStatistics.class);
+    }
+}
@@ -2,12 +2,13 @@ package eg.mqzen.cardinal.storage.mysql;
 
 import eg.mqzen.cardinal.api.storage.BatchOperation;
 import eg.mqzen.cardinal.api.storage.BatchOperationResult;
+import eg.mqzen.cardinal.api.storage.DBEntity;
 import eg.mqzen.cardinal.api.storage.StorageEvent;
 import eg.mqzen.cardinal.api.storage.StorageException;
 import eg.mqzen.cardinal.api.storage.StorageMetrics;
 import eg.mqzen.cardinal.api.storage.StorageObserver;
+import eg.mqzen.cardinal.api.storage.VersionedEntity;
 import studio.mevera.imperat.util.TypeWrap;
-import tools.jackson.databind.ObjectMapper;
 
 import java.lang.reflect.Field;
 import java.sql.Connection;
@@ -16,31 +17,32 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 
-import javax.sql.DataSource;
-
 /**
  * MySQL implementation of batch operations for efficient bulk operations.
  */
 public class MySQLBatchOperation<T> implements BatchOperation<T> {
 
     private final TypeWrap<T> entityClass;
-    private final DataSource dataSource;
+    private final MySQLTransactionalDataSource dataSource;
     private final String tableName;
-    private final ObjectMapper objectMapper;
+    private final MySQLDocumentCodec<T> codec;
     private final StorageMetrics metrics;
     private final CopyOnWriteArrayList<StorageObserver> observers;
 
     private final List<T> toInsert = new ArrayList<>();
     private final List<T> toUpdate = new ArrayList<>();
     private final List<T> toDelete = new ArrayList<>();
+    private final List<T> toUpsert = new ArrayList<>();
+    //left unwritten because of an error, skipped by the statements
+    private final List<T> failed = new ArrayList<>();
 
-    public MySQLBatchOperation(TypeWrap<T> entityClass, DataSource dataSource, String tableName,
-            ObjectMapper objectMapper, StorageMetrics metrics,
+    public MySQLBatchOperation(TypeWrap<T> entityClass, MySQLTransactionalDataSource dataSource, String tableName,
+            MySQLDocumentCodec<T> codec, StorageMetrics metrics,
             CopyOnWriteArrayList<StorageObserver> observers) {
         this.entityClass = entityClass;
         this.dataSource = dataSource;
         this.tableName = tableName;
-        this.objectMapper = objectMapper;
+        this.codec = codec;
         this.metrics = metrics;
         this.observers = observers;
     }
@@ -57,6 +59,12 @@ public class MySQLBatchOperation<T> implements BatchOperation<T> {
         return this;
     }
 
+    @Override
+    public BatchOperation<T> upsert(T entity) {
+        toUpsert.add(entity);
+        return this;
+    }
+
     @Override
     public BatchOperation<T> delete(T entity) {
         toDelete.add(entity);
@@ -64,9 +72,10 @@ public class MySQLBatchOperation<T> implements BatchOperation<T> {
     }
 
     @Override
-    public BatchOperationResult execute() throws StorageException {
+    public BatchOperationResult<T> execute() throws StorageException {
         long startTime = System.currentTimeMillis();
         List<String> errors = new ArrayList<>();
+        List<T> conflicts = new ArrayList<>();
         int insertedCount = 0;
         int updatedCount = 0;
         int deletedCount = 0;
@@ -81,8 +90,17 @@ public class MySQLBatchOperation<T> implements BatchOperation<T> {
                 }
 
                 // Execute updates
+                List<T> updated = List.of();
                 if (!toUpdate.isEmpty()) {
-                    updatedCount = executeUpdates(conn, errors);
+                    updated = executeUpdates(conn, errors, conflicts);
+                    updatedCount = updated.size();
+                }
+
+                // Execute upserts
+                List<T> upserted = List.of();
+                if (!toUpsert.isEmpty()) {
+                    upserted = executeUpserts(conn, errors);
+                    updatedCount += upserted.size();
                 }
 
                 // Execute deletes
@@ -91,19 +109,30 @@ public class MySQLBatchOperation<T> implements BatchOperation<T> {
                 }
 
                 conn.commit();
+                List<T> written = new ArrayList<>(updated);
+                written.addAll(upserted);
+                // Inside a transaction the commit above is a no-op, the versions only move once it commits
+                if (!dataSource.deferUntilCommit(() -> bumpVersions(written))) {
+                    bumpVersions(written);
+                }
                 metrics.recordOperation("batch", System.currentTimeMillis() - startTime);
+                if (!conflicts.isEmpty()) {
+                    metrics.recordError("batch.conflict");
+                }
 
                 // Notify observers
                 if (insertedCount > 0 || updatedCount > 0 || deletedCount > 0) {
                     List<T> allEntities = new ArrayList<>();
                     allEntities.addAll(toInsert);
-                    allEntities.addAll(toUpdate);
+                    allEntities.addAll(updated);
+                    allEntities.addAll(toUpsert);
                     allEntities.addAll(toDelete);
+                    allEntities.removeAll(failed);
 
                     notifyObservers(new StorageEvent(StorageEvent.Type.BATCH_OPERATION, entityClass, allEntities));
                 }
 
-                return new BatchOperationResult(insertedCount, updatedCount, deletedCount, errors);
+                return new BatchOperationResult<>(insertedCount, updatedCount, deletedCount, errors, conflicts, failed);
 
             } catch (Exception e) {
                 conn.rollback();
@@ -126,14 +155,15 @@ public class MySQLBatchOperation<T> implements BatchOperation<T> {
             for (T entity : toInsert) {
                 try {
                     Object id = extractId(entity);
-                    String json = objectMapper.writeValueAsString(entity);
+                    MySQLDocumentCodec.Encoded json = codec.encode(entity);
 
                     stmt.setString(1, id.toString());
-                    stmt.setString(2, json);
+                    json.bind(stmt, 2);
                     stmt.addBatch();
                     count++;
                 } catch (Exception e) {
                     errors.add("Insert failed for entity: " + e.getMessage());
+                    failed.add(entity);
                 }
             }
 
@@ -144,31 +174,101 @@ public class MySQLBatchOperation<T> implements BatchOperation<T> {
         }
     }
 
-    private int executeUpdates(Connection conn, List<String> errors) throws Exception {
+    /**
+     * {@link VersionedEntity Versioned} entities are only updated if the row still holds their version,
+     * the ones whose row changed (or is gone) being added to the conflicts.
+     *
+     * @return the entities written.
+     */
+    private List<T> executeUpdates(Connection conn, List<String> errors, List<T> conflicts) throws Exception {
         String sql = """
             UPDATE %s SET data = ?, updated_at = CURRENT_TIMESTAMP WHERE id = ?
             """.formatted(tableName);
+        String versionedSql = """
+            UPDATE %s SET data = ?, version = version + 1, updated_at = CURRENT_TIMESTAMP
+            WHERE id = ? AND version = ?
+            """.formatted(tableName);
 
-        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-            int count = 0;
+        try (PreparedStatement stmt = conn.prepareStatement(sql);
+             PreparedStatement versionedStmt = conn.prepareStatement(versionedSql)) {
+            List<T> written = new ArrayList<>();
+            List<T> versionedBatch = new ArrayList<>();
             for (T entity : toUpdate) {
                 try {
                     Object id = extractId(entity);
-                    String json = objectMapper.writeValueAsString(entity);
+                    MySQLDocumentCodec.Encoded json = codec.encode(entity);
+
+                    if (entity instanceof VersionedEntity<?> versioned) {
+                        json.bind(versionedStmt, 1);
+                        versionedStmt.setString(2, id.toString());
+                        versionedStmt.setLong(3, versioned.getVersion());
+                        versionedStmt.addBatch();
+                        versionedBatch.add(entity);
+                    } else {
+                        json.bind(stmt, 1);
+                        stmt.setString(2, id.toString());
+                        stmt.addBatch();
+                        written.add(entity);
+                    }
+                } catch (Exception e) {
+                    errors.add("Update failed for entity: " + e.getMessage());
+                    failed.add(entity);
+                }
+            }
 
-                    stmt.setString(1, json);
-                    stmt.setString(2, id.toString());
+            if (!written.isEmpty()) {
+                stmt.executeBatch();
+            }
+            if (!versionedBatch.isEmpty()) {
+                int[] matched = versionedStmt.executeBatch();
+                for (int i = 0; i < versionedBatch.size(); i++) {
+                    //a count the driver didn't report (SUCCESS_NO_INFO) is taken as matched
+                    if (matched[i] == 0) {
+                        conflicts.add(versionedBatch.get(i));
+                    } else {
+                        written.add(versionedBatch.get(i));
+                    }
+                }
+            }
+            return written;
+        }
+    }
+
+    /**
+     * One multi-row statement once rewritten by the driver ({@code rewriteBatchedStatements}).
+     * A row updated by another writer meanwhile keeps the highest version.
+     *
+     * @return the entities written.
+     */
+    private List<T> executeUpserts(Connection conn, List<String> errors) throws Exception {
+        String sql = """
+            INSERT INTO %s (id, data, version) VALUES (?, ?, ?) AS new
+            ON DUPLICATE KEY UPDATE data = new.data, version = GREATEST(version + 1, new.version), updated_at = CURRENT_TIMESTAMP
+            """.formatted(tableName);
+
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            List<T> written = new ArrayList<>();
+            for (T entity : toUpsert) {
+                try {
+                    Object id = extractId(entity);
+                    MySQLDocumentCodec.Encoded json = codec.encode(entity);
+                    long version = entity instanceof VersionedEntity<?> versioned ? versioned.getVersion() + 1 : 1L;
+
+                    stmt.setString(1, id.toString());
+                    json.bind(stmt, 2);
+                    stmt.setLong(3, version);
                     stmt.addBatch();
-                    count++;
+                    written.add(entity);
                 } catch (Exception e) {
-                    errors.add("Update failed for entity: " + e.getMessage());
+                    errors.add("Upsert failed for entity: " + e.getMessage());
+                    failed.add(entity);
                 }
             }
 
-            if (count > 0) {
+            if (!written.isEmpty()) {
                 stmt.executeBatch();
             }
-            return count;
+            return written;
         }
     }
 
@@ -185,6 +285,7 @@ public class MySQLBatchOperation<T> implements BatchOperation<T> {
                     count++;
                 } catch (Exception e) {
                     errors.add("Delete failed for entity: " + e.getMessage());
+                    failed.add(entity);
                 }
             }
 
@@ -196,6 +297,9 @@ public class MySQLBatchOperation<T> implements BatchOperation<T> {
     }
 
     private Object extractId(T entity) throws Exception {
+        if (entity instanceof DBEntity<?> dbEntity) {
+            return dbEntity.getEntityID();
+        }
         Field idField = findIdField(entityClass.getRawType());
         idField.setAccessible(true);
         return idField.get(entity);
@@ -214,7 +318,24 @@ public class MySQLBatchOperation<T> implements BatchOperation<T> {
         }
     }
 
+    /**
+     * Observers learn about the writes of a transaction once it committed, and never about rolled back ones.
+     */
+    private void bumpVersions(List<T> written) {
+        for (T entity : written) {
+            if (entity instanceof VersionedEntity<?> versioned) {
+                versioned.setVersion(versioned.getVersion() + 1);
+            }
+        }
+    }
+
     private void notifyObservers(StorageEvent event) {
+        if (!dataSource.deferUntilCommit(() -> dispatch(event))) {
+            dispatch(event);
+        }
+    }
+
+    private void dispatch(StorageEvent event) {
         for (StorageObserver observer : observers) {
             try {
                 observer.onStorageEvent(event);
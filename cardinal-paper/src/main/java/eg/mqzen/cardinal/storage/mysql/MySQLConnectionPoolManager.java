@@ -42,6 +42,8 @@ public class MySQLConnectionPoolManager {
         hikariConfig.addDataSourceProperty("cacheServerConfiguration", "true");
         hikariConfig.addDataSourceProperty("elideSetAutoCommits", "true");
         hikariConfig.addDataSourceProperty("maintainTimeStats", "false");
+        //statements with a fetch size read through a server-side cursor, the others are unaffected
+        hikariConfig.addDataSourceProperty("useCursorFetch", "true");
         
         // Connection validation
         hikariConfig.setConnectionTestQuery("SELECT 1");
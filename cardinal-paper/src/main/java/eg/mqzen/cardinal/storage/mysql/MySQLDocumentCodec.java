@@ -0,0 +1,85 @@
+package eg.mqzen.cardinal.storage.mysql;
+
+import eg.mqzen.cardinal.api.punishments.Punishment;
+import eg.mqzen.cardinal.storage.mongo.mapping.DocumentMapper;
+import eg.mqzen.cardinal.storage.mongo.mapping.exception.DeserializationException;
+import eg.mqzen.cardinal.storage.mongo.mapping.exception.SerializationException;
+import org.bson.Document;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonWriterSettings;
+import studio.mevera.imperat.util.TypeWrap;
+
+import java.io.CharArrayReader;
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Converts entities to and from the JSON stored in the {@code data} column.
+ * Entities are written through the same type adapters as the Mongo engine, so both engines share
+ * one document layout, the one {@link MySQLIndexedSchema} extracts its columns from.
+ * Punishments skip the adapters and go through the streaming {@link MySQLPunishmentCodec}.
+ */
+public final class MySQLDocumentCodec<T> {
+
+    //plain JSON numbers instead of {"$numberLong": ...}, so JSON_EXTRACT reads them as numbers.
+    private static final JsonWriterSettings JSON_SETTINGS = JsonWriterSettings.builder()
+            .outputMode(JsonMode.RELAXED)
+            .build();
+
+    private final DocumentMapper<T> mapper;
+    private final boolean punishments;
+
+    public MySQLDocumentCodec(TypeWrap<T> entityClass) {
+        this.mapper = new DocumentMapper<>(entityClass);
+        this.punishments = Punishment.class.isAssignableFrom(entityClass.getRawType());
+    }
+
+    public Encoded encode(T entity) throws SerializationException {
+        Encoded encoded = new Encoded();
+        if (punishments) {
+            MySQLPunishmentCodec.write((Punishment<?>) entity, encoded);
+        } else {
+            encoded.append(mapper.toDocument(entity).toJson(JSON_SETTINGS));
+        }
+        return encoded;
+    }
+
+    /**
+     * @param in the column's character stream, closed once read.
+     */
+    @SuppressWarnings("unchecked")
+    public T decode(Reader in) throws DeserializationException {
+        if (punishments) {
+            return (T) MySQLPunishmentCodec.read(in);
+        }
+
+        try (Reader reader = in) {
+            StringBuilder json = new StringBuilder();
+            char[] chunk = new char[1024];
+            int read;
+            while ((read = reader.read(chunk)) != -1) {
+                json.append(chunk, 0, read);
+            }
+            return mapper.fromDocument(Document.parse(json.toString()));
+        } catch (IOException e) {
+            throw new DeserializationException("Failed to read document", e);
+        }
+    }
+
+    /**
+     * An encoded document, bound to statements as a character stream over its buffer without copying it.
+     */
+    public static final class Encoded extends CharArrayWriter {
+
+        private Encoded() {
+            super(512);
+        }
+
+        public void bind(PreparedStatement stmt, int index) throws SQLException {
+            stmt.setCharacterStream(index, new CharArrayReader(buf, 0, count), count);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package eg.mqzen.cardinal.storage.mysql;
+
+import eg.mqzen.cardinal.api.punishments.Punishment;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The STORED generated columns extracted from the {@code data} JSON of a table, and the indexes built on them.
+ * Predicates and sorts on a field backed by a column are compiled against the column instead of
+ * {@code JSON_EXTRACT}, so they can use the indexes.
+ */
+public final class MySQLIndexedSchema {
+
+    /**
+     * No generated columns, every predicate reads the JSON document.
+     */
+    public static final MySQLIndexedSchema NONE = new MySQLIndexedSchema(List.of(), List.of());
+
+    /**
+     * Columns of the punishment document layout (the one written by the Mongo {@code PunishmentAdapter}).
+     */
+    public static final MySQLIndexedSchema PUNISHMENTS = new MySQLIndexedSchema(
+            List.of(
+                    Column.string("target_uuid", 36, "$.target.uuid", "target.uuid", "target"),
+                    Column.string("target_type", 16, "$.target.type", "target.type", "targetType"),
+                    Column.string("punishment_type", 16, "$.type", "type"),
+                    Column.string("issuer_uuid", 36, "$.issuer.uuid", "issuer.uuid", "issuer"),
+                    Column.epochMillis("issued_at", "$.issuedAt", "issuedAt"),
+                    Column.epochMillis("expires_at", "$.expiresAt", "expiresAt"),
+                    new Column("revoked",
+                            "TINYINT(1) GENERATED ALWAYS AS (COALESCE(JSON_TYPE(JSON_EXTRACT(data, '$.\"revoke-info\"')) = 'OBJECT', 0)) STORED",
+                            List.of("revoke-info"), true)
+            ),
+            List.of(
+                    //active lookups: target.uuid IN (...) AND revoke-info IS NULL
+                    new Index("idx_target_active", "target_uuid, revoked, expires_at"),
+                    //history of a target, newest first
+                    new Index("idx_target_issued", "target_uuid, issued_at"),
+                    //loading every active punishment at startup
+                    new Index("idx_active_expiry", "revoked, expires_at"),
+                    //keyset pages of the startup load, the primary key completing the (issued_at, id) order
+                    new Index("idx_active_issued", "revoked, issued_at"),
+                    new Index("idx_issuer_issued", "issuer_uuid, issued_at"),
+                    new Index("idx_type_issued", "punishment_type, issued_at"),
+                    //startup load of a type in the single-table layout
+                    new Index("idx_type_active", "punishment_type, revoked, issued_at"),
+                    new Index("idx_issued", "issued_at")
+            )
+    );
+
+    private final List<Column> columns;
+    private final List<Index> indexes;
+    private final Map<String, Column> columnsByField = new HashMap<>();
+
+    /**
+     * @param columns the generated columns.
+     * @param indexes the indexes, named so they can be created only when missing.
+     */
+    public MySQLIndexedSchema(List<Column> columns, List<Index> indexes) {
+        this.columns = columns;
+        this.indexes = indexes;
+        for(Column column : columns) {
+            for(String field : column.fields()) {
+                columnsByField.put(field, column);
+            }
+        }
+    }
+
+    public static MySQLIndexedSchema of(Class<?> entityClass) {
+        return Punishment.class.isAssignableFrom(entityClass) ? PUNISHMENTS : NONE;
+    }
+
+    /**
+     * @return the column backing the document field, or null if it's only reachable through the JSON.
+     */
+    public @Nullable Column columnOf(String field) {
+        return columnsByField.get(field);
+    }
+
+    public List<Column> columns() {
+        return columns;
+    }
+
+    public List<Index> indexes() {
+        return indexes;
+    }
+
+    /**
+     * A generated column.
+     *
+     * @param name       the column name.
+     * @param definition the column type and generation expression.
+     * @param fields     the document fields (as passed to {@code QueryBuilder.where}) the column holds.
+     * @param presence   true if the column tells whether the field is set (e.g. revoked for revoke-info)
+     *                   rather than holding its value, so only null checks can be routed to it.
+     */
+    public record Column(String name, String definition, List<String> fields, boolean presence) {
+
+        static Column string(String name, int length, String path, String... fields) {
+            return new Column(name,
+                    "VARCHAR(%d) GENERATED ALWAYS AS (JSON_UNQUOTE(JSON_EXTRACT(data, '%s'))) STORED".formatted(length, path),
+                    List.of(fields), false);
+        }
+
+        static Column epochMillis(String name, String path, String... fields) {
+            //JSON null must not reach the CAST
+            return new Column(name,
+                    ("BIGINT GENERATED ALWAYS AS (IF(JSON_TYPE(JSON_EXTRACT(data, '%1$s')) = 'NULL', NULL, "
+                            + "CAST(JSON_UNQUOTE(JSON_EXTRACT(data, '%1$s')) AS SIGNED))) STORED").formatted(path),
+                    List.of(fields), false);
+        }
+    }
+
+    public record Index(String name, String columns) {}
+}
@@ -0,0 +1,327 @@
+package eg.mqzen.cardinal.storage.mysql;
+
+import eg.mqzen.cardinal.api.punishments.IssuerType;
+import eg.mqzen.cardinal.api.punishments.Punishable;
+import eg.mqzen.cardinal.api.punishments.PunishableType;
+import eg.mqzen.cardinal.api.punishments.Punishment;
+import eg.mqzen.cardinal.api.punishments.PunishmentIssuer;
+import eg.mqzen.cardinal.api.punishments.PunishmentType;
+import eg.mqzen.cardinal.api.punishments.StandardPunishmentType;
+import eg.mqzen.cardinal.punishments.core.StandardPunishment;
+import eg.mqzen.cardinal.punishments.core.StandardPunishmentID;
+import eg.mqzen.cardinal.punishments.issuer.ConsoleIssuer;
+import eg.mqzen.cardinal.punishments.issuer.PunishmentIssuerFactory;
+import eg.mqzen.cardinal.punishments.target.PunishmentTargetFactory;
+import eg.mqzen.cardinal.storage.mongo.mapping.exception.DeserializationException;
+import eg.mqzen.cardinal.storage.mongo.mapping.exception.SerializationException;
+import eg.mqzen.cardinal.util.TimeUtil;
+import tools.jackson.core.JacksonException;
+import tools.jackson.core.JsonGenerator;
+import tools.jackson.core.JsonParser;
+import tools.jackson.core.JsonToken;
+import tools.jackson.core.json.JsonFactory;
+
+import java.io.Reader;
+import java.io.Writer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Hand-written streaming codec of punishments, token by token straight from/to the JDBC character streams.
+ * Writes the exact document layout of the Mongo {@code PunishmentAdapter}, without building an intermediate
+ * {@code Document}, JSON string or tree, nor reflecting over the punishment.
+ */
+final class MySQLPunishmentCodec {
+
+    //thread-safe, and expensive to create.
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    private static final String ID_FIELD = "id";
+    private static final String TYPE_FIELD = "type";
+    private static final String TARGET_FIELD = "target";
+    private static final String ISSUER_FIELD = "issuer";
+    private static final String REASON_FIELD = "reason";
+    private static final String ISSUED_AT_FIELD = "issuedAt";
+    private static final String DURATION_FIELD = "duration";
+    private static final String EXPIRES_AT_FIELD = "expiresAt";
+    private static final String REVOCATION_INFO_FIELD = "revoke-info";
+    private static final String NOTES_FIELD = "notes";
+    private static final String VERSION_FIELD = "version";
+
+    private static final String UUID_FIELD = "uuid";
+    private static final String NAME_FIELD = "name";
+    private static final String TARGET_IP_FIELD = "ipAddress";
+    private static final String TARGET_LAST_SEEN_FIELD = "lastSeen";
+    private static final String TARGET_PLAYER_DATA_FIELD = "playerData";
+
+    private static final String REVOKER_UUID_FIELD = "revokerUUID";
+    private static final String REVOKER_NAME_FIELD = "revokerName";
+    private static final String REVOKED_AT_FIELD = "revokedAt";
+    private static final String REVOKE_REASON_FIELD = "revokeReason";
+
+    private MySQLPunishmentCodec() {
+        throw new UnsupportedOperationException();
+    }
+
+    static void write(Punishment<?> punishment, Writer out) throws SerializationException {
+        try (JsonGenerator gen = FACTORY.createGenerator(out)) {
+            gen.writeStartObject();
+            gen.writeStringProperty(ID_FIELD, punishment.getId().getRepresentation());
+            gen.writeStringProperty(TYPE_FIELD, punishment.getType().name());
+
+            gen.writeName(TARGET_FIELD);
+            writeTarget(gen, punishment.getTarget());
+            gen.writeName(ISSUER_FIELD);
+            writeIssuer(gen, punishment.getIssuer());
+
+            String reason = punishment.getReason().orElse(null);
+            if (reason != null) {
+                gen.writeStringProperty(REASON_FIELD, reason);
+            }
+
+            gen.writeNumberProperty(ISSUED_AT_FIELD, punishment.getIssuedAt().toEpochMilli());
+            gen.writeStringProperty(DURATION_FIELD, TimeUtil.parse(punishment.getDuration()));
+            Instant expiresAt = punishment.getExpiresAt();
+            if (punishment.isPermanent() || expiresAt == null) {
+                gen.writeNullProperty(EXPIRES_AT_FIELD);
+            } else {
+                gen.writeNumberProperty(EXPIRES_AT_FIELD, expiresAt.toEpochMilli());
+            }
+
+            Punishment.RevocationInfo revocation = punishment.getRevocationInfo().orElse(null);
+            if (revocation == null) {
+                gen.writeNullProperty(REVOCATION_INFO_FIELD);
+            } else {
+                gen.writeName(REVOCATION_INFO_FIELD);
+                writeRevocation(gen, revocation);
+            }
+
+            gen.writeName(NOTES_FIELD);
+            gen.writeStartArray();
+            for (String note : punishment.getNotes()) {
+                gen.writeString(note);
+            }
+            gen.writeEndArray();
+
+            gen.writeNumberProperty(VERSION_FIELD, punishment.getVersion());
+            gen.writeEndObject();
+        } catch (JacksonException e) {
+            throw new SerializationException("Failed to write punishment " + punishment.getId().getRepresentation(), e);
+        }
+    }
+
+    private static void writeTarget(JsonGenerator gen, Punishable<?> target) {
+        gen.writeStartObject();
+        gen.writeStringProperty(TYPE_FIELD, target.getType().name());
+        gen.writeStringProperty(UUID_FIELD, target.getTargetUUID().toString());
+        gen.writeStringProperty(NAME_FIELD, target.getTargetName());
+        if (target.getLastSeen() != null) {
+            gen.writeNumberProperty(TARGET_LAST_SEEN_FIELD, target.getLastSeen().toEpochMilli());
+        }
+
+        if (target.getType() == PunishableType.IP_ADDRESS) {
+            String ipAddress = (String) target.getTarget();
+            gen.writeStringProperty(TARGET_IP_FIELD, ipAddress);
+            //the name differs from the ip only if the target has player data
+            if (!target.getTargetName().equals(ipAddress)) {
+                gen.writeName(TARGET_PLAYER_DATA_FIELD);
+                gen.writeStartObject();
+                gen.writeStringProperty(UUID_FIELD, target.getTargetUUID().toString());
+                gen.writeStringProperty(NAME_FIELD, target.getTargetName());
+                gen.writeEndObject();
+            }
+        }
+        gen.writeEndObject();
+    }
+
+    private static void writeIssuer(JsonGenerator gen, PunishmentIssuer issuer) {
+        gen.writeStartObject();
+        gen.writeStringProperty(TYPE_FIELD, issuer.getType().name());
+        gen.writeStringProperty(NAME_FIELD, issuer.getName());
+        if (issuer.isPlayer()) {
+            gen.writeStringProperty(UUID_FIELD, issuer.getUniqueId().toString());
+        }
+        gen.writeEndObject();
+    }
+
+    private static void writeRevocation(JsonGenerator gen, Punishment.RevocationInfo revocation) {
+        gen.writeStartObject();
+        if (revocation.getRevoker().isPlayer()) {
+            gen.writeStringProperty(REVOKER_UUID_FIELD, revocation.getRevoker().getUniqueId().toString());
+        }
+        gen.writeStringProperty(REVOKER_NAME_FIELD, revocation.getRevoker().getName());
+        gen.writeNumberProperty(REVOKED_AT_FIELD, revocation.getRevokedAt().toEpochMilli());
+        gen.writeStringProperty(REVOKE_REASON_FIELD, revocation.getReason());
+        gen.writeEndObject();
+    }
+
+    static Punishment<?> read(Reader in) throws DeserializationException {
+        try (JsonParser parser = FACTORY.createParser(in)) {
+            expect(parser.nextToken(), JsonToken.START_OBJECT);
+
+            String id = null, type = null, reason = null, duration = null;
+            Punishable<?> target = null;
+            PunishmentIssuer issuer = null;
+            Long issuedAt = null, expiresAt = null;
+            Punishment.RevocationInfo revocation = null;
+            List<String> notes = new ArrayList<>();
+            long version = 0;
+
+            String field;
+            while ((field = parser.nextName()) != null) {
+                JsonToken value = parser.nextToken();
+                if (value == JsonToken.VALUE_NULL) {
+                    continue;
+                }
+                switch (field) {
+                    case ID_FIELD -> id = parser.getString();
+                    case TYPE_FIELD -> type = parser.getString();
+                    case TARGET_FIELD -> target = readTarget(parser);
+                    case ISSUER_FIELD -> issuer = readIssuer(parser);
+                    case REASON_FIELD -> reason = parser.getString();
+                    case ISSUED_AT_FIELD -> issuedAt = parser.getLongValue();
+                    case DURATION_FIELD -> duration = parser.getString();
+                    case EXPIRES_AT_FIELD -> expiresAt = parser.getLongValue();
+                    case REVOCATION_INFO_FIELD -> revocation = readRevocation(parser);
+                    case NOTES_FIELD -> {
+                        while (parser.nextToken() != JsonToken.END_ARRAY) {
+                            notes.add(parser.getString());
+                        }
+                    }
+                    case VERSION_FIELD -> version = parser.getLongValue();
+                    default -> parser.skipChildren();
+                }
+            }
+
+            if (id == null || type == null || target == null || issuer == null || issuedAt == null || duration == null) {
+                throw new DeserializationException("Incomplete punishment document " + id);
+            }
+
+            PunishmentType punishmentType = StandardPunishmentType.valueOf(type);
+            StandardPunishment<?> punishment = new StandardPunishment<>(new StandardPunishmentID(id), punishmentType, target, issuer,
+                    reason, Instant.ofEpochMilli(issuedAt), duration.isEmpty() ? Duration.ZERO : TimeUtil.parse(duration),
+                    expiresAt == null ? null : Instant.ofEpochMilli(expiresAt));
+            punishment.setRevokeInfo(revocation);
+            punishment.setNotesTo(notes);
+            punishment.setVersion(version);
+            return punishment;
+        } catch (JacksonException | IllegalArgumentException e) {
+            throw new DeserializationException("Failed to read punishment", e);
+        }
+    }
+
+    private static Punishable<?> readTarget(JsonParser parser) throws DeserializationException {
+        String type = null, uuid = null, name = null, ipAddress = null, playerUuid = null, playerName = null;
+
+        String field;
+        while ((field = parser.nextName()) != null) {
+            if (parser.nextToken() == JsonToken.VALUE_NULL) {
+                continue;
+            }
+            switch (field) {
+                case TYPE_FIELD -> type = parser.getString();
+                case UUID_FIELD -> uuid = parser.getString();
+                case NAME_FIELD -> name = parser.getString();
+                case TARGET_IP_FIELD -> ipAddress = parser.getString();
+                case TARGET_PLAYER_DATA_FIELD -> {
+                    String playerField;
+                    while ((playerField = parser.nextName()) != null) {
+                        parser.nextToken();
+                        switch (playerField) {
+                            case UUID_FIELD -> playerUuid = parser.getString();
+                            case NAME_FIELD -> playerName = parser.getString();
+                            default -> parser.skipChildren();
+                        }
+                    }
+                }
+                default -> parser.skipChildren();
+            }
+        }
+
+        if (type == null) {
+            throw new DeserializationException("Missing target type");
+        }
+        return switch (PunishableType.valueOf(type)) {
+            case PLAYER -> {
+                if (uuid == null || name == null) {
+                    throw new DeserializationException("Missing UUID or name for PlayerTarget");
+                }
+                yield PunishmentTargetFactory.playerTarget(UUID.fromString(uuid), name);
+            }
+            case IP_ADDRESS -> {
+                if (ipAddress == null) {
+                    throw new DeserializationException("Missing IP address for IPTarget");
+                }
+                if (playerUuid != null && playerName != null) {
+                    yield PunishmentTargetFactory.playerIPTarget(UUID.fromString(playerUuid), playerName, ipAddress);
+                }
+                yield PunishmentTargetFactory.ipTarget(ipAddress);
+            }
+            default -> throw new DeserializationException("Unsupported target type: " + type);
+        };
+    }
+
+    private static PunishmentIssuer readIssuer(JsonParser parser) throws DeserializationException {
+        String type = null, uuid = null, name = null;
+
+        String field;
+        while ((field = parser.nextName()) != null) {
+            if (parser.nextToken() == JsonToken.VALUE_NULL) {
+                continue;
+            }
+            switch (field) {
+                case TYPE_FIELD -> type = parser.getString();
+                case UUID_FIELD -> uuid = parser.getString();
+                case NAME_FIELD -> name = parser.getString();
+                default -> parser.skipChildren();
+            }
+        }
+
+        if (type == null) {
+            throw new DeserializationException("Missing issuer type");
+        }
+        if (IssuerType.valueOf(type) == IssuerType.CONSOLE) {
+            return ConsoleIssuer.get();
+        }
+        if (uuid == null || name == null) {
+            throw new DeserializationException("Missing UUID or name for PlayerIssuer");
+        }
+        return PunishmentIssuerFactory.fromPlayerInfo(UUID.fromString(uuid), name);
+    }
+
+    private static Punishment.RevocationInfo readRevocation(JsonParser parser) throws DeserializationException {
+        String revokerUuid = null, revokerName = null, reason = null;
+        Long revokedAt = null;
+
+        String field;
+        while ((field = parser.nextName()) != null) {
+            if (parser.nextToken() == JsonToken.VALUE_NULL) {
+                continue;
+            }
+            switch (field) {
+                case REVOKER_UUID_FIELD -> revokerUuid = parser.getString();
+                case REVOKER_NAME_FIELD -> revokerName = parser.getString();
+                case REVOKED_AT_FIELD -> revokedAt = parser.getLongValue();
+                case REVOKE_REASON_FIELD -> reason = parser.getString();
+                default -> parser.skipChildren();
+            }
+        }
+
+        if (revokerName == null || revokedAt == null) {
+            throw new DeserializationException("Missing revocation data");
+        }
+        PunishmentIssuer revoker = revokerUuid != null
+                ? PunishmentIssuerFactory.fromPlayerInfo(UUID.fromString(revokerUuid), revokerName)
+                : PunishmentIssuerFactory.fromConsole();
+        return new StandardPunishment.StandardRevocationInfo(revoker, Instant.ofEpochMilli(revokedAt), reason);
+    }
+
+    private static void expect(JsonToken actual, JsonToken expected) throws DeserializationException {
+        if (actual != expected) {
+            throw new DeserializationException("Expected " + expected + " but got " + actual);
+        }
+    }
+}
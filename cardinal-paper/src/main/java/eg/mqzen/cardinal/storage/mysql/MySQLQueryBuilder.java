@@ -1,33 +1,47 @@
 package eg.mqzen.cardinal.storage.mysql;
 
+import eg.mqzen.cardinal.api.storage.Page;
 import eg.mqzen.cardinal.api.storage.QueryBuilder;
 import eg.mqzen.cardinal.api.storage.StorageException;
 import eg.mqzen.cardinal.api.storage.StorageMetrics;
-import studio.mevera.imperat.util.TypeWrap;
-import tools.jackson.databind.ObjectMapper;
+import eg.mqzen.cardinal.api.storage.UncheckedStorageException;
+import eg.mqzen.cardinal.api.storage.VersionedEntity;
+import eg.mqzen.cardinal.storage.KeysetQuery;
+import eg.mqzen.cardinal.storage.PageCursor;
+import eg.mqzen.cardinal.storage.mongo.mapping.exception.DeserializationException;
+import org.jetbrains.annotations.Nullable;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Types;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import javax.sql.DataSource;
 
 /**
  * MySQL implementation of the QueryBuilder interface.
- * Uses JSON path expressions for querying JSON data stored in MySQL.
+ * Fields backed by a generated column of the {@link MySQLIndexedSchema} are compiled against that column,
+ * so the query can use its indexes; any other field falls back to a JSON path expression on the document.
  */
-public class MySQLQueryBuilder<T> implements QueryBuilder<T> {
+public class MySQLQueryBuilder<T> implements QueryBuilder<T>, KeysetQuery<T> {
     
-    private final TypeWrap<T> entityClass;
     private final DataSource dataSource;
     private final String tableName;
-    private final ObjectMapper objectMapper;
+    private final MySQLDocumentCodec<T> codec;
+    private final MySQLIndexedSchema schema;
     private final StorageMetrics metrics;
     
     private final StringBuilder whereClause = new StringBuilder();
@@ -36,13 +50,16 @@ public class MySQLQueryBuilder<T> implements QueryBuilder<T> {
     private String orderBy;
     private Integer limitValue;
     private Integer skipValue;
+    private String keyField;
+    private QueryBuilder.SortOrder keyOrder;
+    private PageCursor afterCursor;
     
-    public MySQLQueryBuilder(TypeWrap<T> entityClass, DataSource dataSource, String tableName,
-                            ObjectMapper objectMapper, StorageMetrics metrics) {
-        this.entityClass = entityClass;
+    public MySQLQueryBuilder(DataSource dataSource, String tableName, MySQLDocumentCodec<T> codec,
+                            MySQLIndexedSchema schema, StorageMetrics metrics) {
         this.dataSource = dataSource;
         this.tableName = tableName;
-        this.objectMapper = objectMapper;
+        this.codec = codec;
+        this.schema = schema;
         this.metrics = metrics;
     }
     
@@ -54,50 +71,60 @@ public class MySQLQueryBuilder<T> implements QueryBuilder<T> {
     
     @Override
     public QueryBuilder<T> eq(Object value) {
-        addCondition("JSON_EXTRACT(data, '$.%s') = ?".formatted(currentField), value);
+        if (value == null) {
+            addCondition(nullCheck(currentField, true));
+        } else {
+            addCondition("%s = ?".formatted(operand(currentField)), value);
+        }
         return this;
     }
     
     @Override
     public QueryBuilder<T> ne(Object value) {
-        addCondition("JSON_EXTRACT(data, '$.%s') != ?".formatted(currentField), value);
+        if (value == null) {
+            addCondition(nullCheck(currentField, false));
+        } else {
+            addCondition("%s != ?".formatted(operand(currentField)), value);
+        }
         return this;
     }
     
     @Override
     public QueryBuilder<T> gt(Object value) {
-        addCondition("JSON_EXTRACT(data, '$.%s') > ?".formatted(currentField), value);
+        addCondition("%s > ?".formatted(operand(currentField)), value);
         return this;
     }
     
     @Override
     public QueryBuilder<T> gte(Object value) {
-        addCondition("JSON_EXTRACT(data, '$.%s') >= ?".formatted(currentField), value);
+        addCondition("%s >= ?".formatted(operand(currentField)), value);
         return this;
     }
     
     @Override
     public QueryBuilder<T> lt(Object value) {
-        addCondition("JSON_EXTRACT(data, '$.%s') < ?".formatted(currentField), value);
+        addCondition("%s < ?".formatted(operand(currentField)), value);
         return this;
     }
     
     @Override
     public QueryBuilder<T> lte(Object value) {
-        addCondition("JSON_EXTRACT(data, '$.%s') <= ?".formatted(currentField), value);
+        addCondition("%s <= ?".formatted(operand(currentField)), value);
         return this;
     }
     
     @Override
     public QueryBuilder<T> in(List<Object> values) {
         String placeholders = String.join(",", Collections.nCopies(values.size(), "?"));
-        addCondition("JSON_EXTRACT(data, '$.%s') IN (%s)".formatted(currentField, placeholders), values);
+        addCondition("%s IN (%s)".formatted(operand(currentField), placeholders), values);
         return this;
     }
     
     @Override
     public QueryBuilder<T> like(String pattern) {
-        addCondition("JSON_UNQUOTE(JSON_EXTRACT(data, '$.%s')) LIKE ?".formatted(currentField), pattern);
+        MySQLIndexedSchema.Column column = valueColumn(currentField);
+        String operand = column != null ? column.name() : "JSON_UNQUOTE(%s)".formatted(jsonExtract(currentField));
+        addCondition("%s LIKE ?".formatted(operand), pattern);
         return this;
     }
     
@@ -125,7 +152,9 @@ public class MySQLQueryBuilder<T> implements QueryBuilder<T> {
     
     @Override
     public QueryBuilder<T> sortBy(Class<?> sortEntityTypeClass, String field, QueryBuilder.SortOrder order) {
-        this.orderBy = "JSON_EXTRACT(data, '$.%s') %s".formatted(field, order.name());
+        this.orderBy = "%s %s".formatted(operand(field), order.name());
+        this.keyField = field;
+        this.keyOrder = order;
         return this;
     }
     
@@ -140,12 +169,97 @@ public class MySQLQueryBuilder<T> implements QueryBuilder<T> {
         this.skipValue = skip;
         return this;
     }
+
+    @Override
+    public QueryBuilder<T> after(@Nullable String cursor) {
+        this.afterCursor = PageCursor.decode(cursor);
+        return this;
+    }
+
+    @Override
+    public Page<T> page(int size) throws StorageException {
+        if (size < 1) {
+            throw new IllegalArgumentException("Page size must be positive, got " + size);
+        }
+        return KeysetQuery.toPage(seek(size + 1), size);
+    }
+
+    @Override
+    public CompletableFuture<Page<T>> pageAsync(int size) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return page(size);
+            } catch (StorageException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    /**
+     * Runs the conditions plus a seek predicate on (key, id) instead of an OFFSET.
+     * Secondary indexes carry the primary key, so an index on the key column (e.g. idx_issued or
+     * idx_target_issued for issued_at) is already ordered by (key, id) and read from the cursor on.
+     */
+    @Override
+    public List<Row<T>> seek(int limit) throws StorageException {
+        QueryBuilder.SortOrder order = keyOrder();
+        String key = numericOperand(keyField);
+        String direction = order.name();
+
+        StringBuilder sql = new StringBuilder("SELECT data, version, id, %s AS page_key FROM %s".formatted(key, tableName));
+        List<Object> params = new ArrayList<>();
+        String where = whereClause.isEmpty() ? null : "(" + whereClause + ")";
+        params.addAll(parameters);
+        if (afterCursor != null) {
+            String operator = order == QueryBuilder.SortOrder.ASC ? ">" : "<";
+            String seek = "(%1$s %2$s ? OR (%1$s = ? AND id %2$s ?))".formatted(key, operator);
+            where = where == null ? seek : where + " AND " + seek;
+            params.add(afterCursor.key());
+            params.add(afterCursor.key());
+            params.add(afterCursor.id());
+        }
+        if (where != null) {
+            sql.append(" WHERE ").append(where);
+        }
+        sql.append(" ORDER BY %s %s, id %s LIMIT %d".formatted(key, direction, direction, limit));
+
+        long startTime = System.currentTimeMillis();
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+            setParameters(stmt, params);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                List<Row<T>> rows = new ArrayList<>();
+                while (rs.next()) {
+                    T entity = codec.decode(rs.getCharacterStream("data"));
+                    if (entity instanceof VersionedEntity<?> versioned) {
+                        versioned.setVersion(rs.getLong("version"));
+                    }
+                    rows.add(new Row<>(entity, new PageCursor(rs.getLong("page_key"), rs.getString("id"))));
+                }
+
+                metrics.recordOperation("page", System.currentTimeMillis() - startTime);
+                return rows;
+            }
+        } catch (Exception e) {
+            metrics.recordError("page");
+            throw new StorageException("Failed to execute page query", e);
+        }
+    }
+
+    @Override
+    public QueryBuilder.SortOrder keyOrder() {
+        if (keyField == null) {
+            throw new IllegalStateException("Keyset pagination requires a sort field");
+        }
+        return keyOrder;
+    }
     
     @Override
     public List<T> execute() throws StorageException {
         long startTime = System.currentTimeMillis();
         try (Connection conn = dataSource.getConnection()) {
-            String sql = buildQuery("SELECT data FROM %s".formatted(tableName));
+            String sql = buildQuery("SELECT data, version FROM %s".formatted(tableName));
             
             try (PreparedStatement stmt = conn.prepareStatement(sql)) {
                 setParameters(stmt);
@@ -153,8 +267,10 @@ public class MySQLQueryBuilder<T> implements QueryBuilder<T> {
                 try (ResultSet rs = stmt.executeQuery()) {
                     List<T> results = new ArrayList<>();
                     while (rs.next()) {
-                        String json = rs.getString("data");
-                        T entity = (T) objectMapper.readValue(json, entityClass.getRawType());
+                        T entity = codec.decode(rs.getCharacterStream("data"));
+                        if (entity instanceof VersionedEntity<?> versioned) {
+                            versioned.setVersion(rs.getLong("version"));
+                        }
                         results.add(entity);
                     }
                     
@@ -169,6 +285,82 @@ public class MySQLQueryBuilder<T> implements QueryBuilder<T> {
         }
     }
     
+    /**
+     * Streams over a server-side cursor (the pool enables {@code useCursorFetch}), the driver fetching
+     * {@code batchSize} rows per round trip instead of buffering the whole result set.
+     * The connection stays borrowed until the stream is closed.
+     */
+    @Override
+    public Stream<T> stream(int batchSize) throws StorageException {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive, got " + batchSize);
+        }
+
+        long startTime = System.currentTimeMillis();
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet rs;
+        try {
+            conn = dataSource.getConnection();
+            stmt = conn.prepareStatement(buildQuery("SELECT data, version FROM %s".formatted(tableName)),
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            stmt.setFetchSize(batchSize);
+            setParameters(stmt);
+            rs = stmt.executeQuery();
+        } catch (SQLException e) {
+            closeQuietly(stmt, conn);
+            metrics.recordError("stream");
+            throw new StorageException("Failed to execute query", e);
+        }
+
+        Connection connection = conn;
+        PreparedStatement statement = stmt;
+        Spliterator<T> spliterator = new Spliterators.AbstractSpliterator<>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super T> action) {
+                try {
+                    if (!rs.next()) {
+                        return false;
+                    }
+                    T entity = codec.decode(rs.getCharacterStream("data"));
+                    if (entity instanceof VersionedEntity<?> versioned) {
+                        versioned.setVersion(rs.getLong("version"));
+                    }
+                    action.accept(entity);
+                    return true;
+                } catch (SQLException | DeserializationException e) {
+                    metrics.recordError("stream");
+                    throw new UncheckedStorageException(new StorageException("Failed to read the query results", e));
+                }
+            }
+        };
+
+        return StreamSupport.stream(spliterator, false).onClose(() -> {
+            closeQuietly(statement, connection);
+            metrics.recordOperation("stream", System.currentTimeMillis() - startTime);
+        });
+    }
+
+    /**
+     * Closing the statement closes its result set too.
+     */
+    private static void closeQuietly(PreparedStatement stmt, Connection conn) {
+        try {
+            if (stmt != null) {
+                stmt.close();
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        try {
+            if (conn != null) {
+                conn.close();
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
     @Override
     public CompletableFuture<List<T>> executeAsync() {
         return CompletableFuture.supplyAsync(() -> {
@@ -213,17 +405,69 @@ public class MySQLQueryBuilder<T> implements QueryBuilder<T> {
     }
     
     private void addCondition(String condition, Object value) {
-        if (!whereClause.isEmpty() && !whereClause.toString().endsWith(" AND ") && !whereClause.toString().endsWith(" OR ")) {
-            whereClause.append(" AND ");
-        }
-        whereClause.append(condition);
-        
+        addCondition(condition);
+
         if (value instanceof List) {
             parameters.addAll((List<?>) value);
         } else {
             parameters.add(value);
         }
     }
+
+    private void addCondition(String condition) {
+        if (!whereClause.isEmpty() && !whereClause.toString().endsWith(" AND ") && !whereClause.toString().endsWith(" OR ")
+                && !whereClause.toString().endsWith("NOT ")) {
+            whereClause.append(" AND ");
+        }
+        whereClause.append(condition);
+    }
+
+    /**
+     * @return the column holding the field's value, null if the field has to be read from the document.
+     */
+    private MySQLIndexedSchema.Column valueColumn(String field) {
+        MySQLIndexedSchema.Column column = schema.columnOf(field);
+        return column == null || column.presence() ? null : column;
+    }
+
+    private String operand(String field) {
+        MySQLIndexedSchema.Column column = valueColumn(field);
+        return column != null ? column.name() : jsonExtract(field);
+    }
+
+    /**
+     * The field as a BIGINT, for keyset seeks comparing it against the long of a {@link PageCursor}.
+     */
+    private String numericOperand(String field) {
+        MySQLIndexedSchema.Column column = valueColumn(field);
+        return column != null ? column.name() : "CAST(JSON_UNQUOTE(%s) AS SIGNED)".formatted(jsonExtract(field));
+    }
+
+    private String nullCheck(String field, boolean isNull) {
+        MySQLIndexedSchema.Column column = schema.columnOf(field);
+        if (column != null) {
+            if (column.presence()) {
+                return "%s = %d".formatted(column.name(), isNull ? 0 : 1);
+            }
+            return "%s IS %sNULL".formatted(column.name(), isNull ? "" : "NOT ");
+        }
+        //a field that is missing or holds a JSON null
+        String extract = jsonExtract(field);
+        return isNull
+                ? "(%1$s IS NULL OR JSON_TYPE(%1$s) = 'NULL')".formatted(extract)
+                : "(%1$s IS NOT NULL AND JSON_TYPE(%1$s) != 'NULL')".formatted(extract);
+    }
+
+    /**
+     * Quotes every path segment, so fields such as {@code revoke-info} form a valid JSON path.
+     */
+    private static String jsonExtract(String field) {
+        StringBuilder path = new StringBuilder("$");
+        for (String segment : field.split("\\.")) {
+            path.append(".\"").append(segment.replace("'", "''").replace("\"", "")).append('"');
+        }
+        return "JSON_EXTRACT(data, '%s')".formatted(path);
+    }
     
     private String buildQuery(String baseQuery) {
         StringBuilder query = new StringBuilder(baseQuery);
@@ -248,14 +492,23 @@ public class MySQLQueryBuilder<T> implements QueryBuilder<T> {
     }
     
     private void setParameters(PreparedStatement stmt) throws SQLException {
+        setParameters(stmt, parameters);
+    }
+
+    private static void setParameters(PreparedStatement stmt, List<Object> parameters) throws SQLException {
         for (int i = 0; i < parameters.size(); i++) {
             Object param = parameters.get(i);
             switch (param) {
+                case null -> stmt.setNull(i + 1, Types.NULL);
                 case String s -> stmt.setString(i + 1, s);
                 case Integer integer -> stmt.setInt(i + 1, integer);
                 case Long l -> stmt.setLong(i + 1, l);
                 case Double v -> stmt.setDouble(i + 1, v);
                 case Boolean b -> stmt.setBoolean(i + 1, b);
+                //documents store instants as epoch millis
+                case Instant instant -> stmt.setLong(i + 1, instant.toEpochMilli());
+                case UUID uuid -> stmt.setString(i + 1, uuid.toString());
+                case Enum<?> constant -> stmt.setString(i + 1, constant.name());
                 default -> stmt.setString(i + 1, param.toString());
             }
         }
@@ -4,49 +4,50 @@ import eg.mqzen.cardinal.api.storage.BatchOperation;
 import eg.mqzen.cardinal.api.storage.DBEntity;
 import eg.mqzen.cardinal.api.storage.QueryBuilder;
 import eg.mqzen.cardinal.api.storage.Repository;
+import eg.mqzen.cardinal.api.storage.SaveResult;
 import eg.mqzen.cardinal.api.storage.StorageConfig;
 import eg.mqzen.cardinal.api.storage.StorageEvent;
 import eg.mqzen.cardinal.api.storage.StorageException;
 import eg.mqzen.cardinal.api.storage.StorageMetrics;
 import eg.mqzen.cardinal.api.storage.StorageObserver;
+import eg.mqzen.cardinal.api.storage.VersionedEntity;
 import org.jetbrains.annotations.NotNull;
 import studio.mevera.imperat.util.TypeWrap;
-import tools.jackson.databind.ObjectMapper;
 
-import java.lang.reflect.Field;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CopyOnWriteArrayList;
 
-import javax.sql.DataSource;
-
 /**
  * MySQL implementation of the Repository interface.
- * Handles entity persistence using reflection and JSON serialization for complex types.
+ * Stores each entity as a JSON document, with generated columns for the fields queries filter on.
  */
 public class MySQLRepository<ID, T extends DBEntity<ID>> implements Repository<ID, T> {
 
     private final String name;
     private final TypeWrap<T> entityClass;
-    private final DataSource dataSource;
+    private final MySQLTransactionalDataSource dataSource;
     private final MySQLEntityMetadata entityMetadata;
     private final StorageMetrics metrics;
     private final CopyOnWriteArrayList<StorageObserver> observers;
-    private final ObjectMapper objectMapper;
+    private final MySQLDocumentCodec<T> codec;
+    private final MySQLIndexedSchema schema;
     private final String tableName;
     
     public MySQLRepository(
             String name,
             TypeWrap<T> entityClass,
             StorageConfig.MySQLConfig config,
-            DataSource dataSource,
+            MySQLTransactionalDataSource dataSource,
             MySQLEntityMetadata entityMetadata,
+            MySQLSchemaManager schemaManager,
             StorageMetrics metrics,
             CopyOnWriteArrayList<StorageObserver> observers
     ) {
@@ -56,32 +57,14 @@ public class MySQLRepository<ID, T extends DBEntity<ID>> implements Repository<I
         this.entityMetadata = entityMetadata;
         this.metrics = metrics;
         this.observers = observers;
-        this.objectMapper = new ObjectMapper();
+        this.codec = new MySQLDocumentCodec<>(entityClass);
+        this.schema = MySQLIndexedSchema.of(entityClass.getRawType());
         this.tableName = config.tablePrefix() + name;
-        
-        // Ensure table exists
-        createTableIfNotExists();
+
+        // Ensure table exists, with the generated columns and indexes of the entity
+        schemaManager.ensureTableExists(tableName, schema);
     }
     
-    private void createTableIfNotExists() {
-        try (Connection conn = dataSource.getConnection()) {
-            String sql = """
-                CREATE TABLE IF NOT EXISTS %s (
-                    id VARCHAR(255) PRIMARY KEY,
-                    data JSON NOT NULL,
-                    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
-                    updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP
-                )
-                """.formatted(tableName);
-            
-            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-                stmt.execute();
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException("Failed to create table: " + tableName, e);
-        }
-    }
-
     /**
      * Represents a unique name for the repo.
      *
@@ -98,20 +81,22 @@ public class MySQLRepository<ID, T extends DBEntity<ID>> implements Repository<I
         long startTime = System.currentTimeMillis();
         try (Connection conn = dataSource.getConnection()) {
             ID id = extractId(entity);
-            String json = objectMapper.writeValueAsString(entity);
+            MySQLDocumentCodec.Encoded json = codec.encode(entity);
             
             String sql = """
-                INSERT INTO %s (id, data) VALUES (?, ?)
-                ON DUPLICATE KEY UPDATE data = ?, updated_at = CURRENT_TIMESTAMP
+                INSERT INTO %s (id, data, version) VALUES (?, ?, 1) AS new
+                ON DUPLICATE KEY UPDATE data = new.data, version = version + 1, updated_at = CURRENT_TIMESTAMP
                 """.formatted(tableName);
             
             try (PreparedStatement stmt = conn.prepareStatement(sql)) {
                 stmt.setString(1, id.toString());
-                stmt.setString(2, json);
-                stmt.setString(3, json);
+                json.bind(stmt, 2);
                 stmt.executeUpdate();
             }
-            
+            if (entity instanceof VersionedEntity<?> versioned) {
+                versioned.setVersion(readVersion(conn, id.toString()));
+            }
+
             metrics.recordOperation("save", System.currentTimeMillis() - startTime);
             notifyObservers(new StorageEvent(StorageEvent.Type.ENTITY_SAVED, entityClass, entity));
             return entity;
@@ -122,23 +107,91 @@ public class MySQLRepository<ID, T extends DBEntity<ID>> implements Repository<I
         }
     }
     
+    @Override
+    public SaveResult<T> compareAndSave(T entity) throws StorageException {
+        if (!(entity instanceof VersionedEntity<?> versioned)) {
+            return SaveResult.saved(save(entity));
+        }
+
+        long startTime = System.currentTimeMillis();
+        boolean written;
+        try (Connection conn = dataSource.getConnection()) {
+            String id = entity.getEntityID().toString();
+            long expected = versioned.getVersion();
+            MySQLDocumentCodec.Encoded json = codec.encode(entity);
+
+            String sql = """
+                UPDATE %s SET data = ?, version = version + 1, updated_at = CURRENT_TIMESTAMP
+                WHERE id = ? AND version = ?
+                """.formatted(tableName);
+
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                json.bind(stmt, 1);
+                stmt.setString(2, id);
+                stmt.setLong(3, expected);
+                written = stmt.executeUpdate() > 0;
+            }
+            if (!written && expected == 0) {
+                written = insertIfAbsent(conn, id, json);
+            }
+            if (written) {
+                versioned.setVersion(expected + 1);
+            }
+
+            metrics.recordOperation("compareAndSave", System.currentTimeMillis() - startTime);
+        } catch (Exception e) {
+            metrics.recordError("compareAndSave");
+            throw new StorageException("Failed to save entity", e);
+        }
+
+        if (!written) {
+            metrics.recordError("compareAndSave.conflict");
+            return SaveResult.conflict(findById(entity.getEntityID()).orElse(null));
+        }
+        notifyObservers(new StorageEvent(StorageEvent.Type.ENTITY_SAVED, entityClass, entity));
+        return SaveResult.saved(entity);
+    }
+
+    /**
+     * @return false if a row with the same id already exists.
+     */
+    private boolean insertIfAbsent(Connection conn, String id, MySQLDocumentCodec.Encoded json) throws SQLException {
+        String sql = "INSERT INTO %s (id, data, version) VALUES (?, ?, 1)".formatted(tableName);
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, id);
+            json.bind(stmt, 2);
+            stmt.executeUpdate();
+            return true;
+        } catch (SQLIntegrityConstraintViolationException e) {
+            return false;
+        }
+    }
+
+    private long readVersion(Connection conn, String id) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT version FROM %s WHERE id = ?".formatted(tableName))) {
+            stmt.setString(1, id);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0L;
+            }
+        }
+    }
+
     @Override
     public List<T> saveAll(List<T> entities) throws StorageException {
         long startTime = System.currentTimeMillis();
         try (Connection conn = dataSource.getConnection()) {
             String sql = """
-                INSERT INTO %s (id, data) VALUES (?, ?)
-                ON DUPLICATE KEY UPDATE data = ?, updated_at = CURRENT_TIMESTAMP
+                INSERT INTO %s (id, data, version) VALUES (?, ?, 1) AS new
+                ON DUPLICATE KEY UPDATE data = new.data, version = version + 1, updated_at = CURRENT_TIMESTAMP
                 """.formatted(tableName);
             
             try (PreparedStatement stmt = conn.prepareStatement(sql)) {
                 for (T entity : entities) {
                     ID id = extractId(entity);
-                    String json = objectMapper.writeValueAsString(entity);
+                    MySQLDocumentCodec.Encoded json = codec.encode(entity);
                     
                     stmt.setString(1, id.toString());
-                    stmt.setString(2, json);
-                    stmt.setString(3, json);
+                    json.bind(stmt, 2);
                     stmt.addBatch();
                 }
                 stmt.executeBatch();
@@ -158,15 +211,17 @@ public class MySQLRepository<ID, T extends DBEntity<ID>> implements Repository<I
     public Optional<T> findById(ID id) throws StorageException {
         long startTime = System.currentTimeMillis();
         try (Connection conn = dataSource.getConnection()) {
-            String sql = "SELECT data FROM %s WHERE id = ?".formatted(tableName);
-            
+            String sql = "SELECT data, version FROM %s WHERE id = ?".formatted(tableName);
+
             try (PreparedStatement stmt = conn.prepareStatement(sql)) {
                 stmt.setString(1, id.toString());
-                
+
                 try (ResultSet rs = stmt.executeQuery()) {
                     if (rs.next()) {
-                        String json = rs.getString("data");
-                        T entity = (T) objectMapper.readValue(json, entityClass.getRawType());
+                        T entity = codec.decode(rs.getCharacterStream("data"));
+                        if (entity instanceof VersionedEntity<?> versioned) {
+                            versioned.setVersion(rs.getLong("version"));
+                        }
                         metrics.recordOperation("findById", System.currentTimeMillis() - startTime);
                         return Optional.of(entity);
                     }
@@ -186,15 +241,17 @@ public class MySQLRepository<ID, T extends DBEntity<ID>> implements Repository<I
     public List<T> findAll() throws StorageException {
         long startTime = System.currentTimeMillis();
         try (Connection conn = dataSource.getConnection()) {
-            String sql = "SELECT data FROM %s".formatted(tableName);
+            String sql = "SELECT data, version FROM %s".formatted(tableName);
             List<T> results = new ArrayList<>();
             
             try (PreparedStatement stmt = conn.prepareStatement(sql);
                  ResultSet rs = stmt.executeQuery()) {
                 
                 while (rs.next()) {
-                    String json = rs.getString("data");
-                    T entity = (T) objectMapper.readValue(json, entityClass.getRawType());
+                    T entity = codec.decode(rs.getCharacterStream("data"));
+                    if (entity instanceof VersionedEntity<?> versioned) {
+                        versioned.setVersion(rs.getLong("version"));
+                    }
                     results.add(entity);
                 }
             }
@@ -339,12 +396,12 @@ public class MySQLRepository<ID, T extends DBEntity<ID>> implements Repository<I
     
     @Override
     public QueryBuilder<T> query() {
-        return new MySQLQueryBuilder<>(entityClass, dataSource, tableName, objectMapper, metrics);
+        return new MySQLQueryBuilder<>(dataSource, tableName, codec, schema, metrics);
     }
     
     @Override
     public BatchOperation<T> batch() {
-        return new MySQLBatchOperation<>(entityClass, dataSource, tableName, objectMapper, metrics, observers);
+        return new MySQLBatchOperation<>(entityClass, dataSource, tableName, codec, metrics, observers);
     }
     
     @Override
@@ -352,33 +409,20 @@ public class MySQLRepository<ID, T extends DBEntity<ID>> implements Repository<I
         return entityClass;
     }
     
-    @SuppressWarnings("unchecked")
     private ID extractId(T entity) {
-        try {
-            Field idField = findIdField(entityClass.getRawType());
-            idField.setAccessible(true);
-            return (ID) idField.get(entity);
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to extract ID from entity", e);
-        }
+        return entity.getEntityID();
     }
-    
-    private Field findIdField(Class<?> clazz) {
-        // Look for field named "id" first
-        try {
-            return clazz.getDeclaredField("id");
-        } catch (NoSuchFieldException e) {
-            // Look for any field annotated with @Id (if using JPA annotations)
-            for (Field field : clazz.getDeclaredFields()) {
-                if (field.getName().toLowerCase().contains("id")) {
-                    return field;
-                }
-            }
-            throw new RuntimeException("No ID field found in entity class: " + clazz.getName());
+
+    /**
+     * Observers learn about the writes of a transaction once it committed, and never about rolled back ones.
+     */
+    private void notifyObservers(StorageEvent event) {
+        if (!dataSource.deferUntilCommit(() -> dispatch(event))) {
+            dispatch(event);
         }
     }
-    
-    private void notifyObservers(StorageEvent event) {
+
+    private void dispatch(StorageEvent event) {
         for (StorageObserver observer : observers) {
             try {
                 observer.onStorageEvent(event);
@@ -11,86 +11,142 @@ import javax.sql.DataSource;
 
 /**
  * Manages MySQL schema operations including table creation and validation.
+ * Tables created by older versions are brought up to date in place: missing columns and indexes are added.
  */
 public class MySQLSchemaManager {
-    
+
     private final DataSource dataSource;
     private final Set<String> createdTables = new HashSet<>();
-    
+
     public MySQLSchemaManager(DataSource dataSource) {
         this.dataSource = dataSource;
     }
-    
-    public void ensureTableExists(String tableName) {
+
+    public void ensureTableExists(String tableName, MySQLIndexedSchema schema) {
         if (createdTables.contains(tableName)) {
             return;
         }
-        
+
         synchronized (this) {
             if (createdTables.contains(tableName)) {
                 return;
             }
-            
-            if (!tableExists(tableName)) {
-                createTable(tableName);
+
+            try (Connection conn = dataSource.getConnection()) {
+                if (!tableExists(conn, tableName)) {
+                    createTable(conn, tableName, schema);
+                } else {
+                    migrateTable(conn, tableName, schema);
+                }
+            } catch (SQLException e) {
+                throw new RuntimeException("Failed to create table: " + tableName, e);
             }
-            
+
             createdTables.add(tableName);
         }
     }
-    
-    private boolean tableExists(String tableName) {
+
+    public boolean tableExists(String tableName) throws SQLException {
         try (Connection conn = dataSource.getConnection()) {
-            String sql = """
-                SELECT COUNT(*) FROM information_schema.tables 
-                WHERE table_schema = DATABASE() AND table_name = ?
-                """;
-            
-            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-                stmt.setString(1, tableName);
-                
-                try (ResultSet rs = stmt.executeQuery()) {
-                    return rs.next() && rs.getInt(1) > 0;
-                }
+            return tableExists(conn, tableName);
+        }
+    }
+
+    public synchronized void dropTable(String tableName) throws SQLException {
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement stmt = conn.prepareStatement("DROP TABLE IF EXISTS " + tableName)) {
+            stmt.executeUpdate();
+        }
+        createdTables.remove(tableName);
+    }
+
+    private boolean tableExists(Connection conn, String tableName) throws SQLException {
+        String sql = """
+            SELECT COUNT(*) FROM information_schema.tables
+            WHERE table_schema = DATABASE() AND table_name = ?
+            """;
+
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, tableName);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() && rs.getInt(1) > 0;
             }
-        } catch (SQLException e) {
-            throw new RuntimeException("Failed to check if table exists: " + tableName, e);
         }
     }
-    
-    private void createTable(String tableName) {
-        try (Connection conn = dataSource.getConnection()) {
-            String sql = """
-                CREATE TABLE %s (
-                    id VARCHAR(255) PRIMARY KEY,
-                    data JSON NOT NULL,
-                    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
-                    updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
-                    INDEX idx_created_at (created_at),
-                    INDEX idx_updated_at (updated_at)
-                ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci
-                """.formatted(tableName);
-            
-            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-                stmt.execute();
+
+    private void createTable(Connection conn, String tableName, MySQLIndexedSchema schema) throws SQLException {
+        StringBuilder definitions = new StringBuilder();
+        for (MySQLIndexedSchema.Column column : schema.columns()) {
+            definitions.append(",\n    ").append(column.name()).append(' ').append(column.definition());
+        }
+        for (MySQLIndexedSchema.Index index : schema.indexes()) {
+            definitions.append(",\n    INDEX ").append(index.name()).append(" (").append(index.columns()).append(')');
+        }
+
+        String sql = """
+            CREATE TABLE %s (
+                id VARCHAR(255) PRIMARY KEY,
+                data JSON NOT NULL,
+                version BIGINT NOT NULL DEFAULT 0,
+                created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+                updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+                INDEX idx_created_at (created_at),
+                INDEX idx_updated_at (updated_at)%s
+            ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci
+            """.formatted(tableName, definitions);
+
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.execute();
+        }
+    }
+
+    /**
+     * Adds whatever the table misses, generated columns being filled from the existing rows by MySQL itself.
+     */
+    private void migrateTable(Connection conn, String tableName, MySQLIndexedSchema schema) throws SQLException {
+        Set<String> columns = existingNames(conn, """
+            SELECT column_name FROM information_schema.columns
+            WHERE table_schema = DATABASE() AND table_name = ?
+            """, tableName);
+
+        //tables created before versioning, their rows start at version 0.
+        if (!columns.contains("version")) {
+            execute(conn, "ALTER TABLE %s ADD COLUMN version BIGINT NOT NULL DEFAULT 0".formatted(tableName));
+        }
+        for (MySQLIndexedSchema.Column column : schema.columns()) {
+            if (!columns.contains(column.name())) {
+                execute(conn, "ALTER TABLE %s ADD COLUMN %s %s".formatted(tableName, column.name(), column.definition()));
+            }
+        }
+
+        Set<String> indexes = existingNames(conn, """
+            SELECT DISTINCT index_name FROM information_schema.statistics
+            WHERE table_schema = DATABASE() AND table_name = ?
+            """, tableName);
+        for (MySQLIndexedSchema.Index index : schema.indexes()) {
+            if (!indexes.contains(index.name())) {
+                execute(conn, "CREATE INDEX %s ON %s (%s)".formatted(index.name(), tableName, index.columns()));
             }
-        } catch (SQLException e) {
-            throw new RuntimeException("Failed to create table: " + tableName, e);
         }
     }
-    
-    public void createJsonIndex(String tableName, String fieldPath, String indexName) {
-        try (Connection conn = dataSource.getConnection()) {
-            String sql = """
-                CREATE INDEX %s ON %s ((JSON_EXTRACT(data, '$.%s')))
-                """.formatted(indexName, tableName, fieldPath);
-            
-            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-                stmt.execute();
+
+    private static Set<String> existingNames(Connection conn, String sql, String tableName) throws SQLException {
+        Set<String> names = new HashSet<>();
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, tableName);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    names.add(rs.getString(1).toLowerCase());
+                }
             }
-        } catch (SQLException e) {
-            // Index might already exist, log but don't fail
-            System.err.println("Failed to create JSON index: " + e.getMessage());
+        }
+        return names;
+    }
+
+    private static void execute(Connection conn, String sql) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.execute();
         }
     }
-}
\ No newline at end of file
+}
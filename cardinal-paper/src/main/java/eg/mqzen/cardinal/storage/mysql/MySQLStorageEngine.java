@@ -25,6 +25,7 @@ import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 
@@ -37,23 +38,29 @@ import javax.sql.DataSource;
 public class MySQLStorageEngine implements StorageEngine {
 
     private final StorageConfig.MySQLConfig config;
-    private final DataSource dataSource;
+    private final MySQLTransactionalDataSource dataSource;
     private final ConcurrentHashMap<String, Repository<?, ?>> repositories;
     private final CopyOnWriteArrayList<StorageObserver> observers;
     private final StorageMetrics metrics;
     private final Executor asyncExecutor;
+    private final ExecutorService fanOutExecutor;
     private final MySQLEntityMetadata entityMetadata;
+    private final MySQLSchemaManager schemaManager;
     private volatile boolean closed = false;
     
     public MySQLStorageEngine(StorageConfig.MySQLConfig config) throws StorageException {
         try {
             this.config = config;
-            this.dataSource = createDataSource(config);
+            this.dataSource = new MySQLTransactionalDataSource(createDataSource(config));
             this.repositories = new ConcurrentHashMap<>();
             this.observers = new CopyOnWriteArrayList<>();
             this.metrics = new StorageMetricsImpl();
             this.asyncExecutor = Executors.newFixedThreadPool(10);
+            //no more concurrent repository queries than pooled connections
+            this.fanOutExecutor = MultiRepositoryQueryBuilder.newFanOutExecutor(
+                    Math.min(config.poolSize(), MultiRepositoryQueryBuilder.MAX_FAN_OUT_THREADS));
             this.entityMetadata = new MySQLEntityMetadata();
+            this.schemaManager = new MySQLSchemaManager(dataSource);
             
             // Test connection
             try (Connection conn = dataSource.getConnection()) {
@@ -79,6 +86,8 @@ public class MySQLStorageEngine implements StorageEngine {
         hikariConfig.addDataSourceProperty("cachePrepStmts", "true");
         hikariConfig.addDataSourceProperty("prepStmtCacheSize", "250");
         hikariConfig.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+        //statements with a fetch size read through a server-side cursor, the others are unaffected
+        hikariConfig.addDataSourceProperty("useCursorFetch", "true");
         
         return new HikariDataSource(hikariConfig);
     }
@@ -96,10 +105,29 @@ public class MySQLStorageEngine implements StorageEngine {
         }
         
         return (Repository<ID, T>) repositories.computeIfAbsent(name,
-            clazz -> new MySQLRepository<>(name, entityClass, config, dataSource, entityMetadata, metrics, observers));
+            clazz -> new MySQLRepository<>(name, entityClass, config, dataSource, entityMetadata, schemaManager, metrics, observers));
     }
 
 
+    @Override
+    public boolean hasRepository(String name) throws StorageException {
+        try {
+            return schemaManager.tableExists(config.tablePrefix() + name);
+        } catch (SQLException e) {
+            throw new StorageException("Failed to check table of repository '" + name + "'", e);
+        }
+    }
+
+    @Override
+    public void dropRepository(String name) throws StorageException {
+        try {
+            schemaManager.dropTable(config.tablePrefix() + name);
+            repositories.remove(name);
+        } catch (SQLException e) {
+            throw new StorageException("Failed to drop table of repository '" + name + "'", e);
+        }
+    }
+
     @Override
     public <ID, T extends DBEntity<ID>> QueryBuilder<T> queryAcrossRepositories(TypeWrap<T> entityClass) {
         // Get all repositories that store the specified entity class
@@ -108,7 +136,8 @@ public class MySQLStorageEngine implements StorageEngine {
                 .map((r)-> (Repository<?, T>)r)
                 .collect(Collectors.toList());
 
-        return new MultiRepositoryQueryBuilder<>(matchingRepos, metrics);
+        return new MultiRepositoryQueryBuilder<>(matchingRepos, metrics, fanOutExecutor,
+                MultiRepositoryQueryBuilder.DEFAULT_REPOSITORY_TIMEOUT);
     }
     
     @Override
@@ -121,25 +150,23 @@ public class MySQLStorageEngine implements StorageEngine {
         observers.remove(observer);
     }
     
+    /**
+     * Runs the command on a single connection, committed once the command returns.
+     * Every repository, query and batch called by the command on this thread writes through that connection.
+     */
     @Override
     public <T> T executeTransaction(StorageCommand<T> command) throws StorageException {
         long startTime = System.currentTimeMillis();
-        try (Connection conn = dataSource.getConnection()) {
-            conn.setAutoCommit(false);
-            
-            try {
-                T result = command.execute();
-                conn.commit();
-                metrics.recordOperation("transaction", System.currentTimeMillis() - startTime);
-                return result;
-            } catch (Exception e) {
-                conn.rollback();
-                metrics.recordError("transaction");
-                throw new StorageException("Transaction failed", e);
-            }
-        } catch (SQLException e) {
+        try {
+            T result = dataSource.inTransaction(command);
+            metrics.recordOperation("transaction", System.currentTimeMillis() - startTime);
+            return result;
+        } catch (StorageException e) {
+            metrics.recordError("transaction");
+            throw e;
+        } catch (RuntimeException e) {
             metrics.recordError("transaction");
-            throw new StorageException("Failed to execute transaction", e);
+            throw new StorageException("Transaction failed", e);
         }
     }
     
@@ -154,6 +181,11 @@ public class MySQLStorageEngine implements StorageEngine {
         }, asyncExecutor);
     }
     
+    @Override
+    public Executor getQueryExecutor() {
+        return fanOutExecutor;
+    }
+
     @Override
     public StorageMetrics getMetrics() {
         return metrics;
@@ -167,9 +199,10 @@ public class MySQLStorageEngine implements StorageEngine {
     @Override
     public void close() throws Exception {
         closed = true;
-        if (dataSource instanceof HikariDataSource) {
-            ((HikariDataSource) dataSource).close();
+        if (dataSource.pool() instanceof HikariDataSource hikari) {
+            hikari.close();
         }
+        fanOutExecutor.shutdownNow();
         if (asyncExecutor instanceof AutoCloseable) {
             ((AutoCloseable) asyncExecutor).close();
         }
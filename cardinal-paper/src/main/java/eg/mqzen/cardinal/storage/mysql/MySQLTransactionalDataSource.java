@@ -0,0 +1,139 @@
+package eg.mqzen.cardinal.storage.mysql;
+
+import eg.mqzen.cardinal.api.storage.StorageCommand;
+import eg.mqzen.cardinal.api.storage.StorageException;
+import eg.mqzen.cardinal.storage.TransactionBinding;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+/**
+ * The data source handed to repositories, query builders and batches.
+ * Inside {@link #inTransaction} every {@link #getConnection()} of the transaction's thread returns the
+ * transaction's connection, on which {@code close}, {@code commit}, {@code rollback} and {@code setAutoCommit}
+ * are ignored: the transaction commits (or rolls back) once, when its command returns.
+ * Outside of a transaction connections come from the pool in auto-commit mode, each statement committing on its own.
+ */
+final class MySQLTransactionalDataSource implements DataSource {
+
+    //left to the transaction owner
+    private static final Set<String> IGNORED_METHODS = Set.of("close", "commit", "rollback", "setAutoCommit");
+
+    private final DataSource pool;
+    private final TransactionBinding<Connection> binding = new TransactionBinding<>();
+
+    MySQLTransactionalDataSource(DataSource pool) {
+        this.pool = pool;
+    }
+
+    DataSource pool() {
+        return pool;
+    }
+
+    /**
+     * @see TransactionBinding#deferUntilCommit(Runnable)
+     */
+    boolean deferUntilCommit(Runnable action) {
+        return binding.deferUntilCommit(action);
+    }
+
+    /**
+     * Runs the command on one connection with a single commit, rolled back if the command fails.
+     * A nested call joins the transaction already running on this thread.
+     */
+    <T> T inTransaction(StorageCommand<T> command) throws StorageException {
+        if (binding.inTransaction()) {
+            return command.execute();
+        }
+
+        try (Connection conn = pool.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                return binding.runBound(participant(conn), command, conn::commit);
+            } catch (StorageException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            throw new StorageException("Transaction failed", e);
+        }
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        Connection bound = binding.current();
+        if (bound != null) {
+            return bound;
+        }
+
+        Connection conn = pool.getConnection();
+        //the pool is configured without auto-commit, restored by the pool once the connection returns
+        conn.setAutoCommit(true);
+        return conn;
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Connections are only borrowed from the pool");
+    }
+
+    /**
+     * The transaction's connection as handed to the statements of the transaction.
+     */
+    private static Connection participant(Connection conn) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    if (IGNORED_METHODS.contains(method.getName())) {
+                        return null;
+                    }
+                    try {
+                        return method.invoke(conn, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return pool.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        pool.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        pool.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return pool.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return pool.getParentLogger();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        return iface.isInstance(this) ? iface.cast(this) : pool.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || pool.isWrapperFor(iface);
+    }
+}
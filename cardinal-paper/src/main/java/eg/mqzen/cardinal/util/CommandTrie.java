@@ -0,0 +1,136 @@
+package eg.mqzen.cardinal.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Immutable, case-insensitive prefix trie of command labels, used to tell whether a typed command
+ * starts with one of a set of commands.
+ * <p>
+ * Commands are stored without their leading slash nor namespace, so {@code /msg}, {@code /MSG}
+ * and {@code /minecraft:msg} all match the entry {@code msg}. An entry only matches whole words:
+ * {@code msg} matches {@code /msg Steve hi} but not {@code /msgtoggle}.
+ * Entries may span several words (e.g. {@code party chat}).
+ * <p>
+ * Matching walks the typed command once, without allocating.
+ */
+public final class CommandTrie {
+
+    private static final CommandTrie EMPTY = new CommandTrie(new Node(), 0);
+
+    private final Node root;
+    private final int size;
+
+    private CommandTrie(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    public static CommandTrie empty() {
+        return EMPTY;
+    }
+
+    /**
+     * @param commands the commands to match, with or without their leading slash and namespace.
+     */
+    public static CommandTrie compile(@NotNull Collection<String> commands) {
+        Node root = new Node();
+        int size = 0;
+        for(String command : commands) {
+            String label = normalize(command);
+            if(label.isEmpty()) {
+                continue;
+            }
+            Node node = root;
+            for(int i = 0; i < label.length(); i++) {
+                node = node.childOrCreate(label.charAt(i));
+            }
+            if(!node.terminal) {
+                node.terminal = true;
+                size++;
+            }
+        }
+        return size == 0 ? EMPTY : new CommandTrie(root, size);
+    }
+
+    /**
+     * @param message the typed command, e.g. {@code /minecraft:msg Steve hi}
+     * @return true if the message starts with one of the compiled commands.
+     */
+    public boolean matches(@NotNull String message) {
+        int start = labelStart(message);
+        Node node = root;
+        for(int i = start; i < message.length(); i++) {
+            char c = Character.toLowerCase(message.charAt(i));
+            if(c == ' ' && node.terminal) {
+                return true;
+            }
+            node = node.child(c);
+            if(node == null) {
+                return false;
+            }
+        }
+        return node.terminal;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the index right after the leading slash and the namespace (if any) of the command label
+     */
+    private static int labelStart(String message) {
+        int start = !message.isEmpty() && message.charAt(0) == '/' ? 1 : 0;
+        for(int i = start; i < message.length(); i++) {
+            char c = message.charAt(i);
+            if(c == ' ') {
+                break;
+            }
+            if(c == ':') {
+                return i + 1;
+            }
+        }
+        return start;
+    }
+
+    private static String normalize(String command) {
+        String trimmed = command.trim();
+        return trimmed.substring(labelStart(trimmed)).trim().toLowerCase();
+    }
+
+    private static final class Node {
+
+        private char[] keys = new char[0];
+        private Node[] children = new Node[0];
+        private boolean terminal;
+
+        private Node child(char c) {
+            char[] keys = this.keys;
+            for(int i = 0; i < keys.length; i++) {
+                if(keys[i] == c) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        private Node childOrCreate(char c) {
+            Node child = child(c);
+            if(child == null) {
+                child = new Node();
+                keys = Arrays.copyOf(keys, keys.length + 1);
+                children = Arrays.copyOf(children, children.length + 1);
+                keys[keys.length - 1] = c;
+                children[children.length - 1] = child;
+            }
+            return child;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package eg.mqzen.cardinal.util;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * A counting Bloom filter keyed by {@link UUID}.
+ * <p>
+ * Every slot is an 8-bit saturating counter, which allows elements to be removed
+ * again (unlike a plain Bloom filter). A counter that reaches 255 sticks there and is
+ * never decremented, trading a slightly higher false-positive rate for never
+ * producing a false negative.
+ * <p>
+ * Writers are serialized on the filter's monitor, readers are lock-free: a reader
+ * first reads the volatile {@code modCount} which publishes every counter written before it.
+ */
+public final class CountingBloomFilter {
+
+    private static final int MAX_COUNT = 0xFF;
+
+    private final byte[] counters;
+    private final int numHashFunctions;
+    private final int expectedInsertions;
+    private final double targetFalsePositiveRate;
+
+    private int elements;
+    private volatile long modCount;
+
+    public CountingBloomFilter(int expectedInsertions, double falsePositiveRate) {
+        if (expectedInsertions <= 0) {
+            throw new IllegalArgumentException("expectedInsertions must be positive");
+        }
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("falsePositiveRate must be between 0 and 1 (exclusive)");
+        }
+        this.expectedInsertions = expectedInsertions;
+        this.targetFalsePositiveRate = falsePositiveRate;
+
+        long slots = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        this.counters = new byte[(int) Math.max(64, Math.min(slots, Integer.MAX_VALUE - 8))];
+        this.numHashFunctions = Math.max(1, (int) Math.round((double) counters.length / expectedInsertions * Math.log(2)));
+    }
+
+    public synchronized void add(UUID uuid) {
+        long h1 = mix(uuid.getMostSignificantBits() ^ Long.rotateLeft(uuid.getLeastSignificantBits(), 32));
+        long h2 = mix(uuid.getLeastSignificantBits() + 0x9E3779B97F4A7C15L);
+        for (int i = 0; i < numHashFunctions; i++) {
+            int index = index(h1, h2, i);
+            int count = counters[index] & 0xFF;
+            if (count < MAX_COUNT) {
+                counters[index] = (byte) (count + 1);
+            }
+        }
+        elements++;
+        modCount++;
+    }
+
+    /**
+     * Removes one occurrence of the uuid. Callers must only remove what they previously added,
+     * otherwise the filter may report false negatives.
+     */
+    public synchronized void remove(UUID uuid) {
+        if (!mightContain(uuid)) {
+            return;
+        }
+        long h1 = mix(uuid.getMostSignificantBits() ^ Long.rotateLeft(uuid.getLeastSignificantBits(), 32));
+        long h2 = mix(uuid.getLeastSignificantBits() + 0x9E3779B97F4A7C15L);
+        for (int i = 0; i < numHashFunctions; i++) {
+            int index = index(h1, h2, i);
+            int count = counters[index] & 0xFF;
+            if (count > 0 && count < MAX_COUNT) {
+                counters[index] = (byte) (count - 1);
+            }
+        }
+        elements = Math.max(0, elements - 1);
+        modCount++;
+    }
+
+    public boolean mightContain(UUID uuid) {
+        long ignored = modCount;
+        long h1 = mix(uuid.getMostSignificantBits() ^ Long.rotateLeft(uuid.getLeastSignificantBits(), 32));
+        long h2 = mix(uuid.getLeastSignificantBits() + 0x9E3779B97F4A7C15L);
+        for (int i = 0; i < numHashFunctions; i++) {
+            if (counters[index(h1, h2, i)] == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public synchronized void clear() {
+        Arrays.fill(counters, (byte) 0);
+        elements = 0;
+        modCount++;
+    }
+
+    /**
+     * @return the false-positive probability expected for the current number of elements
+     */
+    public double expectedFalsePositiveRate() {
+        long ignored = modCount;
+        double exponent = -(double) numHashFunctions * elements / counters.length;
+        return Math.pow(1 - Math.exp(exponent), numHashFunctions);
+    }
+
+    public int approximateElementCount() {
+        long ignored = modCount;
+        return elements;
+    }
+
+    public long memoryBytes() {
+        return counters.length;
+    }
+
+    public int getExpectedInsertions() {
+        return expectedInsertions;
+    }
+
+    public double getTargetFalsePositiveRate() {
+        return targetFalsePositiveRate;
+    }
+
+    public int getNumHashFunctions() {
+        return numHashFunctions;
+    }
+
+    private int index(long h1, long h2, int i) {
+        long combined = h1 + i * h2;
+        return (int) ((combined & Long.MAX_VALUE) % counters.length);
+    }
+
+    // finalizer of MurmurHash3 (fmix64)
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB93FE5AD2BD5L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,98 @@
+package eg.mqzen.cardinal.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with logarithmic buckets, used to report percentiles (p50, p99...).
+ * <p>
+ * Values are recorded in microseconds. Every power of two is split into {@value #SUB_BUCKETS} linear
+ * sub-buckets, so a reported percentile is at most ~12.5% above the real value.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sumMicros = new LongAdder();
+
+    public void record(long duration, TimeUnit unit) {
+        long micros = Math.max(0, unit.toMicros(duration));
+        counts.incrementAndGet(bucketOf(micros));
+        total.increment();
+        sumMicros.add(micros);
+    }
+
+    public void recordNanosSince(long startNanos) {
+        record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public long count() {
+        return total.sum();
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the upper bound (in microseconds) of the bucket holding the given percentile, 0 if empty
+     */
+    public long percentileMicros(double percentile) {
+        long count = total.sum();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(count * Math.min(100.0, Math.max(0.0, percentile)) / 100.0);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += counts.get(bucket);
+            if (seen >= Math.max(1, rank)) {
+                return upperBoundOf(bucket);
+            }
+        }
+        return upperBoundOf(BUCKETS - 1);
+    }
+
+    public Map<String, Object> snapshot(String prefix) {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        long count = total.sum();
+        snapshot.put(prefix + ".count", count);
+        snapshot.put(prefix + ".avg-micros", count == 0 ? 0 : sumMicros.sum() / count);
+        snapshot.put(prefix + ".p50-micros", percentileMicros(50));
+        snapshot.put(prefix + ".p99-micros", percentileMicros(99));
+        snapshot.put(prefix + ".p999-micros", percentileMicros(99.9));
+        return snapshot;
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        total.reset();
+        sumMicros.reset();
+    }
+
+    private static int bucketOf(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(micros); // >= SUB_BUCKET_BITS
+        int subBucket = (int) (micros >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return Math.min(BUCKETS - 1, (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket);
+    }
+
+    private static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int magnitude = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int subBucket = bucket % SUB_BUCKETS;
+        long base = 1L << magnitude;
+        long width = 1L << (magnitude - SUB_BUCKET_BITS);
+        return base + (subBucket + 1) * width - 1;
+    }
+}
@@ -0,0 +1,72 @@
+package eg.mqzen.cardinal.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent loads of the same key: while a load is in flight, every other caller asking
+ * for that key receives the same result instead of starting its own load.
+ * The key is forgotten as soon as its load completes, so results are never cached here.
+ */
+public final class SingleFlight<K, V> {
+
+    private final Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * @param loader starts the load, only called if no load of the key is in flight.
+     * @return a future completed with the result of the (possibly shared) load.
+     */
+    public CompletableFuture<V> execute(@NotNull K key, @NotNull Supplier<CompletableFuture<V>> loader) {
+        CompletableFuture<V> flight = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, flight);
+        if(existing != null) {
+            coalesced.increment();
+            return existing.copy();
+        }
+        loads.increment();
+
+        CompletableFuture<V> load;
+        try {
+            load = loader.get();
+        } catch (Throwable ex) {
+            load = CompletableFuture.failedFuture(ex);
+        }
+
+        load.whenComplete((result, ex)-> {
+            inFlight.remove(key, flight);
+            if(ex != null) {
+                flight.completeExceptionally(ex);
+            } else {
+                flight.complete(result);
+            }
+        });
+        return flight.copy();
+    }
+
+    public int inFlightCount() {
+        return inFlight.size();
+    }
+
+    /**
+     * @return the number of loads started, coalesced requests, the share of requests that were coalesced
+     * and the loads currently in flight.
+     */
+    public Map<String, Object> snapshot(String prefix) {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        long loads = this.loads.sum();
+        long coalesced = this.coalesced.sum();
+        snapshot.put(prefix + ".loads", loads);
+        snapshot.put(prefix + ".coalesced", coalesced);
+        snapshot.put(prefix + ".coalescing-ratio", loads + coalesced == 0 ? 0.0 : (double) coalesced / (loads + coalesced));
+        snapshot.put(prefix + ".in-flight", inFlight.size());
+        return snapshot;
+    }
+}
@@ -0,0 +1,63 @@
+package eg.mqzen.cardinal.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * A fixed set of locks, each key being mapped to one of them by its hash.
+ * Writes to the same key are serialized while writes to unrelated keys rarely contend,
+ * without keeping a lock object per key.
+ */
+public final class StripedLocks {
+
+    private final ReentrantLock[] locks;
+    private final int mask;
+
+    /**
+     * @param stripes the number of locks, rounded up to a power of two.
+     */
+    public StripedLocks(int stripes) {
+        int size = Integer.highestOneBit(Math.max(2, stripes - 1) << 1);
+        this.locks = new ReentrantLock[size];
+        for(int i = 0; i < size; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        this.mask = size - 1;
+    }
+
+    public static StripedLocks forAvailableProcessors() {
+        return new StripedLocks(Runtime.getRuntime().availableProcessors() * 8);
+    }
+
+    public @NotNull ReentrantLock lockFor(@NotNull Object key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return locks[(hash * 0x9E3779B9) >>> 16 & mask];
+    }
+
+    public <T> T withLock(@NotNull Object key, @NotNull Supplier<T> action) {
+        ReentrantLock lock = lockFor(key);
+        lock.lock();
+        try {
+            return action.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void runWithLock(@NotNull Object key, @NotNull Runnable action) {
+        ReentrantLock lock = lockFor(key);
+        lock.lock();
+        try {
+            action.run();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int stripes() {
+        return locks.length;
+    }
+}
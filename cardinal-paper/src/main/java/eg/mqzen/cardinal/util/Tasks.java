@@ -25,4 +25,8 @@ public class Tasks {
 	public static void runSyncLater(Runnable runnable, long l) {
 		Bukkit.getScheduler().runTaskLater(Cardinal.getInstance(), runnable, l);
 	}
+
+	public static void runTimer(@NotNull Runnable runnable, long delay, long period) {
+		Bukkit.getScheduler().runTaskTimer(Cardinal.getInstance(), runnable, delay, period);
+	}
 }
\ No newline at end of file